@@ -0,0 +1,93 @@
+package com.henrikroslund;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic data for the benchmarks. Everything is created from a fixed seed so all runs and all engines
+ * compared against each other use the same workload.
+ */
+public class BenchmarkData {
+
+    public static final long SEED = 0x5EED;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    private static final int FASTA_LINE_LENGTH = 80;
+    public static final String GENOME_NAME = "benchmark";
+
+    /**
+     * Will return random bases where every base is equally likely
+     */
+    public static String randomBases(int length, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder bases = new StringBuilder(length);
+        for(int i = 0; i < length; i++) {
+            bases.append(BASES[random.nextInt(BASES.length)]);
+        }
+        return bases.toString();
+    }
+
+    /**
+     * Will return random sequences where every sequence starts with a TTT PAM with the given probability,
+     * which makes the share of sequences passing the PAM evaluators similar to a real genome
+     */
+    public static Sequence[] randomSequences(int count, double pamProbability, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Sequence[] sequences = new Sequence[count];
+        for(int i = 0; i < count; i++) {
+            long encoded = random.nextLong() & SequenceEncoding.RAW_MASK;
+            if(random.nextDouble() < pamProbability) {
+                // T is encoded with both bits set
+                encoded |= SequenceEncoding.rangeMask(0, 2);
+            }
+            sequences[i] = new Sequence(encoded, i, GENOME_NAME, random.nextBoolean());
+        }
+        return sequences;
+    }
+
+    /**
+     * Will write a fasta file with a single record of random bases
+     */
+    public static Path writeFasta(int length, long seed) throws IOException {
+        Path path = Files.createTempFile(GENOME_NAME, Utils.FASTA_FILE_ENDING);
+        path.toFile().deleteOnExit();
+        String bases = randomBases(length, seed);
+        StringBuilder fasta = new StringBuilder(length + length / FASTA_LINE_LENGTH + 64);
+        fasta.append(">").append(GENOME_NAME).append(" synthetic genome\n");
+        for(int i = 0; i < length; i += FASTA_LINE_LENGTH) {
+            fasta.append(bases, i, Math.min(length, i + FASTA_LINE_LENGTH)).append('\n');
+        }
+        Files.writeString(path, fasta);
+        return path;
+    }
+}
@@ -0,0 +1,102 @@
+package com.henrikroslund;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.evaluators.CrisprPamEvaluator;
+import com.henrikroslund.evaluators.SequenceEvaluator;
+import com.henrikroslund.sequence.Sequence;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures creating a genome from a synthetic fasta file and looking up sequences in it,
+ * for both the regular and the indexed genome.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GenomeBenchmark {
+
+    // Sequences looked up per invocation, half of which exist in the genome
+    private static final int LOOKUPS = 4096;
+
+    @Param({"1000000", "10000000"})
+    private int genomeSize;
+
+    @Param({"false", "true"})
+    private boolean indexed;
+
+    private final List<SequenceEvaluator> criteria = Collections.singletonList(new CrisprPamEvaluator(false));
+    private File fastaFile;
+    private String sequenceData;
+    private Genome genome;
+    private Sequence[] lookups;
+
+    @Setup
+    public void setup() throws Exception {
+        fastaFile = BenchmarkData.writeFasta(genomeSize, BenchmarkData.SEED).toFile();
+        sequenceData = BenchmarkData.randomBases(genomeSize, BenchmarkData.SEED);
+        genome = new Genome(fastaFile, criteria, true, false, indexed);
+
+        Sequence[] missing = BenchmarkData.randomSequences(LOOKUPS / 2, 1, BenchmarkData.SEED + 1);
+        List<Sequence> existing = List.copyOf(genome.getSequences());
+        lookups = new Sequence[LOOKUPS];
+        for(int i = 0; i < LOOKUPS; i++) {
+            lookups[i] = i % 2 == 0 ? existing.get((i * 7919) % existing.size()) : missing[i / 2];
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Genome createFromFile() throws Exception {
+        return new Genome(fastaFile, criteria, true, false, indexed);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Genome createSequences() {
+        Genome result = new Genome(true, fastaFile.getName(), "");
+        result.createSequences(criteria, sequenceData);
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void exists(Blackhole blackhole) {
+        for(Sequence sequence : lookups) {
+            blackhole.consume(genome.exists(sequence));
+        }
+    }
+}
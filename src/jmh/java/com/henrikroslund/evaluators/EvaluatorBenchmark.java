@@ -0,0 +1,130 @@
+package com.henrikroslund.evaluators;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.BenchmarkData;
+import com.henrikroslund.evaluators.comparisons.MismatchEvaluator;
+import com.henrikroslund.evaluators.comparisons.TypeEvaluator;
+import com.henrikroslund.sequence.Sequence;
+import org.apache.commons.lang3.Range;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to evaluate one sequence for each evaluator. The sequences are random with a share of
+ * TTT PAMs so the evaluators which can exit early do so about as often as on a real genome.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluatorBenchmark {
+
+    // Sequences evaluated per invocation so the result is the time per sequence
+    private static final int SEQUENCES = 4096;
+
+    @Param({"0.25"})
+    private double pamProbability;
+
+    private Sequence[] data;
+    private Sequence reference;
+
+    private CrisprPamEvaluator crisprPamEvaluator;
+    private CrisprPamEvaluator strictCrisprPamEvaluator;
+    private MismatchEvaluator mismatchEvaluator;
+    private TypeEvaluator typeEvaluator;
+    private NoConsecutiveIdenticalN1N20Evaluator noConsecutiveIdenticalEvaluator;
+    private GCContentN1N20Evaluator gcContentEvaluator;
+
+    @Setup
+    public void setup() {
+        data = BenchmarkData.randomSequences(SEQUENCES, pamProbability, BenchmarkData.SEED);
+        reference = data[0];
+        crisprPamEvaluator = new CrisprPamEvaluator(false);
+        strictCrisprPamEvaluator = new CrisprPamEvaluator(true);
+        mismatchEvaluator = new MismatchEvaluator(reference, Range.between(0, 3), Range.between(Sequence.N1_INDEX, Sequence.N20_INDEX));
+        typeEvaluator = new TypeEvaluator(reference);
+        noConsecutiveIdenticalEvaluator = new NoConsecutiveIdenticalN1N20Evaluator(NoConsecutiveIdenticalN1N20Evaluator.Type.QUADRUPLE);
+        gcContentEvaluator = new GCContentN1N20Evaluator();
+    }
+
+    private void evaluate(SequenceEvaluator evaluator, Blackhole blackhole) {
+        for(Sequence sequence : data) {
+            blackhole.consume(evaluator.evaluate(sequence));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void crisprPamEvaluator(Blackhole blackhole) {
+        evaluate(crisprPamEvaluator, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void strictCrisprPamEvaluator(Blackhole blackhole) {
+        evaluate(strictCrisprPamEvaluator, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void mismatchEvaluator(Blackhole blackhole) {
+        evaluate(mismatchEvaluator, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void compiledMismatchEvaluator(Blackhole blackhole) {
+        CompiledEvaluator compiled = mismatchEvaluator.compile();
+        long encoded = reference.getEncoded();
+        for(Sequence sequence : data) {
+            blackhole.consume(compiled.evaluate(encoded, sequence.getEncoded()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void typeEvaluator(Blackhole blackhole) {
+        evaluate(typeEvaluator, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void noConsecutiveIdenticalN1N20Evaluator(Blackhole blackhole) {
+        evaluate(noConsecutiveIdenticalEvaluator, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void gcContentN1N20Evaluator(Blackhole blackhole) {
+        evaluate(gcContentEvaluator, blackhole);
+    }
+}
@@ -0,0 +1,89 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Sequence operations used when sorting, deduplicating and looking up sequences
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequenceBenchmark {
+
+    // Sequences compared per invocation so the result is the time per operation
+    private static final int SEQUENCES = 4096;
+
+    private Sequence[] data;
+    private Sequence[] copies;
+
+    @Setup
+    public void setup() {
+        data = BenchmarkData.randomSequences(SEQUENCES, 0, BenchmarkData.SEED);
+        copies = BenchmarkData.randomSequences(SEQUENCES, 0, BenchmarkData.SEED);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void compareTo(Blackhole blackhole) {
+        for(int i = 1; i < SEQUENCES; i++) {
+            blackhole.consume(data[i].compareTo(data[i-1]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void equals(Blackhole blackhole) {
+        for(int i = 0; i < SEQUENCES; i++) {
+            blackhole.consume(data[i].equals(copies[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void getComplement(Blackhole blackhole) {
+        for(Sequence sequence : data) {
+            blackhole.consume(sequence.getComplement());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENCES)
+    public void encode(Blackhole blackhole) {
+        for(Sequence sequence : data) {
+            blackhole.consume(SequenceEncoding.encode(sequence.getRaw()));
+        }
+    }
+}
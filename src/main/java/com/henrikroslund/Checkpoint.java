@@ -0,0 +1,210 @@
+package com.henrikroslund;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.sequence.PackedSequencesFile;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Lets a long pipeline run be resumed after it has been interrupted. The checkpoint directory of a pipeline has
+ * one sub directory per stage holding the state of the stage. A completed stage has the genome it resulted in so
+ * it does not have to run again. A stage processing one genome file at a time has the paths of the files it has
+ * processed, relative to the input folder of the stage, and the candidates as they were after the last of them, including the meta data counters, so the stage
+ * can continue with the next file.
+ *
+ * The genomes are written in the binary genome format which restores the sequences, their order and meta data
+ * exactly. A new genome file is written for every update and the state file referring to it is replaced atomically
+ * afterwards, so an interrupted update leaves the previous state.
+ */
+@Log
+public class Checkpoint {
+
+    private static final String STATE_FILE = "checkpoint.properties";
+    private static final String TEMPORARY_FILE_ENDING = ".tmp";
+    private static final String GENOME_FILE_PREFIX = "genome_";
+
+    private static final String DESCRIPTION = "description";
+    private static final String COMPLETED = "completed";
+    private static final String PROCESSED_FILES = "processedFiles";
+    private static final String PROCESSED_FILE = "processedFile.";
+    private static final String UPDATES = "updates";
+    private static final String GENOME_FILE = "genome.file";
+    private static final String GENOME_FILENAME = "genome.filename";
+    private static final String GENOME_PATH = "genome.path";
+    private static final String GENOME_SKIP_DUPLICATES = "genome.skipDuplicates";
+    private static final String GENOME_INCLUDE_ALL_CHROMOSOMES = "genome.includeAllChromosomes";
+    private static final String GENOME_INDEXED = "genome.indexed";
+
+    @Getter
+    private final Path directory;
+    private final Properties state = new Properties();
+    private final List<String> processedFiles = new ArrayList<>();
+
+    public Checkpoint(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        Path stateFile = directory.resolve(STATE_FILE);
+        if(Files.exists(stateFile)) {
+            try(Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+                state.load(reader);
+            }
+            int processed = Integer.parseInt(state.getProperty(PROCESSED_FILES, "0"));
+            for(int i = 0; i < processed; i++) {
+                processedFiles.add(state.getProperty(PROCESSED_FILE + i));
+            }
+        }
+    }
+
+    /**
+     * Will return the checkpoint of a stage. The description of the stage is stored in its checkpoint the first
+     * time so the checkpoint is never used by a stage which has been configured differently.
+     */
+    public Checkpoint getStageCheckpoint(int stageNumber, String name, String description) throws IOException {
+        Checkpoint checkpoint = new Checkpoint(directory.resolve(stageNumber + "_" + name));
+        String previousDescription = checkpoint.state.getProperty(DESCRIPTION);
+        if(previousDescription == null) {
+            checkpoint.state.setProperty(DESCRIPTION, description);
+            checkpoint.saveState();
+        } else if(!previousDescription.equals(description)) {
+            throw new IllegalStateException("Checkpoint " + checkpoint.directory + " was created by a stage configured as "
+                    + previousDescription + " and can not be used by " + description);
+        }
+        return checkpoint;
+    }
+
+    public boolean isCompleted() {
+        return Boolean.parseBoolean(state.getProperty(COMPLETED));
+    }
+
+    /**
+     * Will return the genome the completed stage resulted in, which may be null
+     */
+    public Genome getResult() throws IOException {
+        if(!isCompleted()) {
+            throw new IllegalStateException("Stage of checkpoint " + directory + " has not completed");
+        }
+        return readGenome();
+    }
+
+    public void complete(Genome result) throws Exception {
+        update(result, true);
+    }
+
+    public List<String> getProcessedFiles() {
+        return Collections.unmodifiableList(processedFiles);
+    }
+
+    /**
+     * The file is the path of the file relative to the input folder of the stage, since files in different
+     * sub folders may have the same name
+     */
+    public boolean isProcessed(String file) {
+        return processedFiles.contains(file);
+    }
+
+    /**
+     * Will return the genome saved with the last processed file or null if no file has been processed
+     */
+    public Genome getProgress() throws IOException {
+        return isCompleted() || processedFiles.isEmpty() ? null : readGenome();
+    }
+
+    /**
+     * Will add the file to the processed files and save the genome as it is after processing it
+     */
+    public void saveProgress(String file, Genome genome) throws Exception {
+        processedFiles.add(file);
+        state.setProperty(PROCESSED_FILES, String.valueOf(processedFiles.size()));
+        state.setProperty(PROCESSED_FILE + (processedFiles.size() - 1), file);
+        update(genome, false);
+    }
+
+    private void update(Genome genome, boolean completed) throws Exception {
+        String previousGenomeFile = state.getProperty(GENOME_FILE);
+        int updates = Integer.parseInt(state.getProperty(UPDATES, "0")) + 1;
+        state.setProperty(UPDATES, String.valueOf(updates));
+        state.setProperty(COMPLETED, String.valueOf(completed));
+        if(genome == null) {
+            state.remove(GENOME_FILE);
+        } else {
+            String genomeFile = GENOME_FILE_PREFIX + updates + Genome.BINARY_GENOME_FILE_ENDING;
+            Path genomePath = directory.resolve(genomeFile);
+            // Left behind if a previous run was interrupted before it was referred to by the state
+            Files.deleteIfExists(genomePath);
+            genome.writeBinarySequences(genomePath);
+            state.setProperty(GENOME_FILE, genomeFile);
+            state.setProperty(GENOME_FILENAME, genome.getFilename());
+            state.setProperty(GENOME_SKIP_DUPLICATES, String.valueOf(genome.isSkipDuplicates()));
+            state.setProperty(GENOME_INCLUDE_ALL_CHROMOSOMES, String.valueOf(genome.isIncludeAllChromosomes()));
+            state.setProperty(GENOME_INDEXED, String.valueOf(genome.isIndexed()));
+            if(genome.getAbsoluteFilePath() == null) {
+                state.remove(GENOME_PATH);
+            } else {
+                state.setProperty(GENOME_PATH, genome.getAbsoluteFilePath());
+            }
+        }
+        saveState();
+        if(previousGenomeFile != null && !previousGenomeFile.equals(state.getProperty(GENOME_FILE))) {
+            Files.deleteIfExists(directory.resolve(previousGenomeFile));
+        }
+    }
+
+    private Genome readGenome() throws IOException {
+        String genomeFile = state.getProperty(GENOME_FILE);
+        if(genomeFile == null) {
+            return null;
+        }
+        // The genome refers to the file it was originally created from, if any, the same as the genome written.
+        // A genome which was not created from a file, such as merged genomes, has no path.
+        return new Genome(state.getProperty(GENOME_FILENAME), state.getProperty(GENOME_PATH),
+                PackedSequencesFile.open(directory.resolve(genomeFile)),
+                Boolean.parseBoolean(state.getProperty(GENOME_SKIP_DUPLICATES)),
+                Boolean.parseBoolean(state.getProperty(GENOME_INCLUDE_ALL_CHROMOSOMES)),
+                Boolean.parseBoolean(state.getProperty(GENOME_INDEXED)));
+    }
+
+    private void saveState() throws IOException {
+        Path temporaryFile = directory.resolve(STATE_FILE + TEMPORARY_FILE_ENDING);
+        try(Writer writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+            state.store(writer, null);
+        }
+        Files.move(temporaryFile, directory.resolve(STATE_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -26,20 +26,38 @@ package com.henrikroslund;
  * #L%
  */
 
+import com.henrikroslund.evaluators.EvaluationPlan;
 import com.henrikroslund.evaluators.SequenceEvaluator;
+import com.henrikroslund.evaluators.comparisons.BoundedMismatchEvaluator;
+import com.henrikroslund.index.MismatchIndex;
+import com.henrikroslund.sequence.FastaFiles;
+import com.henrikroslund.sequence.FastaIndex;
+import com.henrikroslund.sequence.FastaKmerReader;
+import com.henrikroslund.sequence.PackedSequences;
+import com.henrikroslund.sequence.PackedSequencesFile;
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
 import com.opencsv.CSVReader;
 import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.java.Log;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static com.henrikroslund.Utils.*;
 
@@ -52,58 +70,81 @@ public class Genome {
     private final String firstRow;
 
     @Getter
-    private final Collection<Sequence> sequences;
+    private Collection<Sequence> sequences;
 
+    @Getter(AccessLevel.PACKAGE)
     private boolean includeAllChromosomes = false;
 
+    @Getter(AccessLevel.PACKAGE)
     private final boolean skipDuplicates;
+    // An indexed genome is built once into a primitive array, which is also sorted when skipping duplicates,
+    // and can not be modified afterwards
+    @Getter
+    private final boolean indexed;
+    // Approximate match indexes of an indexed genome, built the first time a mask and number of mismatches is queried
+    private final Map<Pair<Long, Integer>, MismatchIndex> mismatchIndexes = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.PACKAGE)
     private String absoluteFilePath;
+    // The sequences of a genome which is not indexed as an array, so they can be scanned in chunks without holding
+    // the lock of the synchronized collection. Created on the first scan and cleared when sequences are added or removed.
+    private volatile Sequence[] scanSnapshot = null;
 
     private static final int INITIAL_COLLECTION_CAPACITY = 75000;
+    private static final int BATCH_SIZE = 1 << 18;
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 12;
+    // Smaller genomes are always scanned by one thread since splitting the scan costs more than it saves
+    private static final int MIN_PARALLEL_SCAN_SIZE = 1 << 16;
+    // Candidates processed in parallel need to be a few times more than the threads to be evenly spread over them
+    private static final int MIN_CANDIDATES_PER_THREAD = 4;
     public static final String GENOME_FILE_ENDING = ".genome";
+    // Does not end with GENOME_FILE_ENDING so the text and binary files of a genome are not confused with each other
+    public static final String BINARY_GENOME_FILE_ENDING = ".genome.bin";
     private static final String CSV_FILE_ENDING = ".csv";
 
     public Genome(boolean skipDuplicates, String filename, String firstRow) {
+        this(skipDuplicates, filename, firstRow, false);
+    }
+
+    private Genome(boolean skipDuplicates, String filename, String firstRow, boolean indexed) {
         this.skipDuplicates = skipDuplicates;
-        if(skipDuplicates) {
+        this.indexed = indexed;
+        if(indexed) {
+            sequences = new PackedSequences(INITIAL_COLLECTION_CAPACITY);
+        } else if(skipDuplicates) {
             sequences = Collections.synchronizedSet(new TreeSet<>());
         } else {
             sequences = Collections.synchronizedList(new ArrayList<>(INITIAL_COLLECTION_CAPACITY));
         }
-        this.filename = filename.replace(FASTA_FILE_ENDING, "");
+        this.filename = removeFastaFileEnding(filename);
         this.firstRow = firstRow;
     }
 
     public Genome(File file, List<SequenceEvaluator> criteria, boolean skipDuplicates, boolean includeAllChromosomes) throws Exception {
-        this(skipDuplicates, file.getName(), Utils.getFirstRow(file.getAbsolutePath()));
+        this(file, criteria, skipDuplicates, includeAllChromosomes, false);
+    }
+
+    /**
+     * @param indexed if true the sequences are collected into a primitive array once loaded and the genome can not
+     *                be modified afterwards. With skipDuplicates the array is sorted which makes exists() a binary
+     *                search. Approximate matching is answered through mismatch indexes built when first needed.
+     */
+    public Genome(File file, List<SequenceEvaluator> criteria, boolean skipDuplicates, boolean includeAllChromosomes, boolean indexed) throws Exception {
+        this(skipDuplicates, file.getName(), getFirstRow(file), indexed);
         this.includeAllChromosomes = includeAllChromosomes;
         this.absoluteFilePath = file.getAbsolutePath();
-        if(absoluteFilePath.endsWith(FASTA_FILE_ENDING)) {
-            if(includeAllChromosomes && isChromosomeFile(absoluteFilePath)) {
-                if(isPrimaryChromosomeFile(absoluteFilePath)) {
-                    ArrayList<String> chromosomeFiles = getChromosomeFiles(absoluteFilePath);
-                    for(String chromosomeFile : chromosomeFiles) {
-                        File genomeFile = new File(chromosomeFile);
-                        if(genomeFile.exists()) {
-                            log.info("Adding file " + genomeFile.getName());
-                            String chromosomeFirstRow = Utils.getFirstRow(genomeFile.getAbsolutePath());
-                            String sequenceData = getSequenceData(chromosomeFile, chromosomeFirstRow);
-                            createSequences(criteria, sequenceData);
-                        }
-                    }
-                } else {
-                    throw new IllegalArgumentException("Tried to create genome that includes all chromosomes but which is not a primary chromosome: " + file.getName());
-                }
-            } else {
-                String sequenceData = getSequenceData(absoluteFilePath, firstRow);
-                createSequences(criteria, sequenceData);
+        EvaluationPlan criteriaPlan = new EvaluationPlan(criteria);
+        if(isFastaFile(absoluteFilePath)) {
+            for(File fastaFile : getFastaFiles(file, includeAllChromosomes)) {
+                createSequences(criteriaPlan, fastaFile);
             }
+        } else if(absoluteFilePath.endsWith(BINARY_GENOME_FILE_ENDING)) {
+            addSequences(criteriaPlan, PackedSequencesFile.open(file.toPath()).getSequences());
         } else if(absoluteFilePath.endsWith(GENOME_FILE_ENDING)) {
             BufferedReader reader = Files.newBufferedReader(Path.of(absoluteFilePath));
             reader.readLine();
             reader.lines().forEach(line -> {
                 Sequence sequence = Sequence.parseFromToString(line);
-                if(shouldAdd(criteria, sequence)) {
+                if(shouldAdd(criteriaPlan, sequence)) {
                     sequences.add(sequence);
                 }
             });
@@ -121,20 +162,149 @@ public class Genome {
                 }
                 boolean isComplement = values[2].compareTo("-") == 0;
                 Sequence sequence = new Sequence(values[1], 0, values[0], isComplement);
-                if(shouldAdd(criteria, sequence)) {
+                if(shouldAdd(criteriaPlan, sequence)) {
                     sequences.add(sequence);
                 }
             }
         } else {
             throw new Exception("Unknown file ending for file" + absoluteFilePath);
         }
+        runParallel(this::completeIndex);
+    }
+
+    /**
+     * Will create the genome of the file from sequences which have already been created from it, such as an entry
+     * in the GenomeCache, so the genome refers to the original file for example when saving surrounding sequences.
+     */
+    Genome(String filename, String absoluteFilePath, PackedSequencesFile packedSequencesFile, boolean skipDuplicates,
+           boolean includeAllChromosomes, boolean indexed) {
+        this(skipDuplicates, filename, packedSequencesFile.getFirstRow(), indexed);
+        this.includeAllChromosomes = includeAllChromosomes;
+        this.absoluteFilePath = absoluteFilePath;
+        addSequences(new EvaluationPlan(Collections.emptyList()), packedSequencesFile.getSequences());
+        runParallel(this::completeIndex);
+    }
+
+    private void completeIndex() {
+        if(indexed && skipDuplicates && !((PackedSequences) sequences).isSorted()) {
+            sequences = ((PackedSequences) sequences).toSortedUnique();
+            log.info("Indexed " + getTotalSequences() + " unique sequences for " + filename);
+        } else if(indexed) {
+            ((PackedSequences) sequences).makeImmutable();
+        }
+    }
+
+    private static String getFirstRow(File file) throws Exception {
+        if(file.getName().endsWith(BINARY_GENOME_FILE_ENDING)) {
+            return PackedSequencesFile.readFirstRow(file.toPath());
+        }
+        return Utils.getFirstRow(file.getAbsolutePath());
+    }
+
+    /**
+     * Will add the sequences of a binary genome file. An indexed genome without criteria uses the memory mapped
+     * sequences directly unless they have to be sorted first.
+     */
+    private void addSequences(EvaluationPlan criteria, PackedSequences packedSequences) {
+        scanSnapshot = null;
+        if(indexed && criteria.isEmpty() && (packedSequences.isSorted() || !skipDuplicates)) {
+            sequences = packedSequences;
+            return;
+        }
+        for(Sequence sequence : packedSequences) {
+            if(shouldAdd(criteria, sequence)) {
+                sequences.add(sequence);
+            }
+        }
+    }
+
+    /**
+     * Will return the fasta files which make up the genome, which are all the chromosome files if includeAllChromosomes
+     */
+    static List<File> getFastaFiles(File file, boolean includeAllChromosomes) {
+        String absoluteFilePath = file.getAbsolutePath();
+        if(!includeAllChromosomes || !isChromosomeFile(absoluteFilePath)) {
+            return Collections.singletonList(file);
+        }
+        if(!isPrimaryChromosomeFile(absoluteFilePath)) {
+            throw new IllegalArgumentException("Tried to create genome that includes all chromosomes but which is not a primary chromosome: " + file.getName());
+        }
+        List<File> fastaFiles = new ArrayList<>();
+        for(String chromosomeFile : getChromosomeFiles(absoluteFilePath)) {
+            File genomeFile = new File(chromosomeFile);
+            if(genomeFile.exists()) {
+                log.info("Adding file " + genomeFile.getName());
+                fastaFiles.add(genomeFile);
+            }
+        }
+        return fastaFiles;
+    }
+
+    /**
+     * Will call the consumer for every sequence in the fasta file which matches all the criteria without
+     * storing the sequences, so memory does not depend on the number of sequences in the genome.
+     * The consumer is called from multiple threads.
+     */
+    public static void forEachSequence(File file, List<SequenceEvaluator> criteria, boolean includeAllChromosomes,
+                                       Consumer<Sequence> consumer) throws Exception {
+        if(!isFastaFile(file.getName())) {
+            throw new Exception("Can only stream sequences from fasta files but got " + file.getName());
+        }
+        String genomeName = getStringWithoutWhitespaces(removeFastaFileEnding(file.getName()));
+        EvaluationPlan criteriaPlan = new EvaluationPlan(criteria);
+        for(File fastaFile : getFastaFiles(file, includeAllChromosomes)) {
+            log.info("Reading file: " + fastaFile.getAbsolutePath());
+            FastaKmerReader.read(fastaFile.toPath(), BATCH_SIZE, batch -> runParallel(() ->
+                    IntStream.range(0, getChunks(batch)).parallel().forEach(chunk ->
+                            forEachSequenceInChunk(criteriaPlan, genomeName, batch, chunk, consumer))));
+        }
+    }
+
+    private static int getChunks(FastaKmerReader.Batch batch) {
+        return (batch.size() + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+    }
+
+    /**
+     * The criteria are evaluated on the encodings so no sequence is created for a window which is not added
+     */
+    private static void forEachSequenceInChunk(EvaluationPlan criteria, String genomeName,
+                                               FastaKmerReader.Batch batch, int chunk, Consumer<Sequence> consumer) {
+        int end = Math.min(batch.size(), (chunk+1) * PARALLEL_CHUNK_SIZE);
+        for(int i = chunk * PARALLEL_CHUNK_SIZE; i < end; i++) {
+            long encoded = batch.getEncoded(i);
+            if(criteria.matchAll(encoded)) {
+                Sequence sequence = new Sequence(encoded, batch.getStartIndex(i), genomeName, false);
+                criteria.logMatch(null, sequence);
+                consumer.accept(sequence);
+            }
+            long complement = batch.getReverseComplement(i);
+            if(criteria.matchAll(complement)) {
+                Sequence sequence = new Sequence(complement, batch.getComplementStartIndex(i), genomeName, true);
+                criteria.logMatch(null, sequence);
+                consumer.accept(sequence);
+            }
+        }
     }
 
     public String getSequenceData() throws Exception {
+        if(absoluteFilePath == null) {
+            throw new Exception("Genome " + filename + " was not created from a file so it has no sequence data");
+        }
         return getSequenceData(absoluteFilePath, firstRow);
     }
 
+    /**
+     * Will return the sequence data of the file without the first row and line breaks. A file with a .fai index of
+     * a single record, such as the files written when preprocessing, is read from the offset in the index.
+     * A compressed file is decompressed, see FastaFiles.
+     */
     public static String getSequenceData(String absoluteFilePath, String firstRow) throws IOException {
+        File file = new File(absoluteFilePath);
+        List<FastaIndex.Entry> index = isCompressedFastaFile(absoluteFilePath) ? null : FastaIndex.read(file);
+        if(index != null && index.size() == 1) {
+            log.info("Reading file: " + absoluteFilePath + " from offset " + index.get(0).getOffset());
+            return FastaIndex.readSequenceData(file, index.get(0));
+        }
         return getFileContent(absoluteFilePath).substring(firstRow.length()-1);
     }
 
@@ -174,7 +344,14 @@ public class Genome {
         if (Files.notExists(filePath)) {
             throw new IOException("File does not exist: " + filePath.toAbsolutePath());
         }
-        String fileContent = Files.readString(filePath).replaceAll("\n", "");
+        String fileContent;
+        if(isCompressedFastaFile(filename)) {
+            try(InputStream input = FastaFiles.openStream(filePath)) {
+                fileContent = new String(input.readAllBytes(), StandardCharsets.UTF_8).replaceAll("\n", "");
+            }
+        } else {
+            fileContent = Files.readString(filePath).replaceAll("\n", "");
+        }
         log.finest(fileContent);
         log.finest("Number of characters to process: " + fileContent.length());
         return fileContent;
@@ -185,38 +362,80 @@ public class Genome {
      * @param criteria a list of filters to determine if sequence should be added to gnome
      */
     protected void createSequences(List<SequenceEvaluator> criteria, String sequenceData) {
-        List<Integer> range = IntStream.rangeClosed(0, sequenceData.length() - (Sequence.RAW_LENGTH-1) - 1)
-                .boxed().collect(Collectors.toList());
-
-        String genomeName = getStringWithoutWhitespaces(filename);
-        range.parallelStream().forEach(i -> {
-            Sequence sequence = new Sequence(sequenceData.substring(i, i+Sequence.RAW_LENGTH), i, genomeName);
-
-            if(shouldAdd(criteria, sequence)) {
-                sequences.add(sequence);
-            }
+        EvaluationPlan criteriaPlan = new EvaluationPlan(criteria);
+        AtomicLong windows = new AtomicLong();
+        FastaKmerReader.read(sequenceData, BATCH_SIZE, batch -> {
+            windows.addAndGet(batch.size());
+            addSequences(criteriaPlan, batch);
+        });
+        log.info("Finished creating " + getTotalSequences() + " ( " + windows.get() * 2 + " ) sequences for " + filename);
+    }
 
-            Sequence complement = sequence.getComplement();
-            if(shouldAdd(criteria, complement)) {
-                sequences.add(complement);
-            }
+    private void createSequences(EvaluationPlan criteria, File fastaFile) throws IOException {
+        log.info("Reading file: " + fastaFile.getAbsolutePath());
+        AtomicLong windows = new AtomicLong();
+        FastaKmerReader.read(fastaFile.toPath(), BATCH_SIZE, batch -> {
+            windows.addAndGet(batch.size());
+            addSequences(criteria, batch);
         });
-        log.info("Finished creating " + getTotalSequences() + " ( " + calculatePotentialSequences(sequenceData)
-                + " ) sequences for " + filename);
+        log.info("Finished creating " + getTotalSequences() + " ( " + windows.get() * 2 + " ) sequences for " + filename);
     }
 
-    private int calculatePotentialSequences(String sequenceData) {
-        return (sequenceData.length() - (Sequence.RAW_LENGTH-1)) * 2;
+    /**
+     * The batch is split into chunks evaluated in parallel. For an indexed genome each chunk is collected into
+     * its own PackedSequences and the chunks are appended in order, so no lock is taken per sequence.
+     */
+    private void addSequences(EvaluationPlan criteria, FastaKmerReader.Batch batch) {
+        scanSnapshot = null;
+        String genomeName = getStringWithoutWhitespaces(filename);
+        runParallel(() -> {
+            if(indexed) {
+                PackedSequences packedSequences = (PackedSequences) sequences;
+                IntStream.range(0, getChunks(batch)).parallel().mapToObj(chunk -> {
+                    PackedSequences chunkSequences = new PackedSequences(PARALLEL_CHUNK_SIZE);
+                    forEachSequenceInChunk(criteria, genomeName, batch, chunk, chunkSequences::add);
+                    return chunkSequences;
+                }).forEachOrdered(packedSequences::append);
+            } else {
+                IntStream.range(0, getChunks(batch)).parallel().forEach(chunk ->
+                        forEachSequenceInChunk(criteria, genomeName, batch, chunk, sequences::add));
+            }
+        });
     }
 
-    private boolean shouldAdd(List<SequenceEvaluator> criteria, Sequence sequence) {
-        return SequenceEvaluator.matchAll(criteria, sequence);
+    private static boolean shouldAdd(EvaluationPlan criteria, Sequence sequence) {
+        if(!criteria.matchAll(sequence.getEncoded())) {
+            return false;
+        }
+        criteria.logMatch(null, sequence);
+        return true;
     }
 
     public void writeSequences(String outputFolder, String filename) throws Exception {
         saveSequence(sequences, outputFolder, filename + GENOME_FILE_ENDING);
     }
 
+    /**
+     * Will write the sequences in the binary format which can be memory mapped when loaded again.
+     * A genome which skips duplicates is written as sorted since its sequences are unique and ordered by encoding.
+     */
+    public void writeBinarySequences(String outputFolder, String filename) throws Exception {
+        writeBinarySequences(Path.of(outputFolder, filename + BINARY_GENOME_FILE_ENDING));
+    }
+
+    void writeBinarySequences(Path path) throws Exception {
+        PackedSequences packedSequences;
+        if(sequences instanceof PackedSequences) {
+            packedSequences = (PackedSequences) sequences;
+        } else {
+            packedSequences = new PackedSequences(sequences.size());
+            synchronized (sequences) {
+                packedSequences.addAll(sequences);
+            }
+        }
+        PackedSequencesFile.write(path, firstRow, packedSequences, skipDuplicates);
+    }
+
     private void saveSequence(Collection<Sequence> sequences, String outputFolder, String filename) throws Exception {
         BufferedWriter writer = new BufferedWriter(new FileWriter(outputFolder + "/" + filename, true));
         writer.append(firstRow);
@@ -235,6 +454,21 @@ public class Genome {
         return sequences.contains(sequence);
     }
 
+    /**
+     * Will return the strategy to use when each of the candidates is compared with this genome. Each candidate
+     * needs a scan of the genome unless it can be answered by an index. With many candidates, or a small genome,
+     * the candidates are processed in parallel and each scan is done by one thread. With few candidates there is
+     * not enough work to keep all cores busy that way so the candidates are processed one at a time and each
+     * scan is split into chunks evaluated in parallel instead.
+     */
+    public ScanStrategy getScanStrategy(int candidates) {
+        if(getTotalSequences() < MIN_PARALLEL_SCAN_SIZE
+                || candidates >= getPool().getParallelism() * MIN_CANDIDATES_PER_THREAD) {
+            return ScanStrategy.OUTER_PARALLEL;
+        }
+        return ScanStrategy.INNER_PARALLEL;
+    }
+
     /**
      * Will return sequences that match any of the evaluators
      */
@@ -242,40 +476,306 @@ public class Genome {
         return getSequencesMatchingAnyEvaluator(Collections.singletonList(evaluator));
     }
     public List<Sequence> getSequencesMatchingAnyEvaluator(List<SequenceEvaluator> evaluators) {
-        List<Sequence> results = Collections.synchronizedList(new ArrayList<>());
-        // It is important this is not done in parallel as the evaluators are not thread safe.
-        // If this needs to be run in parallel then each sequence needs to create a new evaluator before evaluating.
-        // Do not use foreach lambda as it will lock the sequences collection for other threads executing
-        // which is the case for example in CandidateTyping
-        sequences.iterator().forEachRemaining(sequence -> {
-            if(SequenceEvaluator.matchAny(evaluators, sequence) != null) {
-                results.add(sequence);
+        return getSequencesMatchingAnyEvaluator(evaluators, getScanStrategy(1));
+    }
+    public List<Sequence> getSequencesMatchingAnyEvaluator(SequenceEvaluator evaluator, ScanStrategy strategy) {
+        return getSequencesMatchingAnyEvaluator(Collections.singletonList(evaluator), strategy);
+    }
+    public List<Sequence> getSequencesMatchingAnyEvaluator(List<SequenceEvaluator> evaluators, ScanStrategy strategy) {
+        EvaluationPlan plan = new EvaluationPlan(evaluators);
+        if(indexed && !evaluators.isEmpty() && evaluators.stream().allMatch(this::canUseIndex)) {
+            // Only sequences within the maximum mismatches of one of the evaluators can match. They are evaluated
+            // in index order so the result is in the same order as when scanning all sequences.
+            PackedSequences packedSequences = (PackedSequences) sequences;
+            int[] candidates = evaluators.stream()
+                    .map(evaluator -> (BoundedMismatchEvaluator) evaluator)
+                    .flatMapToInt(evaluator -> Arrays.stream(getMismatchIndex(evaluator.getPositionMask(), evaluator.getMaxMismatches())
+                            .getCandidates(evaluator.getSequence().getEncoded())))
+                    .sorted().distinct().toArray();
+            List<Sequence> results = new ArrayList<>();
+            for(int candidate : candidates) {
+                if(plan.matchAny(packedSequences.getEncoded(candidate)) != EvaluationPlan.NO_MATCH) {
+                    results.add(packedSequences.get(candidate));
+                }
             }
-        });
-        return results;
+            return plan.logMatches(results);
+        }
+        return plan.logMatches(findAll(encoded -> plan.matchAny(encoded) != EvaluationPlan.NO_MATCH, strategy));
     }
 
     public SequenceEvaluator hasAnyMatchToAnyEvaluator(List<SequenceEvaluator> evaluators) {
-        SequenceEvaluator matchingEvaluator;
-        for(Sequence sequence : sequences) {
-            matchingEvaluator = SequenceEvaluator.matchAny(evaluators, sequence);
-            if(matchingEvaluator != null) {
-                return matchingEvaluator;
-            }
+        return hasAnyMatchToAnyEvaluator(evaluators, getScanStrategy(1));
+    }
+    public SequenceEvaluator hasAnyMatchToAnyEvaluator(List<SequenceEvaluator> evaluators, ScanStrategy strategy) {
+        EvaluationPlan plan = new EvaluationPlan(evaluators);
+        Sequence sequence = findFirst(encoded -> plan.matchAny(encoded) != EvaluationPlan.NO_MATCH, strategy);
+        if(sequence == null) {
+            return null;
         }
-        return null;
+        // The returned evaluator describes the match as it did before evaluations were compiled
+        SequenceEvaluator matchingEvaluator = evaluators.get(plan.matchAny(sequence.getEncoded()));
+        matchingEvaluator.evaluate(sequence);
+        return matchingEvaluator;
     }
 
+    /**
+     * Will return the first sequence matching all the evaluators. The evaluators are left describing the match.
+     */
     public Sequence getSequenceMatchingAllEvaluators(List<SequenceEvaluator> evaluators) {
-        for(Sequence sequence : sequences) {
-            if(SequenceEvaluator.matchAll(evaluators, sequence)) {
-                return sequence;
+        return getSequenceMatchingAllEvaluators(evaluators, getScanStrategy(1));
+    }
+    public Sequence getSequenceMatchingAllEvaluators(List<SequenceEvaluator> evaluators, ScanStrategy strategy) {
+        Sequence match = findSequenceMatchingAllEvaluators(new EvaluationPlan(evaluators), strategy);
+        if(match != null) {
+            SequenceEvaluator.matchAll(evaluators, match);
+        }
+        return match;
+    }
+
+    private Sequence findSequenceMatchingAllEvaluators(EvaluationPlan plan, ScanStrategy strategy) {
+        List<SequenceEvaluator> evaluators = plan.getEvaluators();
+        BoundedMismatchEvaluator indexEvaluator = indexed ? MismatchIndex.getMostSelective(evaluators, getTotalSequences()) : null;
+        if(indexEvaluator != null && indexEvaluator.getSequence() != null) {
+            // Only the sequences within the maximum mismatches of the index evaluator can match all evaluators.
+            // The lowest index is returned which is the same sequence a scan over all sequences would find first.
+            PackedSequences packedSequences = (PackedSequences) sequences;
+            MismatchIndex index = getMismatchIndex(indexEvaluator.getPositionMask(), indexEvaluator.getMaxMismatches());
+            int match = index.findFirst(indexEvaluator.getSequence().getEncoded(),
+                    candidate -> plan.matchAll(packedSequences.getEncoded(candidate)));
+            return match < 0 ? null : packedSequences.get(match);
+        }
+        return findFirst(plan::matchAll, strategy);
+    }
+
+    /**
+     * Will return all sequences matching all the evaluators
+     */
+    public List<Sequence> getSequencesMatchingAllEvaluators(List<SequenceEvaluator> evaluators, ScanStrategy strategy) {
+        EvaluationPlan plan = new EvaluationPlan(evaluators);
+        BoundedMismatchEvaluator indexEvaluator = indexed ? MismatchIndex.getMostSelective(evaluators, getTotalSequences()) : null;
+        if(indexEvaluator != null && indexEvaluator.getSequence() != null) {
+            // Only the sequences within the maximum mismatches of the index evaluator can match all evaluators
+            PackedSequences packedSequences = (PackedSequences) sequences;
+            List<Sequence> results = new ArrayList<>();
+            for(int candidate : getMismatchIndex(indexEvaluator.getPositionMask(), indexEvaluator.getMaxMismatches())
+                    .getCandidates(indexEvaluator.getSequence().getEncoded())) {
+                if(plan.matchAll(packedSequences.getEncoded(candidate))) {
+                    results.add(packedSequences.get(candidate));
+                }
+            }
+            return plan.logMatches(results);
+        }
+        return plan.logMatches(findAll(plan::matchAll, strategy));
+    }
+
+    /**
+     * Will return all sequences with an encoding accepted by the predicate in the order of the sequences
+     */
+    private List<Sequence> findAll(LongPredicate predicate, ScanStrategy strategy) {
+        // The compiled evaluators are thread safe so the chunks can be scanned in parallel. The results keep the
+        // order of the sequences. The scan does not lock the sequences collection for other threads as forEach
+        // would, which matters for example in CandidateTyping.
+        ScanView view = getScanView();
+        return getScanChunks(strategy, view.size)
+                .mapToObj(chunk -> {
+                    List<Sequence> results = new ArrayList<>();
+                    int end = getScanChunkEnd(chunk, view.size);
+                    for(int i = chunk * PARALLEL_CHUNK_SIZE; i < end; i++) {
+                        if(predicate.test(view.getEncoded(i))) {
+                            results.add(view.get(i));
+                        }
+                    }
+                    return results;
+                })
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Will return the first sequence, in the order of the sequences, with an encoding accepted by the predicate
+     * or null if there is none. When scanning in parallel a chunk stops at its first match and chunks after
+     * the first match found so far are skipped, which still returns the same sequence as a sequential scan.
+     */
+    private Sequence findFirst(LongPredicate predicate, ScanStrategy strategy) {
+        ScanView view = getScanView();
+        AtomicInteger first = new AtomicInteger(Integer.MAX_VALUE);
+        getScanChunks(strategy, view.size).forEach(chunk -> {
+            int end = getScanChunkEnd(chunk, view.size);
+            for(int i = chunk * PARALLEL_CHUNK_SIZE; i < end && i < first.get(); i++) {
+                if(predicate.test(view.getEncoded(i))) {
+                    first.accumulateAndGet(i, Math::min);
+                    return;
+                }
             }
+        });
+        return first.get() == Integer.MAX_VALUE ? null : view.get(first.get());
+    }
+
+    /**
+     * The sequences of a scan by position, which are the packed sequences of an indexed genome or otherwise
+     * the scan snapshot
+     */
+    @AllArgsConstructor
+    private static class ScanView {
+        private final PackedSequences packedSequences;
+        private final Sequence[] snapshot;
+        private final int size;
+
+        long getEncoded(int index) {
+            return packedSequences != null ? packedSequences.getEncoded(index) : snapshot[index].getEncoded();
+        }
+
+        Sequence get(int index) {
+            return packedSequences != null ? packedSequences.get(index) : snapshot[index];
+        }
+    }
+
+    private ScanView getScanView() {
+        if(indexed) {
+            PackedSequences packedSequences = (PackedSequences) sequences;
+            return new ScanView(packedSequences, null, packedSequences.size());
+        }
+        Sequence[] snapshot = scanSnapshot;
+        if(snapshot == null) {
+            // toArray of a synchronized collection holds its lock while copying
+            snapshot = sequences.toArray(new Sequence[0]);
+            scanSnapshot = snapshot;
+        }
+        return new ScanView(null, snapshot, snapshot.length);
+    }
+
+    /**
+     * The chunks of a genome scan are only scanned in parallel with INNER_PARALLEL, since with OUTER_PARALLEL
+     * the candidates the genome is scanned for are already processed in parallel
+     */
+    private static IntStream getScanChunks(ScanStrategy strategy, int size) {
+        IntStream chunks = IntStream.range(0, (size + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE);
+        return strategy == ScanStrategy.INNER_PARALLEL ? chunks.parallel() : chunks;
+    }
+
+    private static int getScanChunkEnd(int chunk, int size) {
+        return Math.min(size, (chunk + 1) * PARALLEL_CHUNK_SIZE);
+    }
+
+    /**
+     * Will return all sequences with at most maxMismatches to the sequence over the positions in the mask
+     */
+    public List<Sequence> getSequencesWithinMismatches(Sequence sequence, long mask, int maxMismatches) {
+        long encoded = sequence.getEncoded();
+        if(indexed && MismatchIndex.canIndex(Long.bitCount(mask & SequenceEncoding.LOW_BITS), maxMismatches)) {
+            PackedSequences packedSequences = (PackedSequences) sequences;
+            int[] candidates = getMismatchIndex(mask, maxMismatches).getCandidates(encoded);
+            List<Sequence> results = new ArrayList<>(candidates.length);
+            for(int candidate : candidates) {
+                results.add(packedSequences.get(candidate));
+            }
+            return results;
+        }
+        List<Sequence> results = new ArrayList<>();
+        sequences.iterator().forEachRemaining(other -> {
+            if(SequenceEncoding.mismatches(encoded, other.getEncoded(), mask) <= maxMismatches) {
+                results.add(other);
+            }
+        });
+        return results;
+    }
+
+    private boolean canUseIndex(SequenceEvaluator evaluator) {
+        return evaluator instanceof BoundedMismatchEvaluator
+                && ((BoundedMismatchEvaluator) evaluator).getSequence() != null
+                && MismatchIndex.canIndex((BoundedMismatchEvaluator) evaluator);
+    }
+
+    private MismatchIndex getMismatchIndex(long mask, int maxMismatches) {
+        return mismatchIndexes.computeIfAbsent(Pair.of(mask, maxMismatches), key -> {
+            log.info("Building mismatch index with max " + maxMismatches + " mismatches for " + filename);
+            return new MismatchIndex((PackedSequences) sequences, mask, maxMismatches);
+        });
+    }
+
+    /**
+     * Will combine indexed genomes into one indexed genome containing each encoding once. The genome of a sequence
+     * is the name, see getCombinedGenomeNames, of the first of the genomes, in the order given, containing the
+     * encoding. The genome names are stored once so the combined genome only needs a small genome id per sequence.
+     */
+    public static Genome combine(String filename, List<Genome> genomes) {
+        Combiner combiner = new Combiner(filename, genomes.stream().mapToInt(Genome::getTotalSequences).sum());
+        genomes.forEach(combiner::add);
+        return combiner.combine();
+    }
+
+    /**
+     * Will return the genome names the sequences of the genomes get when combined, in the order of the genomes.
+     * The name is the filename of the genome unless an earlier genome has the same name, for example a file with
+     * the same name in another folder, in which case the number of the genome is appended so the names are unique.
+     */
+    public static List<String> getCombinedGenomeNames(List<Genome> genomes) {
+        Set<String> used = new HashSet<>();
+        List<String> names = new ArrayList<>(genomes.size());
+        for(Genome genome : genomes) {
+            names.add(getUniqueName(genome.getFilename(), names.size(), used));
+        }
+        return names;
+    }
+
+    private static String getUniqueName(String name, int genomeNumber, Set<String> used) {
+        while(!used.add(name)) {
+            name = name + "_" + genomeNumber;
+        }
+        return name;
+    }
+
+    /**
+     * Combines indexed genomes one at a time, the same as combine, so a genome does not have to be kept once it
+     * has been added. Only the packed sequences of the genomes added so far are kept until the combined genome is
+     * created, which needs memory for all of them but far less than the genomes themselves.
+     */
+    public static class Combiner {
+
+        private final String filename;
+        private final PackedSequences combined;
+        private final Set<String> usedNames = new HashSet<>();
+        private final List<String> genomeNames = new ArrayList<>();
+
+        public Combiner(String filename) {
+            this(filename, 0);
+        }
+
+        public Combiner(String filename, int initialCapacity) {
+            this.filename = filename;
+            this.combined = new PackedSequences(initialCapacity);
+        }
+
+        /**
+         * Will add the sequences of the genome and return the name, see getCombinedGenomeNames, they are given
+         */
+        public String add(Genome genome) {
+            if(!genome.indexed) {
+                throw new IllegalArgumentException("Only indexed genomes can be combined but " + genome.getFilename() + " is not");
+            }
+            String genomeName = getUniqueName(genome.getFilename(), genomeNames.size(), usedNames);
+            genomeNames.add(genomeName);
+            PackedSequences packedSequences = (PackedSequences) genome.sequences;
+            int genomeId = combined.getGenomeId(genomeName);
+            for(int i = 0; i < packedSequences.size(); i++) {
+                combined.add(packedSequences.getEncoded(i), packedSequences.getStartIndex(i), packedSequences.getIsComplement(i), genomeId);
+            }
+            return genomeName;
+        }
+
+        public int getTotalSequences() {
+            return combined.size();
+        }
+
+        public Genome combine() {
+            Genome result = new Genome(true, filename, "", true);
+            result.sequences = combined.toSortedUnique();
+            return result;
         }
-        return null;
     }
 
     public boolean removeAll(Collection<Sequence> sequences) {
+        scanSnapshot = null;
         return this.sequences.removeAll(sequences);
     }
 
@@ -284,6 +784,26 @@ public class Genome {
     }
 
     public void addAll(Collection<Sequence> sequences) {
+        scanSnapshot = null;
         this.sequences.addAll(sequences);
     }
+
+    /**
+     * How the cores are used when each candidate of a stage is compared with a genome, see getScanStrategy
+     */
+    public enum ScanStrategy {
+        // The candidates are processed in parallel and each scan of the genome is sequential
+        OUTER_PARALLEL,
+        // The candidates are processed one at a time and each scan of the genome is split into parallel chunks
+        INNER_PARALLEL;
+
+        /**
+         * Will return a stream over the candidates which is parallel when the candidates should be processed in
+         * parallel. This is only for the loop over the candidates, the scan of the genome for each candidate
+         * is split by the genome itself.
+         */
+        public <T> Stream<T> stream(Collection<T> candidates) {
+            return this == OUTER_PARALLEL ? candidates.parallelStream() : candidates.stream();
+        }
+    }
 }
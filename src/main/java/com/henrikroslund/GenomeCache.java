@@ -0,0 +1,189 @@
+package com.henrikroslund;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.evaluators.SequenceEvaluator;
+import com.henrikroslund.sequence.PackedSequencesFile;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * A cache directory of genomes in the binary genome format so that the genomes in an input folder, such as the
+ * cross reactive pathogens, only have to be created from their fasta files once and are memory mapped on later runs.
+ *
+ * Entries are content addressed. The key combines the checksum of every fasta file making up the genome, the
+ * description of the criteria used when creating the genome, the genome settings and the binary format version,
+ * so a changed file, criteria or format simply results in a new entry. Entries which are no longer used are
+ * removed by evicting the least recently used entries whenever the cache grows above its maximum size.
+ * The last modified time of an entry is used as its last use so the order survives between runs.
+ */
+@Log
+public class GenomeCache {
+
+    private static final int CHECKSUM_BUFFER_SIZE = 1 << 20;
+    private static final String TEMPORARY_FILE_ENDING = ".tmp";
+
+    @Getter
+    private final Path directory;
+    @Getter
+    private final long maxSizeInBytes;
+
+    public GenomeCache(Path directory, long maxSizeInBytes) throws IOException {
+        this.directory = directory;
+        this.maxSizeInBytes = maxSizeInBytes;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Will return the same genome as the Genome constructor but from the cache if it has been created before.
+     * A genome which is not in the cache is created from the file and then added to the cache.
+     */
+    public Genome getGenome(File file, List<SequenceEvaluator> criteria, boolean skipDuplicates,
+                            boolean includeAllChromosomes, boolean indexed) throws Exception {
+        Path entry = directory.resolve(getKey(file, criteria, skipDuplicates, includeAllChromosomes) + Genome.BINARY_GENOME_FILE_ENDING);
+        if(Files.exists(entry)) {
+            try {
+                PackedSequencesFile packedSequencesFile = PackedSequencesFile.open(entry);
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+                log.info("Loaded " + file.getName() + " from cache entry " + entry.getFileName());
+                return new Genome(file.getName(), file.getAbsolutePath(), packedSequencesFile, skipDuplicates, includeAllChromosomes, indexed);
+            } catch (IOException e) {
+                log.warning("Will recreate invalid cache entry " + entry + " " + e.getMessage());
+                Files.deleteIfExists(entry);
+            }
+        }
+
+        Genome genome = new Genome(file, criteria, skipDuplicates, includeAllChromosomes, indexed);
+        add(entry, genome);
+        return genome;
+    }
+
+    /**
+     * Will write the genome to a temporary file which is then moved into place so that a partially written
+     * entry is never read, even if another thread or process creates the same entry at the same time.
+     */
+    private void add(Path entry, Genome genome) throws Exception {
+        Path temporary = Files.createTempFile(directory, entry.getFileName().toString(), TEMPORARY_FILE_ENDING);
+        try {
+            // The file is only created to get a unique name since the binary genome is written as a new file
+            Files.delete(temporary);
+            genome.writeBinarySequences(temporary);
+            Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    /**
+     * Will delete the least recently used entries until the cache is within its maximum size
+     */
+    synchronized void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try(Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().endsWith(Genome.BINARY_GENOME_FILE_ENDING)).forEach(entries::add);
+        }
+        long totalSize = 0;
+        for(Path entry : entries) {
+            totalSize += Files.size(entry);
+        }
+        entries.sort(Comparator.comparing(GenomeCache::getLastModifiedTime));
+        for(Path entry : entries) {
+            if(totalSize <= maxSizeInBytes) {
+                break;
+            }
+            long size = Files.size(entry);
+            try {
+                Files.delete(entry);
+                totalSize -= size;
+                log.info("Evicted cache entry " + entry.getFileName());
+            } catch (IOException e) {
+                // An entry can not be deleted on some platforms while it is memory mapped
+                log.warning("Could not evict cache entry " + entry + " " + e.getMessage());
+            }
+        }
+    }
+
+    private static FileTime getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    static String getKey(File file, List<SequenceEvaluator> criteria, boolean skipDuplicates, boolean includeAllChromosomes) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        StringBuilder key = new StringBuilder();
+        key.append("version=").append(PackedSequencesFile.VERSION);
+        key.append(" skipDuplicates=").append(skipDuplicates);
+        key.append(" includeAllChromosomes=").append(includeAllChromosomes);
+        for(SequenceEvaluator evaluator : criteria) {
+            key.append(" ").append(evaluator.describe());
+        }
+        for(File fastaFile : Genome.getFastaFiles(file, includeAllChromosomes)) {
+            key.append(" ").append(fastaFile.getName()).append("=").append(Long.toHexString(getChecksum(fastaFile.toPath())));
+        }
+        return HexFormat.of().formatHex(digest.digest(key.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Will return the CRC32C of the file content combined with the file length
+     */
+    static long getChecksum(Path path) throws IOException {
+        CRC32C checksum = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHECKSUM_BUFFER_SIZE);
+        long length = 0;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while(channel.read(buffer) >= 0) {
+                buffer.flip();
+                length += buffer.remaining();
+                checksum.update(buffer);
+                buffer.clear();
+            }
+        }
+        return (length << 32) ^ checksum.getValue();
+    }
+}
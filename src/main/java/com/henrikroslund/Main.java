@@ -37,6 +37,7 @@ import com.henrikroslund.sequence.Sequence;
 import org.apache.commons.lang3.Range;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.Executors;
@@ -60,10 +61,17 @@ public class Main {
 
     static final String PIPELINE_ENV_KEY = "PIPELINE";
     static final String PIPELINE_INPUT_FOLDER = "PIPELINE_INPUT";
+    // Optional folder where the genomes of the input folders are cached between runs
+    static final String GENOME_CACHE_FOLDER = "GENOME_CACHE";
+    static final long GENOME_CACHE_MAX_SIZE_IN_BYTES = 50L * 1024 * 1024 * 1024;
+    // Optional folder where the progress of the pipeline is saved so an interrupted run can be resumed
+    static final String CHECKPOINT_FOLDER = "CHECKPOINT";
 
     static final String baseOutputFolder = "../crispr-cas12a-output/" + new SimpleDateFormat("yyyy-MM-dd hhmmss aa z").format(new Date()) + " " + System.getenv(PIPELINE_ENV_KEY);
     static final String baseInputFolder = "../crispr-cas12a-input";
     static String inputFolder;
+    static GenomeCache genomeCache = null;
+    static Checkpoint checkpoint = null;
 
 
     enum PipelineConfiguration {
@@ -124,6 +132,18 @@ public class Main {
             }
             inputFolder = baseInputFolder + "/" + pipelineInputFolder;
 
+            var genomeCacheFolder = System.getenv(GENOME_CACHE_FOLDER);
+            if(genomeCacheFolder != null) {
+                genomeCache = new GenomeCache(Path.of(genomeCacheFolder), GENOME_CACHE_MAX_SIZE_IN_BYTES);
+                log.info("Using genome cache " + genomeCache.getDirectory().toAbsolutePath());
+            }
+
+            var checkpointFolder = System.getenv(CHECKPOINT_FOLDER);
+            if(checkpointFolder != null) {
+                checkpoint = new Checkpoint(Path.of(checkpointFolder));
+                log.info("Using checkpoint " + checkpoint.getDirectory().toAbsolutePath());
+            }
+
             switch (configuration) {
                 case PIPELINE_DEFAULT -> defaultPipeline();
                 case PIPELINE_BP -> suis_pipeline_3();
@@ -160,6 +180,8 @@ public class Main {
     public static void crBP6() throws Exception {
         String inputFolder = baseInputFolder+"/Checking crBP6";
         Pipeline pipeline = new Pipeline("Checking crBP6", inputFolder, baseOutputFolder);
+        pipeline.setGenomeCache(genomeCache);
+        pipeline.setCheckpoint(checkpoint);
         pipeline.addStage(new CrisprSelection(true, true, true));
         pipeline.addStage(new CandidateTyping(
                 Collections.emptyList(),
@@ -178,6 +200,8 @@ public class Main {
 
     public static void suis_pipeline_3() throws Exception {
         Pipeline pipeline = new Pipeline("suis_pipeline_3", inputFolder, baseOutputFolder);
+        pipeline.setGenomeCache(genomeCache);
+        pipeline.setCheckpoint(checkpoint);
         pipeline.addStage(new CrisprSelection(true, true, true), false);
         pipeline.addStage(new CrisprCommon(0), false);
 
@@ -194,6 +218,8 @@ public class Main {
 
     public static void candidateAnalysis() throws Exception {
         Pipeline pipeline = new Pipeline("Candidate Analysis Pipeline", inputFolder, baseOutputFolder);
+        pipeline.setGenomeCache(genomeCache);
+        pipeline.setCheckpoint(checkpoint);
         pipeline.addStage(new CrisprSelection(true, true, true));
         pipeline.addStage(new CandidateAnalysis(new MismatchEvaluator(null, Range.is(3), Range.between(Sequence.N1_INDEX, Sequence.N20_INDEX))));
         pipeline.run();
@@ -201,6 +227,8 @@ public class Main {
 
     public static void bpHumanGenome() throws Exception {
         Pipeline pipeline = new Pipeline("Checking bp human genome", inputFolder, baseOutputFolder);
+        pipeline.setGenomeCache(genomeCache);
+        pipeline.setCheckpoint(checkpoint);
         pipeline.addStage(new CrisprSelection(true, true, true));
         SequenceEvaluator crisprEvaluator = new CrisprPamEvaluator(false);
         pipeline.addStage(new CandidateTyping(
@@ -216,6 +244,7 @@ public class Main {
         for(int i=0; i<1; i++) {
             String inputFolder = baseInputFolder+"/performance-testing";
             Pipeline pipeline = new Pipeline("Performance testing", inputFolder, baseOutputFolder);
+            pipeline.setGenomeCache(genomeCache);
             pipeline.addStage(new CrisprSelection(false, false, true));
 
             pipeline.addStage(new CrisprSelection(false, false, true));
@@ -27,21 +27,33 @@ package com.henrikroslund;
  */
 
 import com.henrikroslund.evaluators.SequenceEvaluator;
+import com.henrikroslund.sequence.FastaFiles;
 import lombok.extern.java.Log;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Log
@@ -49,9 +61,16 @@ public class Utils {
 
     private static final long MEGABYTE_FACTOR = 1024L * 1024L;
     static long maxMemUsage = 0;
+    // The pool of threads which are not part of a pool, see runWithPool
+    private static final ThreadLocal<ForkJoinPool> threadPool = new ThreadLocal<>();
 
     public static String getFirstRow(String filename) throws Exception {
         Path filePath = Path.of(filename);
+        if(isCompressedFastaFile(filename)) {
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(FastaFiles.openStream(filePath), StandardCharsets.UTF_8))) {
+                return Objects.requireNonNull(reader.readLine(), "Empty file " + filename) + "\n";
+            }
+        }
         try(Stream<String> lines = Files.lines(filePath)) {
             return lines.findFirst().orElseThrow() + "\n";
         }
@@ -90,6 +109,15 @@ public class Utils {
         return results;
     }
 
+    /**
+     * Will return all fasta files in the folder and its sub folders, compressed fasta files included
+     */
+    public static List<File> getFastaFilesInFolder(String path) {
+        List<File> results = getFilesInFolder(path, "");
+        results.removeIf(file -> !isFastaFile(file.getName()));
+        return results;
+    }
+
     public static void throwIfFileExists(String path) throws Exception {
         File file = new File(path);
         if(file.exists()) {
@@ -98,9 +126,40 @@ public class Utils {
     }
 
     public static List<Genome> loadGenomesInFolder(String folder, List<SequenceEvaluator> criteria, boolean skipDuplicates, boolean includeAllChromosomes) {
+        return loadGenomesInFolder(folder, criteria, skipDuplicates, includeAllChromosomes, null);
+    }
+
+    /**
+     * Will load all genomes in the folder. When an I/O executor is given the files are read by its threads, which
+     * bounds how many files are read at the same time, while the parallel work of creating the sequences is done in
+     * the pool of the calling thread. Without an executor the files are loaded in parallel in the pool of the
+     * calling thread.
+     */
+    public static List<Genome> loadGenomesInFolder(String folder, List<SequenceEvaluator> criteria, boolean skipDuplicates,
+                                                   boolean includeAllChromosomes, ExecutorService ioExecutor) {
         List<Genome> genomes = Collections.synchronizedList(new ArrayList<>());
-        List<File> genomeFiles = Utils.getFilesInFolder(folder, FASTA_FILE_ENDING);
-        genomeFiles.addAll(Utils.getFilesInFolder(folder, Genome.GENOME_FILE_ENDING));
+        List<File> genomeFiles = Utils.getFastaFilesInFolder(folder);
+        List<File> binaryGenomeFiles = Utils.getFilesInFolder(folder, Genome.BINARY_GENOME_FILE_ENDING);
+        genomeFiles.addAll(binaryGenomeFiles);
+        // A text genome which also exists in the binary format is only loaded from the binary file
+        Utils.getFilesInFolder(folder, Genome.GENOME_FILE_ENDING).stream()
+                .filter(file -> !binaryGenomeFiles.contains(new File(file.getPath().replace(Genome.GENOME_FILE_ENDING, Genome.BINARY_GENOME_FILE_ENDING))))
+                .forEach(genomeFiles::add);
+        if(ioExecutor != null && !Main.DEBUG) {
+            ForkJoinPool pool = getPool();
+            List<Future<Genome>> loading = new ArrayList<>();
+            genomeFiles.forEach(file -> loading.add(ioExecutor.submit(() ->
+                    runWithPool(pool, () -> new Genome(file, criteria, skipDuplicates, includeAllChromosomes)))));
+            for(int i = 0; i < loading.size(); i++) {
+                try {
+                    genomes.add(await(loading.get(i)));
+                } catch (Exception e) {
+                    log.severe("Error creating genome from file " + genomeFiles.get(i).getAbsolutePath() + " " + e.getMessage());
+                    System.exit(1);
+                }
+            }
+            return genomes;
+        }
         (Main.DEBUG ? genomeFiles.stream() : genomeFiles.parallelStream())
                 .forEach(file -> {
                     try {
@@ -113,16 +172,116 @@ public class Utils {
         return genomes;
     }
 
+    /**
+     * Will return the pool parallel work of the current thread should be done in. That is the pool of the thread if
+     * it is a pool thread, the pool set by runWithPool or otherwise the common pool.
+     */
+    public static ForkJoinPool getPool() {
+        if(ForkJoinTask.inForkJoinPool()) {
+            return ForkJoinTask.getPool();
+        }
+        ForkJoinPool pool = threadPool.get();
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Will call the task with the pool set as the pool of the current thread, see getPool
+     */
+    public static <T> T runWithPool(ForkJoinPool pool, Callable<T> task) throws Exception {
+        threadPool.set(pool);
+        try {
+            return task.call();
+        } finally {
+            threadPool.remove();
+        }
+    }
+
+    /**
+     * Will wait for the future and return its result. A pool thread waiting for work which needs the same pool,
+     * such as a genome loaded on an I/O thread which creates its sequences in the pool, would keep the only thread
+     * of a pool with parallelism 1 from doing that work. The wait is therefore a managed block which lets the pool
+     * start a compensating thread while the pool thread waits.
+     */
+    public static <T> T await(Future<T> future) throws InterruptedException, ExecutionException {
+        if(ForkJoinTask.inForkJoinPool() && !future.isDone()) {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    try {
+                        future.get();
+                    } catch (ExecutionException | CancellationException e) {
+                        // Thrown by get below once the wait is over
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return future.isDone();
+                }
+            });
+        }
+        return future.get();
+    }
+
+    /**
+     * Will run parallel work, such as a parallel stream, in the pool of the current thread. A parallel stream only
+     * runs in the pool it was started from and otherwise in the common pool, so threads which are not part of a
+     * pool, such as I/O threads, hand the work to their pool and wait for it to complete.
+     */
+    public static void runParallel(Runnable work) {
+        if(ForkJoinTask.inForkJoinPool()) {
+            work.run();
+        } else {
+            getPool().submit(work).join();
+        }
+    }
+
     public static final String FASTA_FILE_ENDING = ".fasta";
+    // Fasta files compressed with gzip or bgzip which are decompressed while reading, see FastaFiles
+    public static final List<String> COMPRESSED_FASTA_FILE_ENDINGS = List.of(".fasta.gz", ".fna.gz");
     protected final static String CHROMOSOME_STRING = "chromosome";
-    private final static Pattern CHROMOSOME_PATTERN = Pattern.compile(".*"+CHROMOSOME_STRING+"\\s[0-9]"+FASTA_FILE_ENDING+"$");
+    private final static Pattern CHROMOSOME_PATTERN = Pattern.compile(".*"+CHROMOSOME_STRING+"\\s[0-9]("
+            + Stream.concat(Stream.of(FASTA_FILE_ENDING), COMPRESSED_FASTA_FILE_ENDINGS.stream()).map(Pattern::quote).collect(Collectors.joining("|")) + ")$");
+
+    /**
+     * Will return the ending of the fasta file, which is one of the compressed endings for a compressed file,
+     * or null if it is not a fasta file
+     */
+    public static String getFastaFileEnding(String filename) {
+        for(String ending : COMPRESSED_FASTA_FILE_ENDINGS) {
+            if(filename.endsWith(ending)) {
+                return ending;
+            }
+        }
+        return filename.endsWith(FASTA_FILE_ENDING) ? FASTA_FILE_ENDING : null;
+    }
+
+    public static boolean isFastaFile(String filename) {
+        return getFastaFileEnding(filename) != null;
+    }
+
+    public static boolean isCompressedFastaFile(String filename) {
+        return COMPRESSED_FASTA_FILE_ENDINGS.stream().anyMatch(filename::endsWith);
+    }
+
+    /**
+     * Will return the filename without the fasta file ending
+     */
+    public static String removeFastaFileEnding(String filename) {
+        if(isCompressedFastaFile(filename)) {
+            return filename.substring(0, filename.length() - getFastaFileEnding(filename).length());
+        }
+        return filename.replace(FASTA_FILE_ENDING, "");
+    }
+
     public static boolean isChromosomeFile(String filename) {
         Matcher matcher = CHROMOSOME_PATTERN.matcher(filename);
         return matcher.find();
     }
 
     public static boolean isPrimaryChromosomeFile(String filename) {
-        return isChromosomeFile(filename) && filename.charAt(filename.length()-FASTA_FILE_ENDING.length()-1) == '1';
+        return isChromosomeFile(filename) && filename.charAt(filename.length()-getFastaFileEnding(filename).length()-1) == '1';
     }
 
     public static ArrayList<String> getChromosomeFiles(String filename) {
@@ -131,9 +290,10 @@ public class Utils {
         if(!isChromosomeFile(filename)) {
             throw new IllegalArgumentException("Tried to get chromosome files");
         }
-        String base = filename.substring(0, filename.length()-FASTA_FILE_ENDING.length()-1);
+        String ending = getFastaFileEnding(filename);
+        String base = filename.substring(0, filename.length()-ending.length()-1);
         for( int i = 1; i <= maxChromosomefiles; i++ ) {
-            files.add(base + i + FASTA_FILE_ENDING );
+            files.add(base + i + ending );
         }
         return files;
     }
@@ -0,0 +1,46 @@
+package com.henrikroslund.evaluators;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+/**
+ * A stateless and thread safe form of a SequenceEvaluator, created with SequenceEvaluator.compile, which evaluates
+ * encodings directly so that no objects need to be created per evaluation. Since it has no state the same
+ * instance can be used for every sequence it is compared with instead of calling getNewEvaluator.
+ */
+@FunctionalInterface
+public interface CompiledEvaluator {
+
+    int NO_MATCH = 0;
+    int MATCH = 1;
+
+    /**
+     * @param reference the encoding of the sequence the evaluator compares with, which is the sequence given
+     *                  to getNewEvaluator. It is ignored by evaluators which do not compare with a sequence.
+     * @return NO_MATCH if the encoding does not match, otherwise a non zero result code such as MATCH
+     */
+    int evaluate(long reference, long encoded);
+}
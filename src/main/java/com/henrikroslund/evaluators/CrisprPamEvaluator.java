@@ -27,6 +27,7 @@ package com.henrikroslund.evaluators;
  */
 
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
 import lombok.Getter;
 import lombok.extern.java.Log;
 
@@ -38,6 +39,9 @@ public class CrisprPamEvaluator implements SequenceEvaluator {
     // Strict mapping require TTT^T while NOT strict will only check TTTN
     private final boolean strictMatching;
 
+    // Since T is encoded as 11 the first three bases are all T when all their bits are set
+    private static final long TTT_MASK = SequenceEncoding.rangeMask(0, 2);
+
     public CrisprPamEvaluator(boolean strictMatching) {
         this.strictMatching = strictMatching;
     }
@@ -48,11 +52,7 @@ public class CrisprPamEvaluator implements SequenceEvaluator {
     @Override
     public boolean evaluate(Sequence sequence) {
         match = null;
-        boolean result =
-                sequence.getRaw().charAt(0) == 'T' &&
-                sequence.getRaw().charAt(1) == 'T' &&
-                sequence.getRaw().charAt(2) == 'T' &&
-                ( !strictMatching || sequence.getRaw().charAt(3) != 'T');
+        boolean result = matches(sequence.getEncoded());
         if(result) {
             match = sequence;
             handleEvaluationMatch(log);
@@ -60,6 +60,16 @@ public class CrisprPamEvaluator implements SequenceEvaluator {
         return result;
     }
 
+    private boolean matches(long encoded) {
+        return (encoded & TTT_MASK) == TTT_MASK &&
+                ( !strictMatching || SequenceEncoding.codeAt(encoded, 3) != SequenceEncoding.T);
+    }
+
+    @Override
+    public CompiledEvaluator compile() {
+        return (reference, encoded) -> matches(encoded) ? CompiledEvaluator.MATCH : CompiledEvaluator.NO_MATCH;
+    }
+
     @Override
     public SequenceEvaluator getNewEvaluator(Sequence sequence) {
         return new CrisprPamEvaluator(strictMatching);
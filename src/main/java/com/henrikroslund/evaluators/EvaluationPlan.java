@@ -0,0 +1,149 @@
+package com.henrikroslund.evaluators;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.sequence.Sequence;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of evaluators compiled once so that they can be evaluated from parallel scans without creating any
+ * objects. The plan can be used in two ways:
+ *  - With the sequences the evaluators were created with, such as evaluators from getNewEvaluator, by only
+ *    giving the encoding to evaluate.
+ *  - As a template for any sequence by also giving the reference encoding, which replaces calling
+ *    getNewEvaluators for every sequence.
+ *
+ * The stateful evaluators are only used to describe a match, which is done when it is logged. Only encodings are
+ * evaluated so the caller logs a match with logMatch once it has the matched sequence, which keeps the position,
+ * strand and genome of the sequence in the log.
+ */
+public class EvaluationPlan {
+
+    public static final int NO_MATCH = -1;
+
+    @Getter
+    private final List<SequenceEvaluator> evaluators;
+    private final CompiledEvaluator[] compiled;
+    private final long[] references;
+
+    public EvaluationPlan(List<SequenceEvaluator> evaluators) {
+        this.evaluators = evaluators;
+        this.compiled = new CompiledEvaluator[evaluators.size()];
+        this.references = new long[evaluators.size()];
+        for(int i = 0; i < compiled.length; i++) {
+            SequenceEvaluator evaluator = evaluators.get(i);
+            compiled[i] = evaluator.compile();
+            references[i] = evaluator.getSequence() != null ? evaluator.getSequence().getEncoded() : 0;
+        }
+    }
+
+    public boolean isEmpty() {
+        return compiled.length == 0;
+    }
+
+    /**
+     * Will return true if ALL the evaluators match the encoding when compared with their own sequences
+     */
+    public boolean matchAll(long encoded) {
+        for(int i = 0; i < compiled.length; i++) {
+            if(compiled[i].evaluate(references[i], encoded) == CompiledEvaluator.NO_MATCH) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Will return true if ALL the evaluators match the encoding when compared with the reference
+     */
+    public boolean matchAll(long reference, long encoded) {
+        for(CompiledEvaluator evaluator : compiled) {
+            if(evaluator.evaluate(reference, encoded) == CompiledEvaluator.NO_MATCH) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Will return the index of the first evaluator matching the encoding when compared with its own sequence
+     * or NO_MATCH if none of them match
+     */
+    public int matchAny(long encoded) {
+        for(int i = 0; i < compiled.length; i++) {
+            if(compiled[i].evaluate(references[i], encoded) != CompiledEvaluator.NO_MATCH) {
+                return i;
+            }
+        }
+        return NO_MATCH;
+    }
+
+    /**
+     * Will return the result code of the evaluator at the index when compared with the reference
+     */
+    public int evaluate(int index, long reference, long encoded) {
+        return compiled[index].evaluate(reference, encoded);
+    }
+
+    /**
+     * Will return new evaluators which have evaluated the sequence so that their toString describes the match.
+     * If the reference is null the evaluators compare with their own sequences.
+     */
+    public List<SequenceEvaluator> describeMatch(Sequence reference, Sequence sequence) {
+        List<SequenceEvaluator> result = new ArrayList<>(evaluators.size());
+        for(SequenceEvaluator evaluator : evaluators) {
+            SequenceEvaluator described = evaluator.getNewEvaluator(reference != null ? reference : evaluator.getSequence());
+            described.evaluate(sequence);
+            result.add(described);
+        }
+        return result;
+    }
+
+    /**
+     * Will log the match of the sequence if EvaluatorConfig.logEvaluationMatch. The evaluators log themselves when
+     * they match so describing the match is enough. If the reference is null the evaluators compare with their
+     * own sequences.
+     */
+    public void logMatch(Sequence reference, Sequence sequence) {
+        if(EvaluatorConfig.logEvaluationMatch) {
+            describeMatch(reference, sequence);
+        }
+    }
+
+    /**
+     * Will log the match of each of the sequences, see logMatch, and return the sequences
+     */
+    public List<Sequence> logMatches(List<Sequence> sequences) {
+        if(EvaluatorConfig.logEvaluationMatch) {
+            sequences.forEach(sequence -> describeMatch(null, sequence));
+        }
+        return sequences;
+    }
+}
@@ -27,6 +27,7 @@ package com.henrikroslund.evaluators;
  */
 
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
 import lombok.Getter;
 import lombok.extern.java.Log;
 import org.apache.commons.lang3.Range;
@@ -60,6 +61,16 @@ public class GCContentN1N20Evaluator implements SequenceEvaluator {
         }
     }
 
+    @Override
+    public CompiledEvaluator compile() {
+        int minimum = range.getMinimum();
+        int maximum = range.getMaximum();
+        return (reference, encoded) -> {
+            int gcCount = SequenceEncoding.gcCount(encoded, SequenceEncoding.TARGET_MASK);
+            return gcCount >= minimum && gcCount <= maximum ? CompiledEvaluator.MATCH : CompiledEvaluator.NO_MATCH;
+        };
+    }
+
     @Override
     public SequenceEvaluator getNewEvaluator(Sequence sequence) {
         return new GCContentN1N20Evaluator(range);
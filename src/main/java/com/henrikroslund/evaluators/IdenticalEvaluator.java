@@ -27,12 +27,14 @@ package com.henrikroslund.evaluators;
  */
 
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
 import lombok.Getter;
 import lombok.extern.java.Log;
 
 @Log
 public class IdenticalEvaluator implements SequenceEvaluator {
 
+    @Getter
     final Sequence sequence;
 
     @Getter
@@ -75,6 +77,15 @@ public class IdenticalEvaluator implements SequenceEvaluator {
         return result;
     }
 
+    @Override
+    public CompiledEvaluator compile() {
+        if(checkAll) {
+            return (reference, encoded) -> reference == encoded ? CompiledEvaluator.MATCH : CompiledEvaluator.NO_MATCH;
+        }
+        long mask = (checkPam ? SequenceEncoding.PAM_MASK : 0) | (checkSeed ? SequenceEncoding.SEED_MASK : 0);
+        return (reference, encoded) -> SequenceEncoding.equals(reference, encoded, mask) ? CompiledEvaluator.MATCH : CompiledEvaluator.NO_MATCH;
+    }
+
     @Override
     public SequenceEvaluator getNewEvaluator(Sequence sequence) {
         return new IdenticalEvaluator(sequence, checkPam, checkSeed);
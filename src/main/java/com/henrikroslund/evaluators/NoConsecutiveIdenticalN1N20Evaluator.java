@@ -27,12 +27,10 @@ package com.henrikroslund.evaluators;
  */
 
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
 import lombok.Getter;
 import lombok.extern.java.Log;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 @Log
 public class NoConsecutiveIdenticalN1N20Evaluator implements SequenceEvaluator {
 
@@ -44,8 +42,8 @@ public class NoConsecutiveIdenticalN1N20Evaluator implements SequenceEvaluator {
         }
     }
 
-    // Match 4 characters and then group the 5 character and then see if that character repeats two more times
-    private final Pattern TARGET_MATCH_TRIPLETS_CONTENT_PATTERN;
+    // The bases in N2 to N20 which can be compared with the base before it in N1 to N20
+    private static final long ADJACENT_MASK = SequenceEncoding.rangeMask(Sequence.N1_INDEX + 1, Sequence.N20_INDEX) & SequenceEncoding.LOW_BITS;
 
     @Getter
     private Sequence match = null;
@@ -54,7 +52,6 @@ public class NoConsecutiveIdenticalN1N20Evaluator implements SequenceEvaluator {
 
     public NoConsecutiveIdenticalN1N20Evaluator(Type type) {
         this.type = type;
-        TARGET_MATCH_TRIPLETS_CONTENT_PATTERN = Pattern.compile("(.)\\1{"+(type.value-1)+"}");
     }
 
     /**
@@ -62,8 +59,7 @@ public class NoConsecutiveIdenticalN1N20Evaluator implements SequenceEvaluator {
      */
     @Override
     public boolean evaluate(Sequence sequence) {
-        Matcher matcher = TARGET_MATCH_TRIPLETS_CONTENT_PATTERN.matcher(sequence.getRaw()).region(Sequence.SEED_INDEX_START, Sequence.RAW_LENGTH);
-        boolean result = matcher.find();
+        boolean result = hasConsecutiveIdentical(sequence.getEncoded());
         if(!result) {
             match = sequence;
             handleEvaluationMatch(log);
@@ -73,6 +69,26 @@ public class NoConsecutiveIdenticalN1N20Evaluator implements SequenceEvaluator {
         return !result;
     }
 
+    /**
+     * Shifting the encoding one base to the right lines up every base with the base before it. A bit is then set
+     * for every base which is identical to the previous base and a run of type.value identical bases
+     * is found when type.value-1 such bits are set in a row.
+     */
+    private boolean hasConsecutiveIdentical(long encoded) {
+        long difference = encoded ^ (encoded >>> SequenceEncoding.BITS_PER_BASE);
+        long identicalToPrevious = ~(difference | (difference >>> 1)) & ADJACENT_MASK;
+        long run = identicalToPrevious;
+        for(int i = 1; i < type.value - 1; i++) {
+            run &= identicalToPrevious >>> (i * SequenceEncoding.BITS_PER_BASE);
+        }
+        return run != 0;
+    }
+
+    @Override
+    public CompiledEvaluator compile() {
+        return (reference, encoded) -> hasConsecutiveIdentical(encoded) ? CompiledEvaluator.NO_MATCH : CompiledEvaluator.MATCH;
+    }
+
     @Override
     public SequenceEvaluator getNewEvaluator(Sequence sequence) {
         return new NoConsecutiveIdenticalN1N20Evaluator(type);
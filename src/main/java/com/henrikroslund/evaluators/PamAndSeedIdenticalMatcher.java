@@ -27,14 +27,14 @@ package com.henrikroslund.evaluators;
  */
 
 import com.henrikroslund.sequence.Sequence;
-import lombok.AccessLevel;
+import com.henrikroslund.sequence.SequenceEncoding;
 import lombok.Getter;
 import lombok.extern.java.Log;
 
 @Log
 public class PamAndSeedIdenticalMatcher implements SequenceEvaluator {
 
-    @Getter(AccessLevel.PROTECTED)
+    @Getter
     private final Sequence sequence;
 
     @Getter
@@ -57,6 +57,12 @@ public class PamAndSeedIdenticalMatcher implements SequenceEvaluator {
         return result;
     }
 
+    @Override
+    public CompiledEvaluator compile() {
+        return (reference, encoded) -> SequenceEncoding.equals(reference, encoded, SequenceEncoding.PAM_MASK | SequenceEncoding.SEED_MASK)
+                ? CompiledEvaluator.MATCH : CompiledEvaluator.NO_MATCH;
+    }
+
     @Override
     public SequenceEvaluator getNewEvaluator(Sequence sequence) {
         return new PamAndSeedIdenticalMatcher(sequence);
@@ -27,6 +27,8 @@ package com.henrikroslund.evaluators;
  */
 
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
+import org.apache.commons.lang3.Range;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -84,31 +86,58 @@ public interface SequenceEvaluator {
 
     String describe();
 
-    static String toMatchRepresentation(String[] matchRepresentation) {
-        return matchRepresentation[0]
-                + matchRepresentation[1]
-                + matchRepresentation[2]
-                + matchRepresentation[3] + " "
-                + matchRepresentation[4]
-                + matchRepresentation[5]
-                + matchRepresentation[6]
-                + matchRepresentation[7]
-                + matchRepresentation[8] + " "
-                + matchRepresentation[9]
-                + matchRepresentation[10]
-                + matchRepresentation[11]
-                + matchRepresentation[12]
-                + matchRepresentation[13] + " "
-                + matchRepresentation[14]
-                + matchRepresentation[15]
-                + matchRepresentation[16]
-                + matchRepresentation[17]
-                + matchRepresentation[18] + " "
-                + matchRepresentation[19]
-                + matchRepresentation[20]
-                + matchRepresentation[21]
-                + matchRepresentation[22]
-                + matchRepresentation[23];
+    /**
+     * Will return the sequence the evaluator compares with or null if it does not compare with a sequence
+     */
+    default Sequence getSequence() {
+        return null;
+    }
+
+    /**
+     * Will return a stateless form of the evaluator, see CompiledEvaluator. This default creates a new evaluator
+     * and sequences for every evaluation so evaluators should override it with an evaluation of the encodings.
+     */
+    default CompiledEvaluator compile() {
+        return (reference, encoded) -> getNewEvaluator(new Sequence(reference, 0, null, false))
+                .evaluate(new Sequence(encoded, 0, null, false)) ? CompiledEvaluator.MATCH : CompiledEvaluator.NO_MATCH;
+    }
+
+    /**
+     * Will return a mask with all bits set for the positions in any of the ranges
+     */
+    static long toPositionMask(List<Range<Integer>> ranges) {
+        long mask = 0;
+        for(Range<Integer> range : ranges) {
+            for(int i = 0; i < Sequence.RAW_LENGTH; i++) {
+                if(range.contains(i)) {
+                    mask |= SequenceEncoding.rangeMask(i, i);
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Will build a representation of a comparison such as "==X= ===== ===X= ===== =====" where
+     * MATCH_CHAR and MISMATCH_CHAR are used for the compared positions and ? for positions not compared.
+     * This is only intended to be used when logging so the evaluation itself does not need to create any strings.
+     */
+    static String toMatchRepresentation(long mismatchBits, long comparedMask) {
+        StringBuilder representation = new StringBuilder(Sequence.RAW_LENGTH + 4);
+        for(int i = 0; i < Sequence.RAW_LENGTH; i++) {
+            if(i >= Sequence.PAM_LENGTH && (i - Sequence.PAM_LENGTH) % 5 == 0) {
+                representation.append(' ');
+            }
+            int shift = SequenceEncoding.shift(i);
+            if(((comparedMask >>> shift) & 3) == 0) {
+                representation.append('?');
+            } else if(((mismatchBits >>> shift) & 1) == 1) {
+                representation.append(MISMATCH_CHAR);
+            } else {
+                representation.append(MATCH_CHAR);
+            }
+        }
+        return representation.toString();
     }
 
 }
@@ -26,8 +26,10 @@ package com.henrikroslund.evaluators.comparisons;
  * #L%
  */
 
+import com.henrikroslund.evaluators.CompiledEvaluator;
 import com.henrikroslund.evaluators.SequenceEvaluator;
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
 import lombok.Getter;
 import lombok.extern.java.Log;
 import org.apache.commons.lang3.Range;
@@ -36,13 +38,19 @@ import java.util.Collections;
 import java.util.List;
 
 @Log
-public class MatchEvaluator implements SequenceEvaluator {
+public class MatchEvaluator implements BoundedMismatchEvaluator {
 
+    @Getter
     final Sequence sequence;
 
     private final Range<Integer> matchRange;
+    private final int minMatches;
+    private final int maxMatches;
     private final List<Range<Integer>> rangeIndexesToCompare;
-    private final boolean[] indexesToCompare = new boolean[Sequence.RAW_LENGTH];
+    @Getter
+    private final long positionMask;
+    private final int positionsToCompare;
+    private final long reference;
 
     @Getter
     private Sequence match = null;
@@ -50,34 +58,32 @@ public class MatchEvaluator implements SequenceEvaluator {
 
     public MatchEvaluator(Sequence sequence, Range<Integer> matchRange, List<Range<Integer>> rangeIndexesToCompare) {
         this.matchRange = matchRange;
+        this.minMatches = matchRange.getMinimum();
+        this.maxMatches = matchRange.getMaximum();
         this.sequence = sequence;
+        this.reference = sequence != null ? sequence.getEncoded() : 0;
         this.rangeIndexesToCompare = rangeIndexesToCompare;
-        for (Range<Integer> range : rangeIndexesToCompare) {
-            for (int i = 0; i < indexesToCompare.length; i++) {
-                if (range.contains(i)) {
-                    indexesToCompare[i] = true;
-                }
-            }
-        }
+        this.positionMask = SequenceEvaluator.toPositionMask(rangeIndexesToCompare);
+        this.positionsToCompare = Long.bitCount(positionMask & SequenceEncoding.LOW_BITS);
     }
 
     public MatchEvaluator(Sequence sequence, Range<Integer> matchRange) {
         this(sequence, matchRange, Collections.singletonList(Range.between(0,24)));
     }
 
+    /**
+     * A sequence needs at least the minimum number of matches so it can have at most the rest as mismatches
+     */
+    @Override
+    public int getMaxMismatches() {
+        return positionsToCompare - minMatches;
+    }
+
     @Override
     public boolean evaluate(Sequence sequence) {
-        int numberOfMatches = 0;
-
-        for(int i=0; i<Sequence.RAW_LENGTH; i++) {
-            if(indexesToCompare[i]) {
-                if(this.sequence.getRaw().charAt(i) == sequence.getRaw().charAt(i)) {
-                    numberOfMatches++;
-                }
-            }
-        }
+        int numberOfMatches = positionsToCompare - SequenceEncoding.mismatches(reference, sequence.getEncoded(), positionMask);
 
-        if(matchRange.contains(numberOfMatches)) {
+        if(numberOfMatches >= minMatches && numberOfMatches <= maxMatches) {
             this.match = sequence;
             this.matches = numberOfMatches;
             handleEvaluationMatch(log);
@@ -89,6 +95,15 @@ public class MatchEvaluator implements SequenceEvaluator {
         }
     }
 
+    @Override
+    public CompiledEvaluator compile() {
+        return (reference, encoded) -> {
+            int numberOfMatches = positionsToCompare - SequenceEncoding.mismatches(reference, encoded, positionMask);
+            return numberOfMatches >= minMatches && numberOfMatches <= maxMatches
+                    ? CompiledEvaluator.MATCH : CompiledEvaluator.NO_MATCH;
+        };
+    }
+
     @Override
     public SequenceEvaluator getNewEvaluator(Sequence sequence) {
         return new MatchEvaluator(sequence, matchRange, rangeIndexesToCompare);
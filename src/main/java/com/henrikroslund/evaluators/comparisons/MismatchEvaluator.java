@@ -26,8 +26,10 @@ package com.henrikroslund.evaluators.comparisons;
  * #L%
  */
 
+import com.henrikroslund.evaluators.CompiledEvaluator;
 import com.henrikroslund.evaluators.SequenceEvaluator;
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
 import lombok.Getter;
 import lombok.extern.java.Log;
 import org.apache.commons.lang3.Range;
@@ -37,35 +39,41 @@ import java.util.Iterator;
 import java.util.List;
 
 @Log
-public class MismatchEvaluator implements SequenceEvaluator {
+public class MismatchEvaluator implements BoundedMismatchEvaluator {
 
+    @Getter
     final Sequence sequence;
 
     private final Range<Integer> mismatchRange;
+    private final int minMismatches;
+    @Getter
+    private final int maxMismatches;
     private final String describeIndexesToCompare;
-    private final boolean[] indexesToCompare = new boolean[Sequence.RAW_LENGTH];
+    @Getter
+    private final long positionMask;
+    private final long reference;
     private final List<Range<Integer>> rangeIndexesToCompare;
 
     @Getter
     private Sequence match = null;
     private int mismatches = -1;
-    private final String[] matchRepresentation = new String[]{"?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?"};
+    // Only the bits of the last comparison are kept and the match representation is built when needed
+    private long mismatchBits = 0;
+    private long comparedMask = 0;
 
     public MismatchEvaluator(Sequence sequence, Range<Integer> mismatchRange, List<Range<Integer>> rangeIndexesToCompare) {
         this.sequence = sequence;
+        this.reference = sequence != null ? sequence.getEncoded() : 0;
         this.mismatchRange = mismatchRange;
+        this.minMismatches = mismatchRange.getMinimum();
+        this.maxMismatches = mismatchRange.getMaximum();
         this.rangeIndexesToCompare = rangeIndexesToCompare;
+        this.positionMask = SequenceEvaluator.toPositionMask(rangeIndexesToCompare);
 
         Iterator<Range<Integer>> it = rangeIndexesToCompare.iterator();
         StringBuilder describeIndexes = new StringBuilder();
         while(it.hasNext()) {
-            Range<Integer> range = it.next();
-            for(int i = 0; i<indexesToCompare.length; i++) {
-                if(range.contains(i)) {
-                    indexesToCompare[i] = true;
-                }
-            }
-            describeIndexes.append(range);
+            describeIndexes.append(it.next());
             if(it.hasNext()) {
                 describeIndexes.append(", ");
             }
@@ -84,19 +92,11 @@ public class MismatchEvaluator implements SequenceEvaluator {
 
     @Override
     public boolean evaluate(Sequence sequence) {
-        int numberOfMismatches = 0;
-        for(int i=0; i<Sequence.RAW_LENGTH; i++) {
-            if(indexesToCompare[i]) {
-                if(this.sequence.getRaw().charAt(i) != sequence.getRaw().charAt(i)) {
-                    numberOfMismatches++;
-                    matchRepresentation[i] = MISMATCH_CHAR;
-                } else {
-                    matchRepresentation[i] = MATCH_CHAR;
-                }
-            }
-        }
+        mismatchBits = SequenceEncoding.mismatchBits(reference, sequence.getEncoded()) & positionMask;
+        comparedMask = positionMask;
+        int numberOfMismatches = Long.bitCount(mismatchBits);
 
-        if(mismatchRange.contains(numberOfMismatches)) {
+        if(numberOfMismatches >= minMismatches && numberOfMismatches <= maxMismatches) {
             this.match = sequence;
             this.mismatches = numberOfMismatches;
             handleEvaluationMatch(log);
@@ -108,6 +108,15 @@ public class MismatchEvaluator implements SequenceEvaluator {
         }
     }
 
+    @Override
+    public CompiledEvaluator compile() {
+        return (reference, encoded) -> {
+            int numberOfMismatches = SequenceEncoding.mismatches(reference, encoded, positionMask);
+            return numberOfMismatches >= minMismatches && numberOfMismatches <= maxMismatches
+                    ? CompiledEvaluator.MATCH : CompiledEvaluator.NO_MATCH;
+        };
+    }
+
     @Override
     public SequenceEvaluator getNewEvaluator(Sequence sequence) {
         return new MismatchEvaluator(sequence, mismatchRange, rangeIndexesToCompare);
@@ -121,6 +130,6 @@ public class MismatchEvaluator implements SequenceEvaluator {
     @Override
     public String toString() {
         return describe() + " mismatches: " + mismatches + " ( "
-                + SequenceEvaluator.toMatchRepresentation(matchRepresentation) +  " ) " + (match != null ? match.toString() : "");
+                + SequenceEvaluator.toMatchRepresentation(mismatchBits, comparedMask) +  " ) " + (match != null ? match.toString() : "");
     }
 }
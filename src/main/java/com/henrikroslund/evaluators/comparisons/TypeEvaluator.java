@@ -26,13 +26,14 @@ package com.henrikroslund.evaluators.comparisons;
  * #L%
  */
 
+import com.henrikroslund.evaluators.CompiledEvaluator;
 import com.henrikroslund.evaluators.SequenceEvaluator;
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
 import lombok.Getter;
 import lombok.extern.java.Log;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 @Log
@@ -53,16 +54,23 @@ public class TypeEvaluator implements SequenceEvaluator {
     private final int type5Criteria;
     private final int type6Criteria;
 
+    private static final long PAM_WITHOUT_V_MASK = SequenceEncoding.rangeMask(Sequence.PAM_INDEX_START, Sequence.PAM_LENGTH-2);
+    private static final long N7_TO_N20_MASK = SequenceEncoding.rangeMask(Sequence.SEED_INDEX_END+1, Sequence.RAW_LENGTH-1);
+    private static final long COMPARED_MASK = PAM_WITHOUT_V_MASK | SequenceEncoding.SEED_MASK | N7_TO_N20_MASK;
+
+    @Getter
     final Sequence sequence;
+    private final long reference;
 
     @Getter
     private Sequence match = null;
     @Getter
     private final List<Type> matchTypes = new ArrayList<>();
-    private final String[] matchRepresentation = new String[]{"?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?","?"};
+    private long mismatchBits = 0;
 
     public TypeEvaluator(Sequence sequence, int type1Criteria, int type2Criteria, int type5Criteria, int type6Criteria) {
         this.sequence = sequence;
+        this.reference = sequence != null ? sequence.getEncoded() : 0;
         this.type1Criteria = type1Criteria;
         this.type2Criteria = type2Criteria;
         this.type5Criteria = type5Criteria;
@@ -83,76 +91,56 @@ public class TypeEvaluator implements SequenceEvaluator {
     public boolean evaluate(Sequence sequence) {
         reset();
 
-        // Check pam
-        int pamWithoutVMismatches = 0;
-        for(int i=Sequence.PAM_INDEX_START; i<Sequence.PAM_LENGTH-1; i++) {
-            if(this.sequence.getRaw().charAt(i) != sequence.getRaw().charAt(i)) {
-                pamWithoutVMismatches++;
-                matchRepresentation[i] = MISMATCH_CHAR;
-            } else {
-                matchRepresentation[i] = MATCH_CHAR;
-            }
-        }
-
-        // Check seed
-        int seedMismatchesInARow = 0;
-        int seedMismatches = 0;
-        int currentMismatches = 0;
-        for(int i=Sequence.SEED_INDEX_START; i<=Sequence.SEED_INDEX_END; i++) {
-            if(this.sequence.getRaw().charAt(i) != sequence.getRaw().charAt(i)) {
-                currentMismatches++;
-                seedMismatches++;
-                matchRepresentation[i] = MISMATCH_CHAR;
-            } else {
-                currentMismatches = 0;
-                matchRepresentation[i] = MATCH_CHAR;
-            }
-            if(currentMismatches > seedMismatchesInARow) {
-                seedMismatchesInARow = currentMismatches;
-            }
-        }
-
-        // Check rest of the raw
-        int mismatchesN7toN20 = 0;
-        for(int i=Sequence.SEED_INDEX_END+1; i<Sequence.RAW_LENGTH; i++) {
-            if(this.sequence.getRaw().charAt(i) != sequence.getRaw().charAt(i)) {
-                mismatchesN7toN20++;
-                matchRepresentation[i] = MISMATCH_CHAR;
-            } else {
-                matchRepresentation[i] = MATCH_CHAR;
+        mismatchBits = SequenceEncoding.mismatchBits(reference, sequence.getEncoded());
+        int typeBits = getTypeBits(mismatchBits);
+        for(Type type : Type.values()) {
+            if((typeBits & (1 << type.ordinal())) != 0) {
+                matchTypes.add(type);
             }
         }
-
-        evaluateTypes(pamWithoutVMismatches, seedMismatches, seedMismatchesInARow, mismatchesN7toN20);
+        handleEvaluationMatch(log);
         match = sequence;
         return true;
     }
 
+    /**
+     * The result code has the bit of the ordinal set for every matching type. It is never NO_MATCH since
+     * TYPE_DISCARD applies when no other type does.
+     */
+    @Override
+    public CompiledEvaluator compile() {
+        return (reference, encoded) -> getTypeBits(SequenceEncoding.mismatchBits(reference, encoded));
+    }
+
     @Override
     public SequenceEvaluator getNewEvaluator(Sequence sequence) {
         return new TypeEvaluator(sequence, type1Criteria, type2Criteria, type5Criteria, type6Criteria);
     }
 
-    private void evaluateTypes(int pamMismatches, int seedMismatches, int seedMismatchesInARow, int mismatchesN7toN20) {
-        if(pamMismatches >= type1Criteria) {
-            matchTypes.add(Type.TYPE_1);
+    private int getTypeBits(long mismatchBits) {
+        long seedMismatchBits = mismatchBits & SequenceEncoding.SEED_MASK;
+        boolean isType1 = Long.bitCount(mismatchBits & PAM_WITHOUT_V_MASK) >= type1Criteria;
+        boolean isType2 = SequenceEncoding.longestRun(seedMismatchBits) >= type2Criteria;
+        int typeBits = 0;
+        if(isType1) {
+            typeBits |= 1 << Type.TYPE_1.ordinal();
         }
-        if(seedMismatchesInARow >= type2Criteria) {
-            matchTypes.add(Type.TYPE_2);
+        if(isType2) {
+            typeBits |= 1 << Type.TYPE_2.ordinal();
         }
-        if(matchTypes.containsAll(Arrays.asList(Type.TYPE_1, Type.TYPE_2))) {
-            matchTypes.add(Type.TYPE_3);
+        if(isType1 && isType2) {
+            typeBits |= 1 << Type.TYPE_3.ordinal();
         }
-        if(mismatchesN7toN20 >= type5Criteria) {
-            matchTypes.add(Type.TYPE_5);
+        if(Long.bitCount(mismatchBits & N7_TO_N20_MASK) >= type5Criteria) {
+            typeBits |= 1 << Type.TYPE_5.ordinal();
         }
-        if(seedMismatches >= type6Criteria) {
-            matchTypes.add(Type.TYPE_6);
+        if(Long.bitCount(seedMismatchBits) >= type6Criteria) {
+            typeBits |= 1 << Type.TYPE_6.ordinal();
         }
-        if(matchTypes.isEmpty()) {
-            matchTypes.add(Type.TYPE_DISCARD);
+        if(typeBits == 0) {
+            typeBits = 1 << Type.TYPE_DISCARD.ordinal();
         }
-        handleEvaluationMatch(log);
+        return typeBits;
     }
 
     @Override
@@ -174,7 +162,7 @@ public class TypeEvaluator implements SequenceEvaluator {
             return describe() + " NO MATCH TYPE: " + sequence.toString();
         }
         return describe() + " " + matchTypes
-                + " ( " + SequenceEvaluator.toMatchRepresentation(matchRepresentation) + " ) "
+                + " ( " + SequenceEvaluator.toMatchRepresentation(mismatchBits, COMPARED_MASK) + " ) "
                 + match.toString();
     }
 }
@@ -114,7 +114,7 @@ public class CandidateFeatureResultCsv {
         for(TypeEvaluator.Type type : TypeEvaluator.Type.values()) {
             cell = new StringBuilder();
             for(Sequence sequence: sequences) {
-                cell.append(sequence.getMetaData().get(type)).append("\n");
+                cell.append(sequence.getMetaData(type)).append("\n");
             }
             columns.add(cell.toString());
         }
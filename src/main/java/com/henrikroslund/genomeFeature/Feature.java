@@ -51,7 +51,22 @@ public class Feature {
         if(mustMatchStrand && sequence.getIsComplement() != isComplement) {
             return false;
         }
-        return sequence.getStartIndex() <= endIndex && sequence.getEndIndex() >= startIndex;
+        return sequence.getStartIndex() <= getHighIndex() && sequence.getEndIndex() >= getLowIndex();
+    }
+
+    /**
+     * Complement features are written with the start index after the end index so this is the smaller of the two
+     */
+    int getLowIndex() {
+        return Math.min(startIndex, endIndex);
+    }
+
+    int getHighIndex() {
+        return Math.max(startIndex, endIndex);
+    }
+
+    boolean isComplement() {
+        return isComplement;
     }
 
     @Override
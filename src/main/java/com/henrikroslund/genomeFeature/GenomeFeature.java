@@ -33,15 +33,32 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+/**
+ * The features of a genome from a feature table. The features are indexed when loaded as an implicit interval tree:
+ * the features are sorted on their low index and the sorted arrays are seen as a balanced binary tree where the
+ * middle of every range is the root of that range. Each node keeps the highest index of its subtree so a lookup
+ * only visits subtrees which can overlap and finds the k overlapping features in O(log n + k).
+ */
 @Log
 public class GenomeFeature {
 
     private final List<Feature> features = new ArrayList<>();
 
+    // The index, all arrays are ordered on the low index of the features
+    private int[] featureIds;
+    private int[] lowIndexes;
+    private int[] highIndexes;
+    private int[] maxHighIndexes;
+    private final BitSet complements = new BitSet();
+
     public GenomeFeature(File file) throws Exception {
         log.info("Creating GenomeFeature from file " + file.getName());
         Path filePath = Path.of(file.getAbsolutePath());
@@ -82,22 +99,84 @@ public class GenomeFeature {
                 featureLines.add(line);
             }
         }
+        if(start != -1) {
+            features.add(new Feature(start, end, type, featureLines));
+        }
+        lines.close();
+        buildIndex();
+    }
+
+    private void buildIndex() {
+        featureIds = IntStream.range(0, features.size()).boxed()
+                .sorted(Comparator.comparingInt(id -> features.get(id).getLowIndex()))
+                .mapToInt(Integer::intValue).toArray();
+        lowIndexes = new int[featureIds.length];
+        highIndexes = new int[featureIds.length];
+        maxHighIndexes = new int[featureIds.length];
+        for(int i = 0; i < featureIds.length; i++) {
+            Feature feature = features.get(featureIds[i]);
+            lowIndexes[i] = feature.getLowIndex();
+            highIndexes[i] = feature.getHighIndex();
+            complements.set(i, feature.isComplement());
+        }
+        computeMaxHighIndex(0, featureIds.length);
+    }
+
+    /**
+     * Will set the highest index of the subtree rooted in the middle of [from, to) and return it
+     */
+    private int computeMaxHighIndex(int from, int to) {
+        if(from >= to) {
+            return Integer.MIN_VALUE;
+        }
+        int middle = (from + to) >>> 1;
+        int max = Math.max(highIndexes[middle],
+                Math.max(computeMaxHighIndex(from, middle), computeMaxHighIndex(middle + 1, to)));
+        maxHighIndexes[middle] = max;
+        return max;
     }
 
     private boolean isNewFeature(String line) {
         return !line.startsWith("\t");
     }
 
+    List<Feature> getFeatures() {
+        return Collections.unmodifiableList(features);
+    }
+
+    /**
+     * Will return the features overlapping any of the sequences in the order they are in the feature table
+     */
     public List<Feature> getMatchingFeatures(List<Sequence> sequences, boolean mustMatchStrand) {
-        List<Feature> matches = new ArrayList<>();
-        for(Feature feature : features) {
-            for(Sequence sequence : sequences) {
-                if(feature.isMatch(sequence, mustMatchStrand)) {
-                    matches.add(feature);
-                    break;
-                }
-            }
+        BitSet matchingIds = new BitSet(features.size());
+        for(Sequence sequence : sequences) {
+            collectOverlapping(0, featureIds.length, sequence.getStartIndex(), sequence.getEndIndex(),
+                    mustMatchStrand ? sequence.getIsComplement() : null, matchingIds);
         }
+        List<Feature> matches = new ArrayList<>(matchingIds.cardinality());
+        matchingIds.stream().forEach(id -> matches.add(features.get(id)));
         return  matches;
     }
+
+    /**
+     * Will add the ids of the features in the subtree rooted in the middle of [from, to) which overlap the
+     * indexes and, if isComplement is not null, are on the same strand
+     */
+    private void collectOverlapping(int from, int to, int startIndex, int endIndex, Boolean isComplement, BitSet result) {
+        while(from < to) {
+            int middle = (from + to) >>> 1;
+            if(maxHighIndexes[middle] < startIndex) {
+                return;
+            }
+            collectOverlapping(from, middle, startIndex, endIndex, isComplement, result);
+            // Everything from the middle and to the right starts after the sequence
+            if(lowIndexes[middle] > endIndex) {
+                return;
+            }
+            if(highIndexes[middle] >= startIndex && (isComplement == null || complements.get(middle) == isComplement)) {
+                result.set(featureIds[middle]);
+            }
+            from = middle + 1;
+        }
+    }
 }
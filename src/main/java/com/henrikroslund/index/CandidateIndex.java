@@ -0,0 +1,137 @@
+package com.henrikroslund.index;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.sequence.PackedSequences;
+import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Index over a set of candidate sequences which the sequences of a much larger genome can be streamed past.
+ * Each genome sequence is looked up among the candidates instead of every candidate scanning the whole genome,
+ * so the genome never needs to be stored. The indexes returned refer to the order of the candidates given.
+ *
+ * Identical lookups use an open addressing hash table of primitive arrays from encoding to the first candidate
+ * with that encoding, where candidates with the same encoding are chained in ascending order.
+ */
+public class CandidateIndex {
+
+    private static final int NO_CANDIDATE = -1;
+    private static final int[] NO_CANDIDATES = new int[0];
+
+    private final List<Sequence> candidates;
+    private final PackedSequences packedCandidates;
+    private final Map<Pair<Long, Integer>, MismatchIndex> mismatchIndexes = new ConcurrentHashMap<>();
+
+    private final int hashBits;
+    private final long[] hashKeys;
+    private final int[] hashFirstCandidates;
+    private final int[] nextIdenticalCandidates;
+
+    public CandidateIndex(Collection<Sequence> candidates) {
+        this.candidates = new ArrayList<>(candidates);
+        this.packedCandidates = new PackedSequences(this.candidates.size());
+        this.candidates.forEach(packedCandidates::add);
+        packedCandidates.makeImmutable();
+
+        // At most half of the slots are used to keep the probe sequences short
+        hashBits = Math.max(1, 33 - Integer.numberOfLeadingZeros(Math.max(size(), 1)));
+        hashKeys = new long[1 << hashBits];
+        hashFirstCandidates = new int[1 << hashBits];
+        Arrays.fill(hashFirstCandidates, NO_CANDIDATE);
+        nextIdenticalCandidates = new int[size()];
+        // Added from the last so each chain ends up in ascending order
+        for(int i = size() - 1; i >= 0; i--) {
+            long encoded = packedCandidates.getEncoded(i);
+            int slot = getHashSlot(encoded);
+            nextIdenticalCandidates[i] = hashFirstCandidates[slot];
+            hashKeys[slot] = encoded;
+            hashFirstCandidates[slot] = i;
+        }
+    }
+
+    /**
+     * Will return the slot of the encoding in the hash table or the empty slot where it should be added
+     */
+    private int getHashSlot(long encoded) {
+        int mask = (1 << hashBits) - 1;
+        int slot = (int) ((encoded * 0x9E3779B97F4A7C15L) >>> (64 - hashBits));
+        while(hashFirstCandidates[slot] != NO_CANDIDATE && hashKeys[slot] != encoded) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    public int size() {
+        return candidates.size();
+    }
+
+    public Sequence get(int index) {
+        return candidates.get(index);
+    }
+
+    /**
+     * Will return the indexes of the candidates identical to the encoding
+     */
+    public int[] getIdentical(long encoded) {
+        int first = hashFirstCandidates[getHashSlot(encoded)];
+        if(first == NO_CANDIDATE) {
+            return NO_CANDIDATES;
+        }
+        if(nextIdenticalCandidates[first] == NO_CANDIDATE) {
+            return new int[]{first};
+        }
+        List<Integer> identical = new ArrayList<>();
+        for(int candidate = first; candidate != NO_CANDIDATE; candidate = nextIdenticalCandidates[candidate]) {
+            identical.add(candidate);
+        }
+        return identical.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Will return the indexes, in ascending order, of the candidates with at most maxMismatches to the encoding
+     * over the positions in the mask
+     */
+    public int[] getWithinMismatches(long encoded, long mask, int maxMismatches) {
+        if(!MismatchIndex.canIndex(Long.bitCount(mask & SequenceEncoding.LOW_BITS), maxMismatches)) {
+            return IntStream.range(0, size())
+                    .filter(i -> SequenceEncoding.mismatches(encoded, packedCandidates.getEncoded(i), mask) <= maxMismatches)
+                    .toArray();
+        }
+        return mismatchIndexes.computeIfAbsent(Pair.of(mask, maxMismatches),
+                key -> new MismatchIndex(packedCandidates, mask, maxMismatches)).getCandidates(encoded);
+    }
+}
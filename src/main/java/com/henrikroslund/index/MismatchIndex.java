@@ -0,0 +1,301 @@
+package com.henrikroslund.index;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.evaluators.SequenceEvaluator;
+import com.henrikroslund.evaluators.comparisons.BoundedMismatchEvaluator;
+import com.henrikroslund.sequence.PackedSequences;
+import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Index used to find the sequences which have at most a maximum number of mismatches to a query
+ * within the positions of a mask.
+ *
+ * It is based on multi-index hashing: if the positions are split into m blocks and a sequence has at most k
+ * mismatches then at least one of the blocks has at most k/m mismatches (the pigeonhole principle is the case
+ * m = k+1 where one block must be identical). Each block is indexed exactly in a sorted array and a query looks up
+ * every block key within k/m mismatches of its own blocks, so only the sequences found that way are verified
+ * instead of comparing against every sequence. The number of blocks is chosen from an estimated query cost
+ * given the number of indexed sequences.
+ */
+public class MismatchIndex {
+
+    // A block key of at most 12 bases fits in 24 bits which leaves 40 bits for the sequence index
+    private static final int MAX_BASES_PER_BLOCK = 12;
+    private static final int INDEX_BITS = 40;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    private final PackedSequences sequences;
+    @Getter
+    private final long mask;
+    @Getter
+    private final int maxMismatches;
+    private final int[][] blockPositions;
+    private final int blockMismatches;
+    // Each entry is the block key shifted INDEX_BITS followed by the index of the sequence, sorted ascending
+    private final long[][] blockEntries;
+
+    public MismatchIndex(PackedSequences sequences, long mask, int maxMismatches) {
+        int[] positions = getPositions(mask);
+        if(!canIndex(positions.length, maxMismatches)) {
+            throw new IllegalArgumentException("Can not index " + maxMismatches + " mismatches over " + positions.length + " positions");
+        }
+        this.sequences = sequences;
+        this.mask = mask;
+        this.maxMismatches = maxMismatches;
+        int blocks = numberOfBlocks(positions.length, maxMismatches, sequences.size());
+        this.blockPositions = splitIntoBlocks(positions, blocks);
+        this.blockMismatches = maxMismatches / blocks;
+        this.blockEntries = new long[blockPositions.length][];
+        for(int block = 0; block < blockPositions.length; block++) {
+            final int currentBlock = block;
+            long[] entries = new long[sequences.size()];
+            IntStream.range(0, entries.length).parallel().forEach(i ->
+                    entries[i] = (blockKey(sequences.getEncoded(i), currentBlock) << INDEX_BITS) | i);
+            Arrays.parallelSort(entries);
+            blockEntries[block] = entries;
+        }
+    }
+
+    /**
+     * The index only makes sense if at least one base must be identical
+     */
+    public static boolean canIndex(int positions, int maxMismatches) {
+        return maxMismatches >= 0 && maxMismatches < positions;
+    }
+
+    public static boolean canIndex(BoundedMismatchEvaluator evaluator) {
+        return canIndex(Long.bitCount(evaluator.getPositionMask() & SequenceEncoding.LOW_BITS), evaluator.getMaxMismatches());
+    }
+
+    /**
+     * Will return the evaluator which can be answered by an index over the number of sequences with the lowest
+     * estimated query cost, or null if none of the evaluators can be answered by an index
+     */
+    public static BoundedMismatchEvaluator getMostSelective(List<SequenceEvaluator> evaluators, int sequences) {
+        BoundedMismatchEvaluator mostSelective = null;
+        double lowestCost = Double.MAX_VALUE;
+        for(SequenceEvaluator evaluator : evaluators) {
+            if(!(evaluator instanceof BoundedMismatchEvaluator) || !canIndex((BoundedMismatchEvaluator) evaluator)) {
+                continue;
+            }
+            BoundedMismatchEvaluator boundedEvaluator = (BoundedMismatchEvaluator) evaluator;
+            double cost = estimateQueryCost(boundedEvaluator.getPositionMask(), boundedEvaluator.getMaxMismatches(), sequences);
+            if(cost < lowestCost) {
+                lowestCost = cost;
+                mostSelective = boundedEvaluator;
+            }
+        }
+        return mostSelective;
+    }
+
+    /**
+     * Will return the estimated cost of a query, used to pick the most selective index
+     */
+    public static double estimateQueryCost(long mask, int maxMismatches, int sequences) {
+        int positions = getPositions(mask).length;
+        return estimateQueryCost(positions, maxMismatches, numberOfBlocks(positions, maxMismatches, sequences), sequences);
+    }
+
+    /**
+     * For every block each neighbour key is one binary search followed by verifying the sequences
+     * expected to share that key.
+     */
+    private static double estimateQueryCost(int positions, int maxMismatches, int blocks, int sequences) {
+        double cost = 0;
+        int blockMismatches = maxMismatches / blocks;
+        for(int block = 0; block < blocks; block++) {
+            int blockLength = positions / blocks + (block < positions % blocks ? 1 : 0);
+            double lookupCost = 1 + Math.log(sequences + 1) / Math.log(2) + sequences / Math.pow(4, blockLength);
+            cost += numberOfNeighbours(blockLength, blockMismatches) * lookupCost;
+        }
+        return cost;
+    }
+
+    private static double numberOfNeighbours(int length, int mismatches) {
+        double result = 0;
+        double combinations = 1;
+        for(int i = 0; i <= mismatches; i++) {
+            result += combinations;
+            combinations = combinations * (length - i) / (i + 1) * 3;
+        }
+        return result;
+    }
+
+    /**
+     * At least enough blocks are needed for each block key to fit and more blocks than k+1 only makes blocks smaller
+     */
+    private static int numberOfBlocks(int positions, int maxMismatches, int sequences) {
+        int minBlocks = (positions + MAX_BASES_PER_BLOCK - 1) / MAX_BASES_PER_BLOCK;
+        int maxBlocks = Math.max(minBlocks, Math.min(positions, maxMismatches + 1));
+        int bestBlocks = minBlocks;
+        double bestCost = Double.MAX_VALUE;
+        for(int blocks = minBlocks; blocks <= maxBlocks; blocks++) {
+            double cost = estimateQueryCost(positions, maxMismatches, blocks, sequences);
+            if(cost < bestCost) {
+                bestCost = cost;
+                bestBlocks = blocks;
+            }
+        }
+        return bestBlocks;
+    }
+
+    private static int[] getPositions(long mask) {
+        return IntStream.range(0, Sequence.RAW_LENGTH)
+                .filter(i -> SequenceEncoding.codeAt(mask, i) != 0)
+                .toArray();
+    }
+
+    private static int[][] splitIntoBlocks(int[] positions, int blocks) {
+        int[][] result = new int[blocks][];
+        int start = 0;
+        for(int block = 0; block < blocks; block++) {
+            // The first blocks get one extra position each when the positions are not evenly divisible
+            int length = positions.length / blocks + (block < positions.length % blocks ? 1 : 0);
+            result[block] = Arrays.copyOfRange(positions, start, start + length);
+            start += length;
+        }
+        return result;
+    }
+
+    private long blockKey(long encoded, int block) {
+        long key = 0;
+        for(int position : blockPositions[block]) {
+            key = (key << SequenceEncoding.BITS_PER_BASE) | SequenceEncoding.codeAt(encoded, position);
+        }
+        return key;
+    }
+
+    /**
+     * Will return the indexes, in ascending order, of all sequences with at most maxMismatches to the query
+     */
+    public int[] getCandidates(long query) {
+        List<int[]> blockCandidates = new ArrayList<>();
+        int total = 0;
+        for(int block = 0; block < blockPositions.length; block++) {
+            for(long key : getNeighbours(blockKey(query, block), blockPositions[block].length, blockMismatches)) {
+                int[] candidates = lookup(query, block, key);
+                blockCandidates.add(candidates);
+                total += candidates.length;
+            }
+        }
+
+        // The same sequence can be found through several blocks
+        int[] result = new int[total];
+        int offset = 0;
+        for(int[] candidates : blockCandidates) {
+            System.arraycopy(candidates, 0, result, offset, candidates.length);
+            offset += candidates.length;
+        }
+        Arrays.sort(result);
+        int unique = 0;
+        for(int i = 0; i < result.length; i++) {
+            if(unique == 0 || result[i] != result[unique-1]) {
+                result[unique++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, unique);
+    }
+
+    /**
+     * Will return the verified indexes of the sequences with the key in the block
+     */
+    private int[] lookup(long query, int block, long key) {
+        long[] entries = blockEntries[block];
+        int start = lowerBound(entries, key << INDEX_BITS);
+        int end = start;
+        while(end < entries.length && (entries[end] >>> INDEX_BITS) == key) {
+            end++;
+        }
+        int[] candidates = new int[end - start];
+        int found = 0;
+        for(int i = start; i < end; i++) {
+            int index = (int) (entries[i] & INDEX_MASK);
+            if(SequenceEncoding.mismatches(query, sequences.getEncoded(index), mask) <= maxMismatches) {
+                candidates[found++] = index;
+            }
+        }
+        return Arrays.copyOf(candidates, found);
+    }
+
+    /**
+     * Will return all block keys, including the key itself, with at most the number of mismatches to the key
+     */
+    static long[] getNeighbours(long key, int length, int mismatches) {
+        List<Long> neighbours = new ArrayList<>();
+        addNeighbours(key, length, mismatches, 0, neighbours);
+        return neighbours.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static void addNeighbours(long key, int length, int mismatches, int fromBase, List<Long> neighbours) {
+        neighbours.add(key);
+        if(mismatches == 0) {
+            return;
+        }
+        for(int base = fromBase; base < length; base++) {
+            int shift = (length - 1 - base) * SequenceEncoding.BITS_PER_BASE;
+            for(long substitution = 1; substitution <= 3; substitution++) {
+                addNeighbours(key ^ (substitution << shift), length, mismatches - 1, base + 1, neighbours);
+            }
+        }
+    }
+
+    /**
+     * Will return the lowest index of a sequence with at most maxMismatches to the query which is also
+     * accepted by the predicate, or -1 if there is none.
+     */
+    public int findFirst(long query, IntPredicate accept) {
+        for(int index : getCandidates(query)) {
+            if(accept.test(index)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int lowerBound(long[] entries, long value) {
+        int low = 0;
+        int high = entries.length;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(entries[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
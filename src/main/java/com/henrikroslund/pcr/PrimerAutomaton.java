@@ -0,0 +1,155 @@
+package com.henrikroslund.pcr;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton over a set of primers which finds every occurrence of all the primers with one pass
+ * over the genome data, instead of one search of the genome per primer. The transitions are completed when built
+ * so each character of the genome is a single table lookup. Characters which are not part of any primer take the
+ * automaton back to the start. Overlapping occurrences are all found.
+ */
+public class PrimerAutomaton {
+
+    private static final int ALPHABET_SIZE = 128;
+    private static final int NOT_IN_ALPHABET = -1;
+
+    private final int[] primerLengths;
+    // The id of each character used by the primers or NOT_IN_ALPHABET
+    private final int[] characterIds = new int[ALPHABET_SIZE];
+    private int[][] transitions;
+    // The primers ending in each state, including the ones ending in its suffixes
+    private int[][] outputs;
+
+    public interface OccurrenceConsumer {
+        void accept(int primer, int index);
+    }
+
+    public PrimerAutomaton(List<String> primers) {
+        primerLengths = primers.stream().mapToInt(String::length).toArray();
+        Arrays.fill(characterIds, NOT_IN_ALPHABET);
+        int alphabet = 0;
+        for(String primer : primers) {
+            if(primer.isEmpty()) {
+                throw new IllegalArgumentException("Can not search for an empty primer");
+            }
+            for(char character : primer.toCharArray()) {
+                if(character >= ALPHABET_SIZE) {
+                    throw new IllegalArgumentException("Unexpected character " + character + " in primer " + primer);
+                }
+                if(characterIds[character] == NOT_IN_ALPHABET) {
+                    characterIds[character] = alphabet++;
+                }
+            }
+        }
+        build(primers, alphabet);
+    }
+
+    private void build(List<String> primers, int alphabet) {
+        List<int[]> trie = new ArrayList<>();
+        List<List<Integer>> primersEnding = new ArrayList<>();
+        trie.add(new int[alphabet]);
+        primersEnding.add(new ArrayList<>());
+        for(int primer = 0; primer < primers.size(); primer++) {
+            int state = 0;
+            for(char character : primers.get(primer).toCharArray()) {
+                int id = characterIds[character];
+                if(trie.get(state)[id] == 0) {
+                    trie.get(state)[id] = trie.size();
+                    trie.add(new int[alphabet]);
+                    primersEnding.add(new ArrayList<>());
+                }
+                state = trie.get(state)[id];
+            }
+            primersEnding.get(state).add(primer);
+        }
+
+        // States are completed breadth first so the failure state, which is always shallower, is already complete
+        transitions = trie.toArray(new int[0][]);
+        outputs = new int[transitions.length][];
+        int[] failures = new int[transitions.length];
+        outputs[0] = new int[0];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for(int id = 0; id < alphabet; id++) {
+            if(transitions[0][id] != 0) {
+                queue.add(transitions[0][id]);
+            }
+        }
+        while(!queue.isEmpty()) {
+            int state = queue.poll();
+            int failure = failures[state];
+            List<Integer> ending = primersEnding.get(state);
+            outputs[state] = new int[ending.size() + outputs[failure].length];
+            for(int i = 0; i < ending.size(); i++) {
+                outputs[state][i] = ending.get(i);
+            }
+            System.arraycopy(outputs[failure], 0, outputs[state], ending.size(), outputs[failure].length);
+            for(int id = 0; id < alphabet; id++) {
+                int next = transitions[state][id];
+                if(next == 0) {
+                    transitions[state][id] = transitions[failure][id];
+                } else {
+                    failures[next] = transitions[failure][id];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Will call the consumer with the primer and the start index of every occurrence in the data, in the order of
+     * the end index of the occurrences
+     */
+    public void forEachOccurrence(CharSequence data, OccurrenceConsumer consumer) {
+        int state = 0;
+        for(int i = 0; i < data.length(); i++) {
+            char character = data.charAt(i);
+            int id = character < ALPHABET_SIZE ? characterIds[character] : NOT_IN_ALPHABET;
+            state = id == NOT_IN_ALPHABET ? 0 : transitions[state][id];
+            for(int primer : outputs[state]) {
+                consumer.accept(primer, i - primerLengths[primer] + 1);
+            }
+        }
+    }
+
+    /**
+     * Will return the start indexes of the occurrences of each primer in ascending order
+     */
+    public List<List<Integer>> findOccurrences(CharSequence data) {
+        List<List<Integer>> occurrences = new ArrayList<>(primerLengths.length);
+        for(int i = 0; i < primerLengths.length; i++) {
+            occurrences.add(new ArrayList<>());
+        }
+        forEachOccurrence(data, (primer, index) -> occurrences.get(primer).add(index));
+        return occurrences;
+    }
+}
@@ -26,13 +26,20 @@ package com.henrikroslund.pipeline;
  * #L%
  */
 
+import com.henrikroslund.Checkpoint;
 import com.henrikroslund.Genome;
+import com.henrikroslund.GenomeCache;
 import com.henrikroslund.Utils;
 import com.henrikroslund.pipeline.stage.Stage;
+import lombok.Setter;
 import lombok.extern.java.Log;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Log
 public class Pipeline {
@@ -42,6 +49,16 @@ public class Pipeline {
     private final String name;
     private final String inputFolder;
     private final String outputFolder;
+    private GenomeCache genomeCache = null;
+    private Checkpoint checkpoint = null;
+
+    // The number of threads each stage runs with unless the stage sets its own parallelism
+    @Setter
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    // The number of genome files read at the same time
+    @Setter
+    private int ioParallelism = DEFAULT_IO_PARALLELISM;
+    private static final int DEFAULT_IO_PARALLELISM = 4;
 
     public Pipeline(String name, String inputFolder, String outputFolder) {
         this.name = name;
@@ -51,17 +68,46 @@ public class Pipeline {
 
     public void addStage(Stage stage, boolean shouldPreProcessFiles) {
         stage.configure(inputFolder, outputFolder, shouldPreProcessFiles);
+        stage.setGenomeCache(genomeCache);
         stages.add(stage);
     }
 
+    /**
+     * Will make all stages load the genomes in their input folders through the cache
+     */
+    public void setGenomeCache(GenomeCache genomeCache) {
+        this.genomeCache = genomeCache;
+        stages.forEach(stage -> stage.setGenomeCache(genomeCache));
+    }
+
+    /**
+     * Will make the pipeline save its progress so an interrupted run can be resumed. Stages which have completed
+     * are not run again and stages processing one genome file at a time continue after the last processed file.
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
     public void addStage(Stage stage) {
         addStage(stage, true);
     }
 
     public void preProcessStagesInput() throws Exception {
+        preProcessStagesInput(null);
+    }
+
+    /**
+     * Will pre-process the input files of all stages with the files read and written on the I/O executor
+     */
+    private void preProcessStagesInput(ExecutorService ioExecutor) throws Exception {
         log.info("Will pre-process all stages input files.");
         for(Stage stage : stages) {
-            stage.preProcessInputFiles();
+            try {
+                stage.setIoExecutor(ioExecutor);
+                stage.preProcessInputFiles();
+            } finally {
+                stage.setIoExecutor(null);
+            }
         }
     }
 
@@ -69,6 +115,7 @@ public class Pipeline {
         log.info("Starting pipeline: " + name);
         log.info("Pipeline input folder " + inputFolder);
         log.info("Pipeline output folder " + outputFolder);
+        log.info("Pipeline parallelism " + parallelism + " and I/O parallelism " + ioParallelism);
 
         // First we print the pipeline
         StringBuilder description = new StringBuilder("Printing pipeline stages and configurations:");
@@ -82,11 +129,44 @@ public class Pipeline {
 
         log.info("Will start pipeline.");
 
-        preProcessStagesInput();
-
         Genome stageResult = null;
-        for(Stage stage : stages) {
-            stageResult = stage.run(stageResult);
+        AtomicInteger ioThreads = new AtomicInteger();
+        ExecutorService ioExecutor = Executors.newFixedThreadPool(ioParallelism, runnable -> {
+            Thread thread = new Thread(runnable, name + "-io-" + ioThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            preProcessStagesInput(ioExecutor);
+
+            for(int stageNumber = 1; stageNumber <= stages.size(); stageNumber++) {
+                Stage stage = stages.get(stageNumber - 1);
+                // The checkpoint is only used by the same stage of the same pipeline reading the same input folder
+                Checkpoint stageCheckpoint = checkpoint == null ? null
+                        : checkpoint.getStageCheckpoint(stageNumber, stage.getClass().getSimpleName(),
+                        name + " " + new File(stage.getInputFolder()).getAbsolutePath() + " " + stage);
+                if(stageCheckpoint != null && stageCheckpoint.isCompleted()) {
+                    log.info("Skipping stage " + stage.getClass().getSimpleName() + " completed in checkpoint " + stageCheckpoint.getDirectory());
+                    stageResult = stageCheckpoint.getResult();
+                    continue;
+                }
+                int stageParallelism = stage.getParallelism() > 0 ? stage.getParallelism() : parallelism;
+                try(StageExecutor executor = new StageExecutor(stage.getClass().getSimpleName(), stageParallelism)) {
+                    stage.setExecutor(executor);
+                    stage.setIoExecutor(ioExecutor);
+                    stage.setCheckpoint(stageCheckpoint);
+                    stageResult = stage.run(stageResult);
+                } finally {
+                    stage.setExecutor(null);
+                    stage.setIoExecutor(null);
+                    stage.setCheckpoint(null);
+                }
+                if(stageCheckpoint != null) {
+                    stageCheckpoint.complete(stageResult);
+                }
+            }
+        } finally {
+            ioExecutor.shutdown();
         }
 
         log.info("Finished pipeline: " + name);
@@ -0,0 +1,132 @@
+package com.henrikroslund.pipeline;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import lombok.Getter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ForkJoinPool a stage is run in. Parallel streams started from a task of a pool run in that pool, so everything
+ * the stage does in parallel is limited to the parallelism of the executor instead of sharing the common pool.
+ *
+ * The executor keeps track of the cpu time of its threads so the utilization of the pool can be reported, that is
+ * the cpu time used compared to what the threads could have used during the time the executor has existed.
+ */
+public class StageExecutor implements AutoCloseable {
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    @Getter
+    private final ForkJoinPool pool;
+    private final long startTime = System.nanoTime();
+    private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+    // Cpu time of the threads which have already terminated
+    private final AtomicLong terminatedCpuTime = new AtomicLong();
+    private final AtomicInteger threadsCreated = new AtomicInteger();
+
+    public StageExecutor(String name, int parallelism) {
+        pool = new ForkJoinPool(parallelism, forkJoinPool -> new Worker(forkJoinPool, name + "-" + threadsCreated.incrementAndGet()), null, false);
+    }
+
+    /**
+     * Will run the task in the pool and wait for it to complete
+     */
+    public <T> T submit(Callable<T> task) throws Exception {
+        try {
+            return pool.submit(task).get();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Will return the used share of the cpu time the threads of the pool could have used or -1 if
+     * the cpu time of threads can not be measured
+     */
+    public double getUtilization() {
+        if(!threadMXBean.isThreadCpuTimeSupported() || !threadMXBean.isThreadCpuTimeEnabled()) {
+            return -1;
+        }
+        long cpuTime = terminatedCpuTime.get();
+        for(Worker worker : workers) {
+            cpuTime += Math.max(0, threadMXBean.getThreadCpuTime(worker.getId()));
+        }
+        long available = (System.nanoTime() - startTime) * pool.getParallelism();
+        return available > 0 ? (double) cpuTime / available : 0;
+    }
+
+    /**
+     * Will return a description of the pool and its utilization for the stage log
+     */
+    public String describeUtilization() {
+        double utilization = getUtilization();
+        return String.format("Pool parallelism %d, threads created %d, steals %,d, utilization %s",
+                pool.getParallelism(), threadsCreated.get(), pool.getStealCount(),
+                utilization < 0 ? "not available" : String.format("%.0f%%", utilization * 100));
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private class Worker extends ForkJoinWorkerThread {
+
+        private Worker(ForkJoinPool pool, String name) {
+            super(pool);
+            setName(name);
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            workers.add(this);
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            if(threadMXBean.isCurrentThreadCpuTimeSupported()) {
+                terminatedCpuTime.addAndGet(Math.max(0, threadMXBean.getCurrentThreadCpuTime()));
+            }
+            workers.remove(this);
+            super.onTermination(exception);
+        }
+    }
+}
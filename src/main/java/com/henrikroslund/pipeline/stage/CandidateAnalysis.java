@@ -53,16 +53,17 @@ public class CandidateAnalysis extends Stage {
     @Override
     protected Genome execute(Genome inputGenome) throws Exception {
         boolean logEvaluationMatchBefore = EvaluatorConfig.logEvaluationMatch;
-        List<File> otherGenomes = Utils.getFilesInFolder(inputFolder, Utils.FASTA_FILE_ENDING);
+        List<File> otherGenomes = Utils.getFastaFilesInFolder(inputFolder);
         int fileNumber = 0;
         for(File file : otherGenomes) {
             Date startTime = new Date();
 
-            Genome genome = new Genome(file, Collections.singletonList(genomeEvaluator), skipDuplicates, false);
+            Genome genome = loadInputGenome(file, Collections.singletonList(genomeEvaluator), skipDuplicates, false);
             EvaluatorConfig.logEvaluationMatch = true;
-            inputGenome.getSequences().parallelStream().forEach(sequence -> {
+            Genome.ScanStrategy strategy = genome.getScanStrategy(inputGenome.getTotalSequences());
+            strategy.stream(inputGenome.getSequences()).forEach(sequence -> {
                 SequenceEvaluator newEvaluator = evaluator.getNewEvaluator(sequence);
-                genome.getSequencesMatchingAnyEvaluator(newEvaluator);
+                genome.getSequencesMatchingAnyEvaluator(newEvaluator, strategy);
             });
             EvaluatorConfig.logEvaluationMatch = false;
 
@@ -28,14 +28,15 @@ package com.henrikroslund.pipeline.stage;
 
 import com.henrikroslund.Genome;
 import com.henrikroslund.Utils;
-import com.henrikroslund.evaluators.IdenticalEvaluator;
 import com.henrikroslund.formats.CandidateFeatureResultCsv;
 import com.henrikroslund.genomeFeature.Feature;
 import com.henrikroslund.genomeFeature.GenomeFeature;
+import com.henrikroslund.index.CandidateIndex;
 import com.henrikroslund.sequence.Sequence;
 import lombok.extern.java.Log;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -93,9 +94,12 @@ public class CandidateFeature extends Stage {
         String resultFile = outputFolder+"/"+mainGenomeWithDuplicates.getFilename()+".csv";
         throwIfFileExists(resultFile);
 
-        for(Sequence candidate : candidates.getSequences()) {
-            List<Sequence> matches = mainGenomeWithDuplicates.getSequencesMatchingAnyEvaluator(
-                    Collections.singletonList(new IdenticalEvaluator(candidate)));
+        CandidateIndex candidateIndex = new CandidateIndex(candidates.getSequences());
+        List<List<Sequence>> candidateMatches = findInGenome(candidateIndex, mainGenomeWithDuplicates);
+
+        for(int i = 0; i < candidateIndex.size(); i++) {
+            Sequence candidate = candidateIndex.get(i);
+            List<Sequence> matches = candidateMatches.get(i);
             boolean foundInReferenceGenome = !matches.isEmpty();
             if(matches.size()  > 1) {
                 log.info("Multiple matches found:" + matches.size() + " " + candidate.toString());
@@ -122,6 +126,23 @@ public class CandidateFeature extends Stage {
         candidateFeatureResultCsv.writeToFile(resultFile);
     }
 
+    /**
+     * Will return the sequences of the genome identical to each candidate, in the order of the genome, found in
+     * one pass over the genome instead of one scan of the genome per candidate
+     */
+    private List<List<Sequence>> findInGenome(CandidateIndex candidateIndex, Genome genome) {
+        List<List<Sequence>> candidateMatches = new ArrayList<>(candidateIndex.size());
+        for(int i = 0; i < candidateIndex.size(); i++) {
+            candidateMatches.add(new ArrayList<>());
+        }
+        for(Sequence sequence : genome.getSequences()) {
+            for(int candidate : candidateIndex.getIdentical(sequence.getEncoded())) {
+                candidateMatches.get(candidate).add(sequence);
+            }
+        }
+        return candidateMatches;
+    }
+
     @Override
     public String toString() {
         return getName() + " " + getStageFolder();
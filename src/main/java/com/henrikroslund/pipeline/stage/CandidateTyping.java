@@ -28,18 +28,24 @@ package com.henrikroslund.pipeline.stage;
 
 import com.henrikroslund.Genome;
 import com.henrikroslund.Utils;
+import com.henrikroslund.evaluators.EvaluationPlan;
 import com.henrikroslund.evaluators.SequenceEvaluator;
+import com.henrikroslund.evaluators.comparisons.BoundedMismatchEvaluator;
 import com.henrikroslund.evaluators.comparisons.MatchEvaluator;
 import com.henrikroslund.evaluators.comparisons.TypeEvaluator;
+import com.henrikroslund.index.CandidateIndex;
+import com.henrikroslund.index.MismatchIndex;
 import com.henrikroslund.sequence.Sequence;
 import lombok.extern.java.Log;
 import org.apache.commons.lang3.Range;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * This stage will analyze the input genome sequences with the genomes in the input folder
@@ -47,16 +53,15 @@ import java.util.concurrent.atomic.AtomicInteger;
  * The input folder sequences can be reduced by providing a set of Evaluators for the sample set,
  * this can greatly increase performance of the analysis.
  * The typing results are stored in each sequence in the input genome during the process.
- * Since the process can take a very long time, intermediate results will be saved to file
- * along with a list of already processed genomes from the input folder. In this way that
- * could be used to resume the pipeline at a later time if needed.
+ * Since the process can take a very long time, the remaining candidates and the genomes already processed
+ * from the input folder are saved to the Checkpoint of the stage after each genome, so the pipeline
+ * resumes from the last processed genome if it is run again.
  */
 
 @Log
 public class CandidateTyping extends Stage {
 
     private static final String PROCESSED_GENOMES_FILE = "genomesProcessed";
-    private final boolean ENABLED_ALREADY_PROCESSED_FILE = false;
 
     private final SequenceEvaluator bindCriteria;
     private final List<SequenceEvaluator> sampleSetCriteria;
@@ -84,85 +89,132 @@ public class CandidateTyping extends Stage {
 
     @Override
     protected Genome execute(Genome inputGenome) throws Exception {
-        Collection<String> alreadyProcessed = getAlreadyProcessedGenomes(inputFolder);
+        inputGenome = resumeFromCheckpoint(inputGenome);
 
         int fileNumber = 0;
-        List<File> otherGenomes = Utils.getFilesInFolder(inputFolder, Utils.FASTA_FILE_ENDING);
+        List<File> otherGenomes = Utils.getFastaFilesInFolder(inputFolder);
         log.info("Will process genomes in following order:");
         for(File file : otherGenomes) {
             log.info(file.getName());
         }
 
-        for(File file : otherGenomes) {
-            fileNumber++;
-            BufferedWriter processedGenomeWriter = new BufferedWriter(new FileWriter(outputFolder + "/" + PROCESSED_GENOMES_FILE, true));
-            if(alreadyProcessed.contains(file.getName())) {
-                log.info("Already processed file so skipping: " + file.getName());
-                processedGenomeWriter.write(file.getName());
-                processedGenomeWriter.newLine();
+        List<File> genomesToProcess = otherGenomes.stream()
+                .filter(file -> !isProcessedInCheckpoint(file)).collect(Collectors.toList());
+        // Streamed genomes are never loaded so there is nothing to prefetch
+        try(GenomePrefetcher genomes = canStreamInputGenomes() ? null : prefetchInputGenomes(genomesToProcess, sampleSetCriteria, true, false)) {
+            for(File file : otherGenomes) {
+                fileNumber++;
+                BufferedWriter processedGenomeWriter = new BufferedWriter(new FileWriter(outputFolder + "/" + PROCESSED_GENOMES_FILE, true));
+                if(isProcessedInCheckpoint(file)) {
+                    log.info("Already processed file so skipping: " + file.getName());
+                    processedGenomeWriter.write(file.getName());
+                    processedGenomeWriter.newLine();
+                    processedGenomeWriter.close();
+                    continue;
+                }
+                Date startTime = new Date();
+                Collection<Sequence> discards;
+                if(genomes == null) {
+                    discards = typeWithStreamedGenome(file, inputGenome);
+                } else {
+                    discards = typeWithGenome(genomes.get(file), inputGenome);
+                }
+
+                inputGenome.removeAll(discards);
+                log.info("Candidate size: " + inputGenome.getTotalSequences());
+                log.info("Finished processing file " + fileNumber + "/" + otherGenomes.size() + " in " + (new Date().getTime() - startTime.getTime()) / 1000 + " seconds");
+                processedGenomeWriter.write(file.getName()+"\n");
                 processedGenomeWriter.close();
-                continue;
+                inputGenome.writeSequences(outputFolder, "candidates_files_processed_"+fileNumber);
+                checkpointProcessedFile(file, inputGenome);
+                if (inputGenome.getSequences().isEmpty()) {
+                    break;
+                }
             }
-            Date startTime = new Date();
-            Genome genome = new Genome(file, sampleSetCriteria, true, false);
-            AtomicInteger counter = new AtomicInteger(0);
+        }
+        log.info("Candidate size: " + inputGenome.getTotalSequences());
+        return inputGenome;
+    }
 
-            Collection<Sequence> discards = Collections.synchronizedSet(new TreeSet<>());
-            inputGenome.getSequences().parallelStream().forEach(mainGenomeSequence -> {
+    private boolean canStreamInputGenomes() {
+        return isStreamInputGenomes() && !saveSurroundingSequencesForMatches
+                && bindCriteria instanceof BoundedMismatchEvaluator && MismatchIndex.canIndex((BoundedMismatchEvaluator) bindCriteria);
+    }
 
-                Collection<Sequence> allMatchesInOtherGenomes =
-                        genome.getSequencesMatchingAnyEvaluator(bindCriteria.getNewEvaluator(mainGenomeSequence));
+    private Collection<Sequence> typeWithGenome(Genome genome, Genome inputGenome) {
+        AtomicInteger counter = new AtomicInteger(0);
 
-                if(allMatchesInOtherGenomes.isEmpty()) {
-                    log.info("There were no matches for sequence " + mainGenomeSequence.toString() + " in genome " + genome.getFilename());
-                    mainGenomeSequence.increaseMetaDataCounters(Collections.singletonList(TypeEvaluator.Type.TYPE_4));
-                }
+        Collection<Sequence> discards = new ConcurrentSkipListSet<>();
+        Genome.ScanStrategy strategy = genome.getScanStrategy(inputGenome.getTotalSequences());
+        strategy.stream(inputGenome.getSequences()).forEach(mainGenomeSequence -> {
 
-                allMatchesInOtherGenomes.forEach(sequence -> {
-                    TypeEvaluator evaluator = (TypeEvaluator) typeEvaluator.getNewEvaluator(mainGenomeSequence);
-                    evaluator.evaluate(sequence);
-                    mainGenomeSequence.increaseMetaDataCounters(evaluator.getMatchTypes());
-                    if(evaluator.getMatchTypes().contains(TypeEvaluator.Type.TYPE_DISCARD)) {
-                        discards.add(mainGenomeSequence);
-                    }
-                    log.info("allMatches: " + allMatchesInOtherGenomes.size() + " " + mainGenomeSequence + " " + evaluator + " discardCount: " + discards.size());
-                    if(saveSurroundingSequencesForMatches) {
-                        genome.saveSurroundingSequences(sequence, outputFolder, mainGenomeSequence.getGenome() + "_" + genome.getFilename() + "_" +  sequence.getRaw() + Utils.FASTA_FILE_ENDING);
-                    }
-                });
-
-                counter.incrementAndGet();
-                if (counter.get() % 10 == 0) {
-                    log.info(" Counter: " + counter + "/" + inputGenome.getSequences().size());
+            Collection<Sequence> allMatchesInOtherGenomes =
+                    genome.getSequencesMatchingAnyEvaluator(bindCriteria.getNewEvaluator(mainGenomeSequence), strategy);
+
+            if(allMatchesInOtherGenomes.isEmpty()) {
+                log.info("There were no matches for sequence " + mainGenomeSequence.toString() + " in genome " + genome.getFilename());
+                mainGenomeSequence.increaseMetaDataCounters(Collections.singletonList(TypeEvaluator.Type.TYPE_4));
+            }
+
+            allMatchesInOtherGenomes.forEach(sequence -> {
+                TypeEvaluator evaluator = (TypeEvaluator) typeEvaluator.getNewEvaluator(mainGenomeSequence);
+                evaluator.evaluate(sequence);
+                mainGenomeSequence.increaseMetaDataCounters(evaluator.getMatchTypes());
+                if(evaluator.getMatchTypes().contains(TypeEvaluator.Type.TYPE_DISCARD)) {
+                    discards.add(mainGenomeSequence);
+                }
+                log.info("allMatches: " + allMatchesInOtherGenomes.size() + " " + mainGenomeSequence + " " + evaluator + " discardCount: " + discards.size());
+                if(saveSurroundingSequencesForMatches) {
+                    genome.saveSurroundingSequences(sequence, outputFolder, mainGenomeSequence.getGenome() + "_" + genome.getFilename() + "_" +  sequence.getRaw() + Utils.FASTA_FILE_ENDING);
                 }
             });
 
-            inputGenome.removeAll(discards);
-            log.info("Candidate size: " + inputGenome.getTotalSequences());
-            log.info("Finished processing file " + fileNumber + "/" + otherGenomes.size() + " in " + (new Date().getTime() - startTime.getTime()) / 1000 + " seconds");
-            processedGenomeWriter.write(file.getName()+"\n");
-            processedGenomeWriter.close();
-            inputGenome.writeSequences(outputFolder, "candidates_files_processed_"+fileNumber);
-            if (inputGenome.getSequences().isEmpty()) {
-                break;
+            counter.incrementAndGet();
+            if (counter.get() % 10 == 0) {
+                log.info(" Counter: " + counter + "/" + inputGenome.getSequences().size());
             }
-        }
-        log.info("Candidate size: " + inputGenome.getTotalSequences());
-        return inputGenome;
+        });
+        return discards;
     }
 
-    private static Collection<String> getAlreadyProcessedGenomes(String inputFolder) throws Exception {
-        Collection<String> files = new TreeSet<>();
-        File file = new File(inputFolder+PROCESSED_GENOMES_FILE);
-        if(!file.exists()) {
-            log.info("File with already processed genomes does not exist. No input files will be skipped");
-            return files;
+    /**
+     * Same as typeWithGenome but each sequence in the genome is looked up among the indexed candidates.
+     * A sequence occurring several times in the genome is only typed once per candidate since the genome
+     * is loaded without duplicates in typeWithGenome.
+     */
+    private Collection<Sequence> typeWithStreamedGenome(File file, Genome inputGenome) throws Exception {
+        Collection<Sequence> discards = new ConcurrentSkipListSet<>();
+        CandidateIndex candidateIndex = new CandidateIndex(inputGenome.getSequences());
+        BoundedMismatchEvaluator boundedBindCriteria = (BoundedMismatchEvaluator) bindCriteria;
+        Set<Pair<Integer, Long>> typedMatches = ConcurrentHashMap.newKeySet();
+        EvaluationPlan bindPlan = new EvaluationPlan(Collections.singletonList(bindCriteria));
+        Genome.forEachSequence(file, sampleSetCriteria, false, sequence -> {
+            for(int candidate : candidateIndex.getWithinMismatches(sequence.getEncoded(),
+                    boundedBindCriteria.getPositionMask(), boundedBindCriteria.getMaxMismatches())) {
+                Sequence mainGenomeSequence = candidateIndex.get(candidate);
+                if(!bindPlan.matchAll(mainGenomeSequence.getEncoded(), sequence.getEncoded())
+                        || !typedMatches.add(Pair.of(candidate, sequence.getEncoded()))) {
+                    continue;
+                }
+                bindPlan.logMatch(mainGenomeSequence, sequence);
+                TypeEvaluator evaluator = (TypeEvaluator) typeEvaluator.getNewEvaluator(mainGenomeSequence);
+                evaluator.evaluate(sequence);
+                mainGenomeSequence.increaseMetaDataCounters(evaluator.getMatchTypes());
+                if(evaluator.getMatchTypes().contains(TypeEvaluator.Type.TYPE_DISCARD)) {
+                    discards.add(mainGenomeSequence);
+                }
+                log.info("match: " + mainGenomeSequence + " " + evaluator + " discardCount: " + discards.size());
+            }
+        });
+
+        BitSet matchedCandidates = new BitSet(candidateIndex.size());
+        typedMatches.forEach(match -> matchedCandidates.set(match.getLeft()));
+        for(int candidate = matchedCandidates.nextClearBit(0); candidate < candidateIndex.size(); candidate = matchedCandidates.nextClearBit(candidate + 1)) {
+            Sequence mainGenomeSequence = candidateIndex.get(candidate);
+            log.info("There were no matches for sequence " + mainGenomeSequence.toString() + " in genome " + file.getName());
+            mainGenomeSequence.increaseMetaDataCounters(Collections.singletonList(TypeEvaluator.Type.TYPE_4));
         }
-        Path filePath = Path.of(file.getAbsolutePath());
-        BufferedReader reader = Files.newBufferedReader(filePath);
-        reader.lines().forEach(files::add);
-        log.info("Previously processed file count: " + files.size());
-        return files;
+        return discards;
     }
 
     @Override
@@ -170,6 +222,7 @@ public class CandidateTyping extends Stage {
         StringBuilder description = new StringBuilder();
         description.append(getName());
         description.append(" ").append(getStageFolder());
+        description.append(" streamInputGenomes=").append(isStreamInputGenomes());
         description.append(" sampleSetCriteria=");
         sampleSetCriteria.forEach(evaluator -> description.append(evaluator.describe()));
         description.append(" bindCriteria=").append(bindCriteria.describe());
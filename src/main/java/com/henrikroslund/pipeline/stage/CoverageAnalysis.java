@@ -29,19 +29,21 @@ package com.henrikroslund.pipeline.stage;
 import com.henrikroslund.Genome;
 import com.henrikroslund.Utils;
 import com.henrikroslund.evaluators.CrisprPamEvaluator;
-import com.henrikroslund.evaluators.comparisons.MismatchEvaluator;
+import com.henrikroslund.index.CandidateIndex;
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
 import com.opencsv.CSVWriter;
+import lombok.Setter;
 import lombok.extern.java.Log;
-import org.apache.commons.lang3.Range;
-import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.henrikroslund.Utils.*;
 
@@ -54,132 +56,177 @@ import static com.henrikroslund.Utils.*;
 @Log
 public class CoverageAnalysis extends Stage {
 
+    // Sequences with at most one mismatch in these positions are considered found
+    private static final long SEED_TO_N20_MASK = SequenceEncoding.rangeMask(Sequence.SEED_INDEX_START, Sequence.N20_INDEX);
+
+    private static final int DEFAULT_MAX_SEQUENCE_PAIRS = 1000;
+
+    // Only the pairs of sequences with the highest combined coverage are written to the results
+    @Setter
+    private int maxSequencePairs = DEFAULT_MAX_SEQUENCE_PAIRS;
+
+    // When above 0 the smallest panels of at most this many sequences covering panelCoverageTarget percent of the
+    // genomes are searched for and written to panels.csv. Panels up to maxExactPanelSize sequences are searched
+    // exactly and larger ones greedily.
+    @Setter
+    private int maxPanelSize = 0;
+    @Setter
+    private double panelCoverageTarget = 100.0;
+    @Setter
+    private int maxExactPanelSize = 0;
+
     public CoverageAnalysis() {
         super(CoverageAnalysis.class);
     }
 
-    protected static Map<Sequence, TreeSet<String>> initiateCoverageMap(Genome genome) {
-        Map<Sequence, TreeSet<String>> coverageMap = Collections.synchronizedMap(new TreeMap<>());
-        for(Sequence sequence : genome.getSequences()) {
-            coverageMap.put(sequence, new TreeSet<>());
-        }
-        return coverageMap;
-    }
-
     @Override
     protected Genome execute(Genome inputGenome) throws Exception {
-        // After the analysis this map will contain all the filenames each sequence was found in.
-        Map<Sequence, TreeSet<String>> coverageMap = initiateCoverageMap(inputGenome);
-
-        List<File> genomeFiles = Utils.getFilesInFolder(inputFolder, FASTA_FILE_ENDING);
+        List<File> genomeFiles = Utils.getFastaFilesInFolder(inputFolder);
+        // After the analysis this will contain all the genome files each sequence was found in.
+        SequenceCoverage coverage = new SequenceCoverage(inputGenome.getSequences(),
+                genomeFiles.stream().map(File::getName).collect(Collectors.toList()));
         int remainingFiles = genomeFiles.size();
-        for(File file : genomeFiles) {
-            if(isChromosomeFile(file.getAbsolutePath()) && !isPrimaryChromosomeFile(file.getAbsolutePath())) {
-                log.info("Will skip file because it is not primary chromosome " + file.getName());
-                continue;
-            }
-            Date startTime = new Date();
-
-            // We create only strict crispr sequences
-            Genome genome = new Genome(file, Collections.singletonList(new CrisprPamEvaluator(true)), true, true);
+        // The same candidates are looked up for every streamed genome so they are only indexed once
+        CandidateIndex candidateIndex = isStreamInputGenomes() ? new CandidateIndex(coverage.getSequences()) : null;
+        List<File> primaryGenomeFiles = genomeFiles.stream().filter(file -> !isSecondaryChromosomeFile(file)).collect(Collectors.toList());
+        // Streamed genomes are never loaded so there is nothing to prefetch
+        try(GenomePrefetcher genomes = isStreamInputGenomes() ? null
+                : prefetchInputGenomes(primaryGenomeFiles, Collections.singletonList(new CrisprPamEvaluator(true)), true, true)) {
+            for(File file : genomeFiles) {
+                if(isSecondaryChromosomeFile(file)) {
+                    log.info("Will skip file because it is not primary chromosome " + file.getName());
+                    continue;
+                }
+                Date startTime = new Date();
 
-            AtomicInteger counter = new AtomicInteger(0);
-            inputGenome.getSequences().parallelStream().forEach(sequence -> {
-                if(genome.exists(sequence)) {
-                    coverageMap.get(sequence).add(file.getName());
+                if(genomes == null) {
+                    addCoverageFromStreamedGenome(file, candidateIndex, coverage);
                 } else {
-                    Sequence match = genome.getSequenceMatchingAllEvaluators(Collections.singletonList(
-                            new MismatchEvaluator(sequence, Range.between(0, 1),
-                                    Range.between(Sequence.SEED_INDEX_START, Sequence.N20_INDEX))));
-                    if(match != null) {
-                        log.info("Found approximate match for sequence " + sequence + " with sequence " + match);
-                        coverageMap.get(sequence).add(file.getName());
-                    }
-                }
-                counter.incrementAndGet();
-                if (counter.get() % 1000 == 0) {
-                    log.info(" Counter: " + counter + "/" + inputGenome.getSequences().size());
+                    addCoverageFromGenome(file, genomes.get(file), coverage);
                 }
-            });
-            printProcessingTime(startTime);
-            log.info("Files remaining: " + --remainingFiles + " / " + genomeFiles.size());
+                printProcessingTime(startTime);
+                log.info("Files remaining: " + --remainingFiles + " / " + genomeFiles.size());
+            }
         }
 
-        writeResults(genomeFiles, coverageMap);
+        writeResults(coverage);
+        if(maxPanelSize > 0) {
+            writePanels(coverage);
+        }
 
         return inputGenome;
     }
 
-    private void writeResults(List<File> genomeFiles, Map<Sequence, TreeSet<String>> coverageMap) throws IOException {
+    private static boolean isSecondaryChromosomeFile(File file) {
+        return isChromosomeFile(file.getAbsolutePath()) && !isPrimaryChromosomeFile(file.getAbsolutePath());
+    }
+
+    /**
+     * The genome should only contain the strict crispr sequences of the file
+     */
+    private void addCoverageFromGenome(File file, Genome genome, SequenceCoverage coverage) {
+        int genomeId = coverage.getGenomeId(file.getName());
+        List<Sequence> sequences = coverage.getSequences();
+        AtomicInteger counter = new AtomicInteger(0);
+        IntStream.range(0, sequences.size()).parallel().forEach(index -> {
+            Sequence sequence = sequences.get(index);
+            if(genome.exists(sequence)) {
+                coverage.add(index, genomeId);
+            } else {
+                List<Sequence> matches = genome.getSequencesWithinMismatches(sequence, SEED_TO_N20_MASK, 1);
+                if(!matches.isEmpty()) {
+                    log.info("Found approximate match for sequence " + sequence + " with sequence " + matches.get(0));
+                    coverage.add(index, genomeId);
+                }
+            }
+            counter.incrementAndGet();
+            if (counter.get() % 1000 == 0) {
+                log.info(" Counter: " + counter + "/" + sequences.size());
+            }
+        });
+    }
+
+    /**
+     * Same as addCoverageFromGenome but each sequence in the genome is looked up among the indexed candidates
+     */
+    private void addCoverageFromStreamedGenome(File file, CandidateIndex candidateIndex, SequenceCoverage coverage) throws Exception {
+        int genomeId = coverage.getGenomeId(file.getName());
+        Set<Integer> found = ConcurrentHashMap.newKeySet();
+        // We stream only strict crispr sequences
+        Genome.forEachSequence(file, Collections.singletonList(new CrisprPamEvaluator(true)), true, sequence -> {
+            for(int candidate : candidateIndex.getWithinMismatches(sequence.getEncoded(), SEED_TO_N20_MASK, 1)) {
+                Sequence candidateSequence = candidateIndex.get(candidate);
+                if(found.add(candidate) && candidateSequence.getEncoded() != sequence.getEncoded()) {
+                    log.info("Found approximate match for sequence " + candidateSequence + " with sequence " + sequence);
+                }
+            }
+        });
+        found.forEach(candidate -> coverage.add(candidate, genomeId));
+    }
+
+    private void writeResults(SequenceCoverage coverage) throws IOException {
         CSVWriter csvWriter = new CSVWriter(new FileWriter(outputFolder + "/" + "result.csv"));
         csvWriter.writeNext(new String[]{"Name", "Sequence", "Strand", "Coverage %", "Coverage #", "Found in", "Not Found in"});
 
-        int totalGenomes = genomeFiles.size();
-        List<String> genomeFileNames = genomeFiles.stream().map(File::getName).collect(Collectors.toList());
         // Write single sequence results
-        coverageMap.forEach((sequence, genomeMatches) -> {
-            List<String> row = new ArrayList<>();
-            row.add(sequence.getGenome());
-            row.add(sequence.getRaw());
-            row.add(sequence.getStrandRepresentation());
-            double percent = 100.0 * ((double) genomeMatches.size() / (double) totalGenomes);
-            row.add(String.format("%.2f", percent));
-            row.add(genomeMatches.size() + " / " + totalGenomes);
-            row.add(toCellWithNewline(genomeMatches));
-            row.add(toCellWithNewline(genomeFileNames.stream().distinct().filter(filename -> !genomeMatches.contains(filename)).collect(Collectors.toSet())));
-            csvWriter.writeNext(row.toArray(new String[0]));
-        });
+        for(int index = 0; index < coverage.getSequences().size(); index++) {
+            csvWriter.writeNext(toRow(coverage, coverage.getCoverage(index), index));
+        }
 
         // Write dual sequences results
-        getCoverageMapMultipleSequences(coverageMap).forEach(entry -> {
-            List<String> row = new ArrayList<>();
-            List<Sequence> sequences = entry.getLeft();
-            HashSet<String> genomeMatches = entry.getRight();
-            row.add(toCellWithNewline(sequences.stream().map(Sequence::getGenome).collect(Collectors.toList())));
-            row.add(toCellWithNewline(sequences.stream().map(Sequence::getRaw).collect(Collectors.toList())));
-            row.add(toCellWithNewline(sequences.stream().map(Sequence::getStrandRepresentation).collect(Collectors.toList())));
-            double percent = 100.0 * ((double) genomeMatches.size() / (double) totalGenomes);
-            row.add(String.format("%.2f", percent));
-            row.add(genomeMatches.size() + " / " + totalGenomes);
-            row.add(toCellWithNewline(genomeMatches));
-            row.add(toCellWithNewline(genomeFileNames.stream().distinct().filter(filename -> !genomeMatches.contains(filename)).collect(Collectors.toSet())));
-            csvWriter.writeNext(row.toArray(new String[0]));
-        });
+        for(SequenceCoverage.SequencePair pair : coverage.getTopPairs(maxSequencePairs)) {
+            csvWriter.writeNext(toRow(coverage, pair.getCoverage(), pair.getFirst(), pair.getSecond()));
+        }
         csvWriter.close();
     }
 
-    protected static TreeSet<Pair<List<Sequence>, HashSet<String>>> getCoverageMapMultipleSequences(Map<Sequence, TreeSet<String>> coverage) {
-        TreeSet<Pair<List<Sequence>, HashSet<String>>> result = new TreeSet<>((o1, o2) -> {
-            if(o1.getLeft().size() > o2.getLeft().size()) {
-                return 1;
-            } else if(o1.getLeft().size() < o2.getLeft().size()) {
-                return -1;
+    /**
+     * Will write a panel of each size from 1 until a panel reaches the coverage target, no more genomes can be
+     * covered or the maximum panel size is reached
+     */
+    private void writePanels(SequenceCoverage coverage) throws IOException {
+        int targetCoverage = (int) Math.ceil(panelCoverageTarget / 100.0 * coverage.getTotalGenomes());
+        List<SequenceCoverage.Panel> greedyPanels = coverage.getGreedyPanels(maxPanelSize, targetCoverage);
+
+        CSVWriter csvWriter = new CSVWriter(new FileWriter(outputFolder + "/" + "panels.csv"));
+        csvWriter.writeNext(new String[]{"Panel size", "Name", "Sequence", "Strand", "Coverage %", "Coverage #", "Found in", "Not Found in"});
+        for(int size = 1; size <= greedyPanels.size(); size++) {
+            SequenceCoverage.Panel panel = greedyPanels.get(size - 1);
+            if(size <= maxExactPanelSize) {
+                panel = coverage.getBestPanel(size, panel);
             }
-            for(int i=0; i<o1.getLeft().size(); i++) {
-                int compareTo = o1.getLeft().get(i).compareTo(o2.getLeft().get(i));
-                if(compareTo != 0) {
-                    return compareTo;
-                }
+            log.info("Panel of " + panel.size() + " sequences covers " + panel.getCoverage() + " / " + coverage.getTotalGenomes() + " genomes");
+            List<String> row = new ArrayList<>();
+            row.add(String.valueOf(panel.size()));
+            row.addAll(Arrays.asList(toRow(coverage, panel.getCoverage(), panel.getSequences())));
+            csvWriter.writeNext(row.toArray(new String[0]));
+            if(panel.getCoverage() >= targetCoverage) {
+                break;
             }
-            return 0;
-        });
-        coverage.forEach((sequence, genomeMatches) -> {
-            coverage.forEach((sequence2, genomeMatches2) -> {
-                if(sequence == sequence2) {
-                    return;
-                }
-                List<Sequence> sequences = new ArrayList<>();
-                sequences.add(sequence);
-                sequences.add(sequence2);
-                // We sort to avoid entries like {X,Y} and {Y,X}
-                Collections.sort(sequences);
-                HashSet<String> combinedGenomeMatches = new HashSet<>();
-                combinedGenomeMatches.addAll(genomeMatches);
-                combinedGenomeMatches.addAll(genomeMatches2);
-                result.add(Pair.of(sequences, combinedGenomeMatches));
-            });
-        });
-        return result;
+        }
+        csvWriter.close();
+    }
+
+    private String[] toRow(SequenceCoverage coverage, int genomeMatches, int... indexes) {
+        List<Sequence> sequences = Arrays.stream(indexes).mapToObj(coverage.getSequences()::get).collect(Collectors.toList());
+        int totalGenomes = coverage.getTotalGenomes();
+        List<String> row = new ArrayList<>();
+        row.add(toCellWithNewline(sequences.stream().map(Sequence::getGenome).collect(Collectors.toList()), indexes.length));
+        row.add(toCellWithNewline(sequences.stream().map(Sequence::getRaw).collect(Collectors.toList()), indexes.length));
+        row.add(toCellWithNewline(sequences.stream().map(Sequence::getStrandRepresentation).collect(Collectors.toList()), indexes.length));
+        double percent = 100.0 * ((double) genomeMatches / (double) totalGenomes);
+        row.add(String.format("%.2f", percent));
+        row.add(genomeMatches + " / " + totalGenomes);
+        row.add(toCellWithNewline(coverage.getGenomes(true, indexes)));
+        row.add(toCellWithNewline(coverage.getGenomes(false, indexes)));
+        return row.toArray(new String[0]);
+    }
+
+    /**
+     * A single sequence is written as the value while multiple sequences are written one per line
+     */
+    private String toCellWithNewline(List<String> strings, int sequences) {
+        return sequences == 1 ? strings.get(0) : toCellWithNewline(strings);
     }
 
     private String toCellWithNewline(Collection<String> strings) {
@@ -192,7 +239,9 @@ public class CoverageAnalysis extends Stage {
 
     @Override
     public String toString() {
-        return getName() + " " + getStageFolder();
+        return getName() + " " + getStageFolder() + " streamInputGenomes=" + isStreamInputGenomes()
+                + " maxSequencePairs=" + maxSequencePairs + " maxPanelSize=" + maxPanelSize
+                + " panelCoverageTarget=" + panelCoverageTarget + " maxExactPanelSize=" + maxExactPanelSize;
     }
 
     @Override
@@ -38,6 +38,7 @@ import org.apache.commons.lang3.Range;
 
 import java.io.File;
 import java.util.*;
+import java.util.stream.Collectors;
 
 @Log
 public class CrisprCommon extends Stage {
@@ -65,13 +66,13 @@ public class CrisprCommon extends Stage {
         return "/strains";
     }
 
-    private boolean exists(Genome genome, Sequence sequence) {
+    private boolean exists(Genome genome, Sequence sequence, Genome.ScanStrategy strategy) {
         if(genome.exists(sequence)) {
             return true;
         } else if(n7n20AllowedMismatches > 0) {
             List<SequenceEvaluator> sequenceEvaluators = new ArrayList<>();
             evaluators.forEach(evaluator -> sequenceEvaluators.add(evaluator.getNewEvaluator(sequence)));
-            Sequence matchingSequence = genome.getSequenceMatchingAllEvaluators(sequenceEvaluators);
+            Sequence matchingSequence = genome.getSequenceMatchingAllEvaluators(sequenceEvaluators, strategy);
             if(matchingSequence != null) {
                 log.info("Found match for sequence " + sequence + " with " + matchingSequence);
                 return true;
@@ -82,36 +83,51 @@ public class CrisprCommon extends Stage {
 
     @Override
     protected Genome execute(Genome inputGenome) throws Exception {
-        List<File> genomeFiles = Utils.getFilesInFolder(inputFolder, Utils.FASTA_FILE_ENDING);
-        for(File file : genomeFiles) {
-            Collection<Sequence> notFound =  Collections.synchronizedSet(new TreeSet<>());
-            Date startTime = new Date();
-
-            if(Utils.isChromosomeFile(file.getName()) && !Utils.isPrimaryChromosomeFile(file.getName())) {
-                log.info("Will skip file because it is not the primary chromosome file: " + file.getName());
-                continue;
-            }
-
-            Genome genome = new Genome(file, Collections.singletonList(new CrisprPamEvaluator(true)), true, includeAllChromosomes);
-            inputGenome.getSequences().parallelStream().forEach(sequence -> {
-                if(!exists(genome, sequence)) {
-                    notFound.add(sequence);
+        List<File> genomeFiles = Utils.getFastaFilesInFolder(inputFolder);
+        inputGenome = resumeFromCheckpoint(inputGenome);
+        List<File> primaryGenomeFiles = genomeFiles.stream()
+                .filter(file -> !isSecondaryChromosomeFile(file) && !isProcessedInCheckpoint(file)).collect(Collectors.toList());
+        try(GenomePrefetcher genomes = prefetchInputGenomes(primaryGenomeFiles, Collections.singletonList(new CrisprPamEvaluator(true)), true, includeAllChromosomes)) {
+            for(File file : genomeFiles) {
+                Collection<Sequence> notFound =  Collections.synchronizedSet(new TreeSet<>());
+                Date startTime = new Date();
+
+                if(isSecondaryChromosomeFile(file)) {
+                    log.info("Will skip file because it is not the primary chromosome file: " + file.getName());
+                    continue;
+                }
+                if(isProcessedInCheckpoint(file)) {
+                    log.info("Already processed file so skipping: " + file.getName());
+                    continue;
                 }
-            });
-
-            printProcessingTime(startTime);
-            writeDiscarded(notFound, " removed because it was NOT found in " + file.getName());
-            inputGenome.removeAll(notFound);
 
-            log.info("Candidate size " + inputGenome.getTotalSequences() + " after removing " + notFound.size() + " sequences not found in file " + file.getName() );
-            if(inputGenome.getTotalSequences() == 0) {
-                log.info("No candidates left so will stop");
-                break;
+                Genome genome = genomes.get(file);
+                Genome.ScanStrategy strategy = genome.getScanStrategy(inputGenome.getTotalSequences());
+                strategy.stream(inputGenome.getSequences()).forEach(sequence -> {
+                    if(!exists(genome, sequence, strategy)) {
+                        notFound.add(sequence);
+                    }
+                });
+
+                printProcessingTime(startTime);
+                writeDiscarded(notFound, " removed because it was NOT found in " + file.getName());
+                inputGenome.removeAll(notFound);
+
+                log.info("Candidate size " + inputGenome.getTotalSequences() + " after removing " + notFound.size() + " sequences not found in file " + file.getName() );
+                checkpointProcessedFile(file, inputGenome);
+                if(inputGenome.getTotalSequences() == 0) {
+                    log.info("No candidates left so will stop");
+                    break;
+                }
             }
         }
         return inputGenome;
     }
 
+    private static boolean isSecondaryChromosomeFile(File file) {
+        return Utils.isChromosomeFile(file.getName()) && !Utils.isPrimaryChromosomeFile(file.getName());
+    }
+
     @Override
     public String toString() {
         StringBuilder description = new StringBuilder();
@@ -29,13 +29,20 @@ package com.henrikroslund.pipeline.stage;
 import com.henrikroslund.Genome;
 import com.henrikroslund.Utils;
 import com.henrikroslund.evaluators.CrisprPamEvaluator;
+import com.henrikroslund.evaluators.EvaluationPlan;
 import com.henrikroslund.evaluators.IdenticalEvaluator;
 import com.henrikroslund.evaluators.SequenceEvaluator;
+import com.henrikroslund.evaluators.comparisons.BoundedMismatchEvaluator;
+import com.henrikroslund.index.CandidateIndex;
+import com.henrikroslund.index.MismatchIndex;
 import com.henrikroslund.sequence.Sequence;
+import lombok.Setter;
 import lombok.extern.java.Log;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * This stage is used for eliminating crispr candidates by analysing genomes in the input folder.
@@ -50,6 +57,11 @@ public class CrisprElimination extends Stage {
 
     List<SequenceEvaluator> evaluators = Collections.emptyList();
 
+    // When enabled the genomes in the input folder are combined into one genome which the candidates are compared
+    // with once, instead of comparing all candidates with each genome. Useful with many small genomes.
+    @Setter
+    private boolean combineInputGenomes = false;
+
     public CrisprElimination() {
         super(CrisprElimination.class);
     }
@@ -66,38 +78,144 @@ public class CrisprElimination extends Stage {
 
     @Override
     protected Genome execute(Genome inputGenome) throws Exception {
-        List<File> otherGenomes = Utils.getFilesInFolder(inputFolder, Utils.FASTA_FILE_ENDING);
+        List<File> otherGenomes = Utils.getFastaFilesInFolder(inputFolder);
+        if(combineInputGenomes && !canStreamInputGenomes()) {
+            return eliminateWithCombinedGenomes(otherGenomes, inputGenome);
+        }
+        inputGenome = resumeFromCheckpoint(inputGenome);
         int fileNumber = 0;
-        for(File file : otherGenomes) {
-            Collection<Sequence> found =  Collections.synchronizedSet(new TreeSet<>());
-            Date startTime = new Date();
+        List<File> genomesToProcess = otherGenomes.stream().filter(file -> !isProcessedInCheckpoint(file)).collect(Collectors.toList());
+        // Streamed genomes are never loaded so there is nothing to prefetch
+        try(GenomePrefetcher genomes = canStreamInputGenomes() ? null
+                : prefetchInputGenomes(genomesToProcess, Collections.singletonList(new CrisprPamEvaluator(false)), true, false)) {
+            for(File file : otherGenomes) {
+                if(isProcessedInCheckpoint(file)) {
+                    log.info("Already processed file so skipping: " + file.getName());
+                    fileNumber++;
+                    continue;
+                }
+                Date startTime = new Date();
+                Collection<Sequence> found;
+                if(genomes == null) {
+                    found = findInStreamedGenome(file, inputGenome);
+                } else {
+                    found = findInGenome(genomes.get(file), inputGenome);
+                }
+
+                printProcessingTime(startTime);
+                writeDiscarded(found, " removed because evaluator match in " + file.getName());
+                inputGenome.removeAll(found);
 
-            Genome genome = new Genome(file, Collections.singletonList(new CrisprPamEvaluator(false)), true, false);
-            inputGenome.getSequences().parallelStream().forEach(sequence -> {
-                if(genome.exists(sequence)) {
+                log.info("Candidate size " + inputGenome.getTotalSequences() + " after removing " + found.size() + " sequences found in file " + ++fileNumber + "/" + otherGenomes.size() + " " + file.getName() );
+                checkpointProcessedFile(file, inputGenome);
+                if(inputGenome.getTotalSequences() == 0) {
+                    log.info("No candidates left so will stop");
+                    break;
+                }
+            }
+        }
+        return inputGenome;
+    }
+
+    private boolean canStreamInputGenomes() {
+        return isStreamInputGenomes()
+                && (evaluators.isEmpty() || MismatchIndex.getMostSelective(evaluators, Integer.MAX_VALUE) != null);
+    }
+
+    private Collection<Sequence> findInGenome(Genome genome, Genome inputGenome) {
+        Collection<Sequence> found =  Collections.synchronizedSet(new TreeSet<>());
+        Genome.ScanStrategy strategy = genome.getScanStrategy(inputGenome.getTotalSequences());
+        strategy.stream(inputGenome.getSequences()).forEach(sequence -> {
+            if(genome.exists(sequence)) {
+                found.add(sequence);
+                IdenticalEvaluator evaluator = new IdenticalEvaluator(sequence);
+                Sequence match = genome.getSequenceMatchingAllEvaluators(List.of(evaluator), strategy);
+                log.info("Found exact match for " + sequence + " in " + match);
+            }
+            if(!evaluators.isEmpty()) {
+                // TODO change this back to being an OR operator and instead the
+                // MismatchEvaluator should handle the AND conditions so it can print the correct
+                // log matching for ====X==XXX
+                List<SequenceEvaluator> newEvaluators = SequenceEvaluator.getNewEvaluators(sequence, evaluators);
+                Sequence match = genome.getSequenceMatchingAllEvaluators(newEvaluators, strategy);
+                if(match != null) {
                     found.add(sequence);
-                    IdenticalEvaluator evaluator = new IdenticalEvaluator(sequence);
-                    Sequence match = genome.getSequenceMatchingAllEvaluators(List.of(evaluator));
-                    log.info("Found exact match for " + sequence + " in " + match);
+                    log.info("Will remove " + sequence + " because close match was found by " + newEvaluators);
                 }
-                if(!evaluators.isEmpty()) {
-                    // TODO change this back to being an OR operator and instead the
-                    // MismatchEvaluator should handle the AND conditions so it can print the correct
-                    // log matching for ====X==XXX
-                    List<SequenceEvaluator> newEvaluators = SequenceEvaluator.getNewEvaluators(sequence, evaluators);
-                    Sequence match = genome.getSequenceMatchingAllEvaluators(newEvaluators);
-                    if(match != null) {
-                        found.add(sequence);
-                        log.info("Will remove " + sequence + " because close match was found by " + newEvaluators);
+            }
+        });
+        return found;
+    }
+
+    /**
+     * Same as comparing the candidates with one genome at a time but all genomes are combined into one first.
+     * Each sequence of the combined genome refers to the first genome containing it so the first genome each
+     * candidate is found in is known. The candidates are discarded for that genome, the same as when the genomes
+     * are processed one at a time, and a checkpoint is saved after each genome. The comparison itself is one pass
+     * over all genomes, so when resuming the genomes not yet checkpointed are combined and compared again.
+     */
+    private Genome eliminateWithCombinedGenomes(List<File> otherGenomes, Genome inputGenome) throws Exception {
+        inputGenome = resumeFromCheckpoint(inputGenome);
+        List<File> genomesToProcess = otherGenomes.stream().filter(file -> !isProcessedInCheckpoint(file)).collect(Collectors.toList());
+        if(genomesToProcess.size() < otherGenomes.size()) {
+            log.info("Already processed " + (otherGenomes.size() - genomesToProcess.size()) + " files so will only combine the "
+                    + genomesToProcess.size() + " remaining files");
+        }
+        if(genomesToProcess.isEmpty() || inputGenome.getTotalSequences() == 0) {
+            return inputGenome;
+        }
+        Date startTime = new Date();
+        // Each genome is added to the combined genome as soon as it is loaded and then dropped, so only the
+        // prefetched genomes and the packed sequences of the genomes added so far are held in memory.
+        // The genomes are told apart by their number since genomes in different folders can have the same filename.
+        Genome.Combiner combiner = new Genome.Combiner(getName());
+        Map<String, Integer> genomeNumbers = new HashMap<>();
+        try(GenomePrefetcher prefetcher = prefetchInputGenomes(genomesToProcess, Collections.singletonList(new CrisprPamEvaluator(false)), true, false)) {
+            for(File file : genomesToProcess) {
+                genomeNumbers.put(combiner.add(prefetcher.get(file)), genomeNumbers.size());
+                log.info("Added " + file.getName() + " to the combined genome which has " + combiner.getTotalSequences() + " sequences before removing duplicates");
+            }
+        }
+        Genome combined = combiner.combine();
+        log.info("Combined " + genomesToProcess.size() + " genomes into " + combined.getTotalSequences() + " unique sequences");
+
+        Map<Integer, Collection<Sequence>> foundByGenome = new ConcurrentHashMap<>();
+        Genome.ScanStrategy strategy = combined.getScanStrategy(inputGenome.getTotalSequences());
+        strategy.stream(inputGenome.getSequences()).forEach(sequence -> {
+            int first = Integer.MAX_VALUE;
+            if(combined.exists(sequence)) {
+                Sequence match = combined.getSequenceMatchingAllEvaluators(List.of(new IdenticalEvaluator(sequence)), strategy);
+                first = genomeNumbers.get(match.getGenome());
+                log.info("Found exact match for " + sequence + " in " + match);
+            }
+            if(!evaluators.isEmpty()) {
+                List<SequenceEvaluator> newEvaluators = SequenceEvaluator.getNewEvaluators(sequence, evaluators);
+                Sequence firstMatch = null;
+                for(Sequence match : combined.getSequencesMatchingAllEvaluators(newEvaluators, strategy)) {
+                    if(firstMatch == null || genomeNumbers.get(match.getGenome()) < genomeNumbers.get(firstMatch.getGenome())) {
+                        firstMatch = match;
                     }
                 }
-            });
+                if(firstMatch != null) {
+                    first = Math.min(first, genomeNumbers.get(firstMatch.getGenome()));
+                    SequenceEvaluator.matchAll(newEvaluators, firstMatch);
+                    log.info("Will remove " + sequence + " because close match was found by " + newEvaluators);
+                }
+            }
+            if(first != Integer.MAX_VALUE) {
+                foundByGenome.computeIfAbsent(first, genome -> Collections.synchronizedSet(new TreeSet<>())).add(sequence);
+            }
+        });
+        printProcessingTime(startTime);
 
-            printProcessingTime(startTime);
+        for(int genomeNumber = 0; genomeNumber < genomesToProcess.size(); genomeNumber++) {
+            File file = genomesToProcess.get(genomeNumber);
+            Collection<Sequence> found = foundByGenome.getOrDefault(genomeNumber, Collections.emptySet());
             writeDiscarded(found, " removed because evaluator match in " + file.getName());
             inputGenome.removeAll(found);
 
-            log.info("Candidate size " + inputGenome.getTotalSequences() + " after removing " + found.size() + " sequences found in file " + ++fileNumber + "/" + otherGenomes.size() + " " + file.getName() );
+            log.info("Candidate size " + inputGenome.getTotalSequences() + " after removing " + found.size() + " sequences found in file " + (otherGenomes.indexOf(file) + 1) + "/" + otherGenomes.size() + " " + file.getName() );
+            checkpointProcessedFile(file, inputGenome);
             if(inputGenome.getTotalSequences() == 0) {
                 log.info("No candidates left so will stop");
                 break;
@@ -106,11 +224,47 @@ public class CrisprElimination extends Stage {
         return inputGenome;
     }
 
+    /**
+     * Same as findInGenome but each sequence in the genome is looked up among the indexed candidates
+     */
+    private Collection<Sequence> findInStreamedGenome(File file, Genome inputGenome) throws Exception {
+        Collection<Sequence> found =  Collections.synchronizedSet(new TreeSet<>());
+        CandidateIndex candidateIndex = new CandidateIndex(inputGenome.getSequences());
+        BoundedMismatchEvaluator indexEvaluator = MismatchIndex.getMostSelective(evaluators, candidateIndex.size());
+        // The evaluators are compiled once and compared with each candidate instead of creating new evaluators
+        EvaluationPlan plan = new EvaluationPlan(evaluators);
+        Genome.forEachSequence(file, Collections.singletonList(new CrisprPamEvaluator(false)), false, sequence -> {
+            for(int candidate : candidateIndex.getIdentical(sequence.getEncoded())) {
+                if(found.add(candidateIndex.get(candidate))) {
+                    log.info("Found exact match for " + candidateIndex.get(candidate) + " in " + sequence);
+                }
+            }
+            if(indexEvaluator == null) {
+                return;
+            }
+            for(int candidate : candidateIndex.getWithinMismatches(sequence.getEncoded(),
+                    indexEvaluator.getPositionMask(), indexEvaluator.getMaxMismatches())) {
+                Sequence candidateSequence = candidateIndex.get(candidate);
+                if(!plan.matchAll(candidateSequence.getEncoded(), sequence.getEncoded())) {
+                    continue;
+                }
+                if(found.add(candidateSequence)) {
+                    log.info("Will remove " + candidateSequence + " because close match was found by " + plan.describeMatch(candidateSequence, sequence));
+                } else {
+                    plan.logMatch(candidateSequence, sequence);
+                }
+            }
+        });
+        return found;
+    }
+
     @Override
     public String toString() {
         StringBuilder description = new StringBuilder();
         description.append(getName());
         description.append(" ").append(getStageFolder());
+        description.append(" streamInputGenomes=").append(isStreamInputGenomes());
+        description.append(" combineInputGenomes=").append(combineInputGenomes);
         for(SequenceEvaluator evaluator : evaluators) {
             description.append(" ").append(evaluator.describe());
         }
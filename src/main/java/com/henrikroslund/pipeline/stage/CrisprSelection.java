@@ -38,7 +38,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static com.henrikroslund.Utils.FASTA_FILE_ENDING;
-import static com.henrikroslund.Utils.loadGenomesInFolder;
 import static com.henrikroslund.evaluators.NoConsecutiveIdenticalN1N20Evaluator.Type.QUADRUPLE;
 
 /**
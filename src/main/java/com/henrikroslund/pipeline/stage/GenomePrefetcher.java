@@ -0,0 +1,151 @@
+package com.henrikroslund.pipeline.stage;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.Genome;
+import com.henrikroslund.Utils;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the genomes of a list of files ahead of the stage so the next genomes are read and indexed while the
+ * current one is evaluated. The genomes have to be requested in the order of the files.
+ *
+ * At most depth genomes are loaded ahead and only as long as the estimated memory of the genome in use and the
+ * genomes loaded ahead stays within the memory budget. The files are read on the I/O executor while the parallel
+ * work of creating the sequences is done in the pool of the thread creating the prefetcher, see Utils.runWithPool.
+ * Without an I/O executor each genome is loaded when it is requested.
+ */
+@Log
+public class GenomePrefetcher implements AutoCloseable {
+
+    // Rough upper bound of the memory an indexed genome uses per byte of its fasta file, both strands
+    // included, since the genome is not known until it has been loaded
+    static final int ESTIMATED_BYTES_PER_BASE = 40;
+    // Rough ratio between the size of a fasta file and its size when compressed with gzip
+    static final int ESTIMATED_COMPRESSION_RATIO = 4;
+
+    public interface Loader {
+        Genome load(File file) throws Exception;
+    }
+
+    private final List<File> files;
+    private final Loader loader;
+    private final ExecutorService ioExecutor;
+    private final ForkJoinPool pool;
+    private final int depth;
+    private final long memoryBudget;
+
+    // The genomes being loaded ahead, in the order of the files after the next file to be requested
+    private final Deque<Future<Genome>> loading = new ArrayDeque<>();
+    private long loadingMemory = 0;
+    private long currentMemory = 0;
+    private int next = 0;
+
+    public GenomePrefetcher(List<File> files, Loader loader, ExecutorService ioExecutor, int depth, long memoryBudget) {
+        this.files = List.copyOf(files);
+        this.loader = loader;
+        this.ioExecutor = ioExecutor;
+        this.pool = Utils.getPool();
+        this.depth = ioExecutor == null ? 0 : depth;
+        this.memoryBudget = memoryBudget;
+        prefetch();
+    }
+
+    /**
+     * Will return the genome of the file which has to be the next file in the list. The genome returned by the
+     * previous call is considered no longer used.
+     */
+    public Genome get(File file) throws Exception {
+        if(next >= files.size() || !files.get(next).equals(file)) {
+            throw new IllegalStateException("Genome requested out of order: " + file.getName());
+        }
+        currentMemory = 0;
+        Genome genome;
+        if(loading.isEmpty()) {
+            genome = loader.load(file);
+        } else {
+            loadingMemory -= estimateMemory(file);
+            genome = getLoaded(loading.poll());
+        }
+        currentMemory = estimateMemory(file);
+        next++;
+        prefetch();
+        return genome;
+    }
+
+    private void prefetch() {
+        while(loading.size() < depth && next + loading.size() < files.size()) {
+            File file = files.get(next + loading.size());
+            long memory = estimateMemory(file);
+            if(currentMemory + loadingMemory + memory > memoryBudget) {
+                return;
+            }
+            log.info("Prefetching genome " + file.getName());
+            loadingMemory += memory;
+            loading.add(ioExecutor.submit(() -> Utils.runWithPool(pool, () -> loader.load(file))));
+        }
+    }
+
+    /**
+     * The stage thread waits with Utils.await since the genome is loaded with the parallel work done in its pool
+     */
+    private static Genome getLoaded(Future<Genome> future) throws Exception {
+        try {
+            return Utils.await(future);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    static long estimateMemory(File file) {
+        long length = Utils.isCompressedFastaFile(file.getName()) ? file.length() * ESTIMATED_COMPRESSION_RATIO : file.length();
+        return length * ESTIMATED_BYTES_PER_BASE;
+    }
+
+    /**
+     * Will cancel the genomes being loaded ahead, for example when a stage stops before all files are processed
+     */
+    @Override
+    public void close() {
+        // Loads which have started are allowed to complete so a genome being written to the cache is not interrupted
+        loading.forEach(future -> future.cancel(false));
+        loading.clear();
+        loadingMemory = 0;
+    }
+}
@@ -0,0 +1,346 @@
+package com.henrikroslund.pipeline.stage;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.sequence.Sequence;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * The genomes each sequence has been found in. The genomes have dense ids, in the order of their names, and the
+ * coverage of each sequence is a bitset of genome ids in a long array so the coverage of a pair of sequences is
+ * computed with a word wise or and bit count instead of creating a set of genome names per pair.
+ *
+ * The sequences are kept in their natural order and referred to by their index in that order.
+ */
+public class SequenceCoverage {
+
+    private final List<Sequence> sequences;
+    private final List<String> genomes;
+    private final int words;
+    private final long[][] coverage;
+
+    /**
+     * The coverage of a pair of sequences, the first sequence is always before the second
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class SequencePair {
+        private final int first;
+        private final int second;
+        private final int coverage;
+    }
+
+    /**
+     * A set of sequences and the number of genomes at least one of them is found in
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class Panel {
+        private final int[] sequences;
+        private final int coverage;
+
+        public int size() {
+            return sequences.length;
+        }
+    }
+
+    // Highest coverage first and otherwise in the order of the sequences
+    private static final Comparator<SequencePair> PAIR_ORDER = Comparator.comparingInt(SequencePair::getCoverage).reversed()
+            .thenComparingInt(SequencePair::getFirst).thenComparingInt(SequencePair::getSecond);
+
+    public SequenceCoverage(Collection<Sequence> sequences, Collection<String> genomes) {
+        this.sequences = new ArrayList<>(new TreeSet<>(sequences));
+        this.genomes = new ArrayList<>(new TreeSet<>(genomes));
+        this.words = (this.genomes.size() + Long.SIZE - 1) / Long.SIZE;
+        this.coverage = new long[this.sequences.size()][words];
+    }
+
+    public List<Sequence> getSequences() {
+        return sequences;
+    }
+
+    public int getGenomeId(String genome) {
+        int genomeId = genomes.indexOf(genome);
+        if(genomeId < 0) {
+            throw new IllegalArgumentException("Unknown genome " + genome);
+        }
+        return genomeId;
+    }
+
+    public int getTotalGenomes() {
+        return genomes.size();
+    }
+
+    /**
+     * Will mark the sequence as found in the genome. Sequences can be added from multiple threads as long as they
+     * are all added for the same genome, since a word is then only ever changed by setting the same bit.
+     */
+    public void add(int sequence, int genomeId) {
+        coverage[sequence][genomeId / Long.SIZE] |= 1L << genomeId;
+    }
+
+    public int getCoverage(int sequence) {
+        int count = 0;
+        for(long word : coverage[sequence]) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public int getCoverage(int first, int second) {
+        long[] firstCoverage = coverage[first];
+        long[] secondCoverage = coverage[second];
+        int count = 0;
+        for(int word = 0; word < words; word++) {
+            count += Long.bitCount(firstCoverage[word] | secondCoverage[word]);
+        }
+        return count;
+    }
+
+    /**
+     * Will return the names of the genomes the sequences were found in, or not found in if found is false,
+     * in the order of the names
+     */
+    public List<String> getGenomes(boolean found, int... sequences) {
+        List<String> result = new ArrayList<>();
+        for(int genomeId = 0; genomeId < genomes.size(); genomeId++) {
+            boolean isFound = false;
+            for(int sequence : sequences) {
+                isFound |= (coverage[sequence][genomeId / Long.SIZE] & (1L << genomeId)) != 0;
+            }
+            if(isFound == found) {
+                result.add(genomes.get(genomeId));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Will return the maxPairs pairs of sequences with the highest combined coverage, highest coverage first.
+     * Each thread keeps a bounded heap of the best pairs it has seen and a pair is skipped without computing its
+     * coverage when even the sum of the coverage of both sequences is not better than the worst pair kept.
+     */
+    public List<SequencePair> getTopPairs(int maxPairs) {
+        if(maxPairs <= 0) {
+            return new ArrayList<>();
+        }
+        int[] sequenceCoverage = IntStream.range(0, sequences.size()).map(this::getCoverage).toArray();
+        TopPairs topPairs = IntStream.range(0, sequences.size()).parallel()
+                .collect(() -> new TopPairs(maxPairs), (pairs, first) -> {
+                    for(int second = first + 1; second < sequences.size(); second++) {
+                        int bound = Math.min(genomes.size(), sequenceCoverage[first] + sequenceCoverage[second]);
+                        if(pairs.canAdd(new SequencePair(first, second, bound))) {
+                            pairs.add(new SequencePair(first, second, getCoverage(first, second)));
+                        }
+                    }
+                }, TopPairs::addAll);
+        List<SequencePair> result = new ArrayList<>(topPairs.heap);
+        result.sort(PAIR_ORDER);
+        return result;
+    }
+
+    private static class TopPairs {
+        private final int maxPairs;
+        // The worst pair kept is the head
+        private final PriorityQueue<SequencePair> heap = new PriorityQueue<>(PAIR_ORDER.reversed());
+
+        private TopPairs(int maxPairs) {
+            this.maxPairs = maxPairs;
+        }
+
+        private boolean canAdd(SequencePair pair) {
+            return heap.size() < maxPairs || PAIR_ORDER.compare(pair, heap.peek()) < 0;
+        }
+
+        private void add(SequencePair pair) {
+            if(canAdd(pair)) {
+                heap.add(pair);
+                if(heap.size() > maxPairs) {
+                    heap.poll();
+                }
+            }
+        }
+
+        private void addAll(TopPairs other) {
+            other.heap.forEach(this::add);
+        }
+    }
+
+    /**
+     * Will return the panels found by greedily adding the sequence which covers the most genomes not yet covered,
+     * so the panel of each size is the previous panel and one more sequence. Stops when the panel covers
+     * targetCoverage genomes, has maxSize sequences or no sequence covers any more genomes.
+     *
+     * The greedy selection is lazy: the gain of a sequence can only decrease as the panel grows, so the gains are
+     * kept in a priority queue and only the gain of the sequence at the head is recomputed. If it is still at
+     * least the gain of the next one it is the best choice without recomputing the others.
+     */
+    public List<Panel> getGreedyPanels(int maxSize, int targetCoverage) {
+        List<Panel> panels = new ArrayList<>();
+        long[] covered = new long[words];
+        int coveredGenomes = 0;
+        List<Integer> selected = new ArrayList<>();
+        // Each entry is the gain shifted 32 bits followed by the inverted index so ties take the first sequence
+        PriorityQueue<Long> gains = new PriorityQueue<>(Comparator.reverseOrder());
+        for(int sequence = 0; sequence < sequences.size(); sequence++) {
+            gains.add(toGainEntry(getCoverage(sequence), sequence));
+        }
+        while(selected.size() < maxSize && coveredGenomes < targetCoverage && !gains.isEmpty()) {
+            int sequence = Integer.MAX_VALUE - (int) (gains.poll() & 0xFFFFFFFFL);
+            int gain = getGain(covered, sequence);
+            if(!gains.isEmpty() && toGainEntry(gain, sequence) < gains.peek()) {
+                gains.add(toGainEntry(gain, sequence));
+                continue;
+            }
+            if(gain == 0) {
+                break;
+            }
+            for(int word = 0; word < words; word++) {
+                covered[word] |= coverage[sequence][word];
+            }
+            coveredGenomes += gain;
+            selected.add(sequence);
+            panels.add(new Panel(selected.stream().mapToInt(Integer::intValue).toArray(), coveredGenomes));
+        }
+        return panels;
+    }
+
+    private static long toGainEntry(int gain, int sequence) {
+        return ((long) gain << 32) | (Integer.MAX_VALUE - sequence);
+    }
+
+    private int getGain(long[] covered, int sequence) {
+        int gain = 0;
+        for(int word = 0; word < words; word++) {
+            gain += Long.bitCount(coverage[sequence][word] & ~covered[word]);
+        }
+        return gain;
+    }
+
+    /**
+     * Will return the panel of the size which covers the most genomes, searched exactly with branch and bound.
+     * The sequences are tried in order of their coverage so the coverage of the next sequences bounds what a
+     * branch can add, and a branch is pruned when it can not beat the best panel found, starting from the given
+     * panel which is typically found greedily. The branches of the first sequence are searched in parallel.
+     * Of panels with the same coverage the one with the first sequences is returned so the result does not
+     * depend on the order the branches complete in. Only feasible for small sizes.
+     */
+    public Panel getBestPanel(int size, Panel initialPanel) {
+        int[] order = IntStream.range(0, sequences.size()).boxed()
+                .filter(sequence -> getCoverage(sequence) > 0)
+                .sorted(Comparator.<Integer>comparingInt(this::getCoverage).reversed().thenComparingInt(sequence -> sequence))
+                .mapToInt(Integer::intValue).toArray();
+        if(order.length <= size) {
+            return toPanel(order);
+        }
+        int[] orderCoverage = Arrays.stream(order).map(this::getCoverage).toArray();
+        BestPanel best = new BestPanel(initialPanel);
+        IntStream.range(0, order.length - size + 1).parallel().forEach(first -> {
+            int[] panel = new int[size];
+            panel[0] = order[first];
+            long[] covered = coverage[order[first]].clone();
+            search(order, orderCoverage, panel, 1, first + 1, covered, orderCoverage[first], best);
+        });
+        return best.panel;
+    }
+
+    private void search(int[] order, int[] orderCoverage, int[] panel, int chosen, int from, long[] covered, int coveredGenomes, BestPanel best) {
+        if(chosen == panel.length) {
+            best.offer(panel, coveredGenomes);
+            return;
+        }
+        int remaining = panel.length - chosen;
+        for(int i = from; i <= order.length - remaining; i++) {
+            // The coverage is sorted so the next sequences bound what the rest of the panel can add
+            int bound = coveredGenomes;
+            for(int next = i; next < i + remaining; next++) {
+                bound += orderCoverage[next];
+            }
+            if(Math.min(bound, genomes.size()) < best.getCoverage()) {
+                return;
+            }
+            int sequence = order[i];
+            int gain = getGain(covered, sequence);
+            long[] nextCovered = covered.clone();
+            for(int word = 0; word < words; word++) {
+                nextCovered[word] |= coverage[sequence][word];
+            }
+            panel[chosen] = sequence;
+            search(order, orderCoverage, panel, chosen + 1, i + 1, nextCovered, coveredGenomes + gain, best);
+        }
+    }
+
+    private Panel toPanel(int[] panel) {
+        long[] covered = new long[words];
+        for(int sequence : panel) {
+            for(int word = 0; word < words; word++) {
+                covered[word] |= coverage[sequence][word];
+            }
+        }
+        int coveredGenomes = 0;
+        for(long word : covered) {
+            coveredGenomes += Long.bitCount(word);
+        }
+        return new Panel(panel, coveredGenomes);
+    }
+
+    private class BestPanel {
+        private Panel panel;
+
+        private BestPanel(Panel panel) {
+            this.panel = panel;
+        }
+
+        private synchronized int getCoverage() {
+            return panel == null ? 0 : panel.getCoverage();
+        }
+
+        private synchronized void offer(int[] sequences, int coveredGenomes) {
+            int[] sorted = sorted(sequences);
+            if(panel == null || coveredGenomes > panel.getCoverage()
+                    || (coveredGenomes == panel.getCoverage() && Arrays.compare(sorted, sorted(panel.getSequences())) < 0)) {
+                panel = new Panel(sorted, coveredGenomes);
+            }
+        }
+
+        private int[] sorted(int[] sequences) {
+            int[] sorted = sequences.clone();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -27,8 +27,10 @@ package com.henrikroslund.pipeline.stage;
  */
 
 import com.henrikroslund.Genome;
+import com.henrikroslund.Main;
 import com.henrikroslund.Utils;
 import com.henrikroslund.pcr.PcrProduct;
+import com.henrikroslund.pcr.PrimerAutomaton;
 import com.henrikroslund.pcr.Serotype;
 import com.henrikroslund.sequence.Sequence;
 import com.opencsv.CSVWriter;
@@ -40,7 +42,9 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -53,11 +57,22 @@ public class Serotyping extends Stage {
     private final List<Serotype> serotypes;
     @Getter
     private final List<PcrProduct> pcrProducts;
+    // Searches for primer A, primer B and their complements of every serotype, in that order
+    private final PrimerAutomaton primerAutomaton;
+    private static final int PRIMERS_PER_SEROTYPE = 4;
 
     public Serotyping(List<Serotype> serotypes) {
         super(Serotyping.class);
         this.serotypes = serotypes;
         this.pcrProducts = new ArrayList<>();
+        List<String> primers = new ArrayList<>();
+        for(Serotype serotype : serotypes) {
+            primers.add(serotype.getPrimerA());
+            primers.add(serotype.getPrimerB());
+            primers.add(Sequence.getComplement(serotype.getPrimerA()));
+            primers.add(Sequence.getComplement(serotype.getPrimerB()));
+        }
+        this.primerAutomaton = new PrimerAutomaton(primers);
     }
 
     @Override
@@ -70,81 +85,114 @@ public class Serotyping extends Stage {
         // Used to write the names of the genomes where pcrs were found
         BufferedWriter genomeWriter = new BufferedWriter(new FileWriter(outputFolder + "/pcrGenomes.txt", true));
 
-        List<File> genomeFiles = Utils.getFilesInFolder(inputFolder, FASTA_FILE_ENDING);
-        int remainingFiles = genomeFiles.size();
-        for(File file : genomeFiles) {
-            Date startTime = new Date();
-
-            String sequenceData = Genome.getSequenceData(file.getAbsolutePath(), Utils.getFirstRow(file.getAbsolutePath()));
-            String sequenceDataComplement = Sequence.getComplement(sequenceData);
-
-            serotypes.forEach(serotype -> {
-
-                List<Integer> primerAPositions = findOccurrences(sequenceData, serotype.getPrimerA(), false, file.getName());
-                List<Integer> primerBPositionsComplement = findOccurrences(sequenceDataComplement, serotype.getPrimerB(), true, file.getName());
-                int shortestDistancePrimerA = getShortestDistance(
-                        primerAPositions, serotype.getPrimerA().length(),
-                        primerBPositionsComplement, serotype.getPrimerB().length(), sequenceData.length());
-
-                List<Integer> primerAPositionsComplement = findOccurrences(sequenceDataComplement, serotype.getPrimerA(),true, file.getName());
-                List<Integer> primerBPositions = findOccurrences(sequenceData, serotype.getPrimerB(), false, file.getName());
-                int shortestDistancePrimerB = getShortestDistance(
-                        primerBPositions, serotype.getPrimerB().length(),
-                        primerAPositionsComplement, serotype.getPrimerA().length(), sequenceData.length());
-
-                PcrProduct pcrProduct = null;
-                if(shortestDistancePrimerA == Integer.MAX_VALUE && shortestDistancePrimerB == Integer.MAX_VALUE) {
-                    log.info("No match for " + serotype.getName() + " in genome " + file.getName());
-                } else if(shortestDistancePrimerA < shortestDistancePrimerB) {
-                    log.info("Found pcr product with distance " + shortestDistancePrimerA + " in genome " + file.getName());
-                    pcrProduct = new PcrProduct(file.getName(), serotype, shortestDistancePrimerA, primerAPositions, primerBPositionsComplement);
-                } else {
-                    log.info("Found pcr product with distance " + shortestDistancePrimerB + " in genome " + file.getName());
-                    pcrProduct = new PcrProduct(file.getName(), serotype, shortestDistancePrimerB, primerAPositionsComplement, primerBPositions);
-                }
-                if(pcrProduct != null) {
-                    pcrProducts.add(pcrProduct);
-                    csvWriter.writeNext(pcrToRow(pcrProduct).toArray(new String[0]));
+        // The strains are processed in parallel but the pcr products are written in the order of the files
+        List<File> genomeFiles = Utils.getFastaFilesInFolder(inputFolder);
+        AtomicInteger remainingFiles = new AtomicInteger(genomeFiles.size());
+        (Main.DEBUG ? genomeFiles.stream() : genomeFiles.parallelStream())
+                .map(file -> {
+                    Date startTime = new Date();
+                    List<PcrProduct> filePcrProducts = null;
                     try {
-                        genomeWriter.append(pcrProduct.getGenome()).append("\n");
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                        filePcrProducts = findPcrProducts(file);
+                    } catch (Exception e) {
+                        log.severe("Error serotyping genome from file " + file.getAbsolutePath() + " " + e.getMessage());
                         System.exit(1);
                     }
-                }
-            });
-
-            printProcessingTime(startTime);
-            log.info("Files remaining: " + --remainingFiles + " / " + genomeFiles.size());
-        }
+                    printProcessingTime(startTime);
+                    log.info("Files remaining: " + remainingFiles.decrementAndGet() + " / " + genomeFiles.size());
+                    return filePcrProducts;
+                })
+                .forEachOrdered(filePcrProducts -> filePcrProducts.forEach(pcrProduct ->
+                        addPcrProduct(pcrProduct, csvWriter, genomeWriter)));
 
         csvWriter.close();
         genomeWriter.close();
         return inputGenome;
     }
 
+    private List<PcrProduct> findPcrProducts(File file) throws Exception {
+        List<PcrProduct> filePcrProducts = new ArrayList<>();
+        String sequenceData = Genome.getSequenceData(file.getAbsolutePath(), Utils.getFirstRow(file.getAbsolutePath()));
+        // A primer found in the complement is found as the complement of the primer in the sequence data
+        // so the complement of the sequence data is never created
+        List<List<Integer>> occurrences = primerAutomaton.findOccurrences(sequenceData);
+
+        for(int serotypeIndex = 0; serotypeIndex < serotypes.size(); serotypeIndex++) {
+            Serotype serotype = serotypes.get(serotypeIndex);
+            int primers = serotypeIndex * PRIMERS_PER_SEROTYPE;
+
+            List<Integer> primerAPositions = toPositions(occurrences.get(primers), serotype.getPrimerA(), false, file.getName());
+            List<Integer> primerBPositionsComplement = toPositions(occurrences.get(primers + 3), serotype.getPrimerB(), true, file.getName());
+            int shortestDistancePrimerA = getShortestDistance(
+                    toSortedArray(primerAPositions), serotype.getPrimerA().length(),
+                    toSortedArray(primerBPositionsComplement), serotype.getPrimerB().length(), sequenceData.length());
+
+            List<Integer> primerAPositionsComplement = toPositions(occurrences.get(primers + 2), serotype.getPrimerA(), true, file.getName());
+            List<Integer> primerBPositions = toPositions(occurrences.get(primers + 1), serotype.getPrimerB(), false, file.getName());
+            int shortestDistancePrimerB = getShortestDistance(
+                    toSortedArray(primerBPositions), serotype.getPrimerB().length(),
+                    toSortedArray(primerAPositionsComplement), serotype.getPrimerA().length(), sequenceData.length());
+
+            if(shortestDistancePrimerA == Integer.MAX_VALUE && shortestDistancePrimerB == Integer.MAX_VALUE) {
+                log.info("No match for " + serotype.getName() + " in genome " + file.getName());
+            } else if(shortestDistancePrimerA < shortestDistancePrimerB) {
+                log.info("Found pcr product with distance " + shortestDistancePrimerA + " in genome " + file.getName());
+                filePcrProducts.add(new PcrProduct(file.getName(), serotype, shortestDistancePrimerA, primerAPositions, primerBPositionsComplement));
+            } else {
+                log.info("Found pcr product with distance " + shortestDistancePrimerB + " in genome " + file.getName());
+                filePcrProducts.add(new PcrProduct(file.getName(), serotype, shortestDistancePrimerB, primerAPositionsComplement, primerBPositions));
+            }
+        }
+        return filePcrProducts;
+    }
+
     /**
-     * Will calculate the shortest distance based on the
+     * Will add the pcr product to the results and write it to the csv and the genome file
      */
-    private int getShortestDistance(List<Integer> primerA, int primerALength, List<Integer> primerB, int primerBLength, int genomeSize) {
-        AtomicInteger shortestDistance = new AtomicInteger(Integer.MAX_VALUE);
-        if(primerA.isEmpty() || primerB.isEmpty()) {
-            return shortestDistance.get();
+    private synchronized void addPcrProduct(PcrProduct pcrProduct, CSVWriter csvWriter, BufferedWriter genomeWriter) {
+        pcrProducts.add(pcrProduct);
+        csvWriter.writeNext(pcrToRow(pcrProduct).toArray(new String[0]));
+        try {
+            genomeWriter.append(pcrProduct.getGenome()).append("\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
         }
-        primerA.forEach(primerAPosition -> {
-            primerB.forEach(primerBPosition -> {
-                int distance;
-                if(primerAPosition > primerBPosition) {
-                    distance = genomeSize - primerAPosition - primerALength + primerBPosition;
-                } else {
-                    distance = primerBPosition - primerAPosition + primerBLength;
-                }
-                if(shortestDistance.get() == Integer.MAX_VALUE || distance < shortestDistance.get()) {
-                    shortestDistance.set(distance);
-                }
-            });
-        });
-        return shortestDistance.get();
+    }
+
+    private static int[] toSortedArray(List<Integer> positions) {
+        int[] sorted = positions.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Will calculate the shortest distance of a pcr product from a primer A position to a primer B position,
+     * where a product starting after primer B wraps around the end of the circular genome. Both positions must
+     * be sorted ascending. For each primer B position the shortest product not wrapping around is from the
+     * closest primer A position before it, found by a sweep over both positions, and the shortest wrapping around
+     * is from the last primer A position, so it takes O(a + b) instead of comparing every pair.
+     * Will return Integer.MAX_VALUE if any of the primers has no positions.
+     */
+    static int getShortestDistance(int[] primerA, int primerALength, int[] primerB, int primerBLength, int genomeSize) {
+        int shortestDistance = Integer.MAX_VALUE;
+        if(primerA.length == 0 || primerB.length == 0) {
+            return shortestDistance;
+        }
+        int lastPrimerA = primerA[primerA.length - 1];
+        int closestPrimerA = -1;
+        for(int primerBPosition : primerB) {
+            while(closestPrimerA + 1 < primerA.length && primerA[closestPrimerA + 1] <= primerBPosition) {
+                closestPrimerA++;
+            }
+            if(closestPrimerA >= 0) {
+                shortestDistance = Math.min(shortestDistance, primerBPosition - primerA[closestPrimerA] + primerBLength);
+            }
+            if(lastPrimerA > primerBPosition) {
+                shortestDistance = Math.min(shortestDistance, genomeSize - lastPrimerA - primerALength + primerBPosition);
+            }
+        }
+        return shortestDistance;
     }
 
     private void writeResults() throws IOException {
@@ -177,22 +225,21 @@ public class Serotyping extends Stage {
         return cellString.toString();
     }
 
-    protected static List<Integer> findOccurrences(String genomeSequenceData, String sequence, boolean isComplement, String genomeName) {
-        List<Integer> indexes = new ArrayList<>();
-
-        int index = 0;
-        while(index != -1) {
-            index = genomeSequenceData.indexOf(sequence, index + sequence.length());
-            if (index != -1) {
-                log.info("Found match at index " + index + " for sequence " + sequence + " in genome " + genomeName);
-                if(isComplement) {
-                    indexes.add(genomeSequenceData.length() - index - sequence.length()+1);
-                } else {
-                    indexes.add(index+1);
-                }
-            }
+    /**
+     * Will return the 1 based positions from the indexes where the primer, or the complement of the primer if
+     * isComplement is true, was found in the genome sequence data. The positions of the complement are in the
+     * order they are found in the complement of the genome.
+     */
+    protected static List<Integer> toPositions(List<Integer> indexes, String primer, boolean isComplement, String genomeName) {
+        List<Integer> positions = new ArrayList<>(indexes.size());
+        for(int index : indexes) {
+            log.info("Found match at index " + index + " for sequence " + primer + (isComplement ? " complement" : "") + " in genome " + genomeName);
+            positions.add(index + 1);
+        }
+        if(isComplement) {
+            Collections.reverse(positions);
         }
-        return indexes;
+        return positions;
     }
 
     @Override
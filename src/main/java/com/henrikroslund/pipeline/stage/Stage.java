@@ -26,30 +26,35 @@ package com.henrikroslund.pipeline.stage;
  * #L%
  */
 
+import com.henrikroslund.Checkpoint;
 import com.henrikroslund.Genome;
+import com.henrikroslund.GenomeCache;
 import com.henrikroslund.Main;
 import com.henrikroslund.Utils;
+import com.henrikroslund.evaluators.SequenceEvaluator;
+import com.henrikroslund.pipeline.StageExecutor;
+import com.henrikroslund.sequence.FastaPreprocessor;
 import com.henrikroslund.sequence.Sequence;
 import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.java.Log;
-import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang3.StringUtils;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
-import java.util.stream.Stream;
 
 @Log
 public abstract class Stage {
@@ -64,8 +69,8 @@ public abstract class Stage {
     @Getter(AccessLevel.PROTECTED)
     private static final String resultFilename = "result";
 
-    private static final Character FASTA_DELIMITER = '>';
 
+    @Getter
     protected String inputFolder;
     protected String outputFolder;
 
@@ -74,6 +79,41 @@ public abstract class Stage {
     private BufferedWriter discardWriter = null;
     private boolean shouldPreProcessFiles = true;
 
+    // When enabled, stages comparing the candidates with each genome in the input folder index the candidates
+    // and stream the genome past the index once instead of loading the genome. Should be used when the candidates
+    // are few compared to the size of the genomes.
+    @Setter
+    @Getter(AccessLevel.PROTECTED)
+    private boolean streamInputGenomes = false;
+
+    // When set, the genomes in the input folder are created once and then loaded from the cache
+    @Setter
+    private GenomeCache genomeCache = null;
+
+    // The number of threads the stage runs with, 0 to use the parallelism of the pipeline
+    @Setter
+    @Getter
+    private int parallelism = 0;
+
+    // Set by the pipeline to the pool the stage is run in and the executor genome files are read with
+    @Setter
+    private StageExecutor executor = null;
+    @Setter
+    @Getter(AccessLevel.PROTECTED)
+    private ExecutorService ioExecutor = null;
+
+    // How many genomes in the input folder are loaded ahead while the current one is processed and how much
+    // memory the genomes loaded ahead and the current one may be estimated to use, see GenomePrefetcher
+    @Setter
+    private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+    @Setter
+    private long prefetchMemoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    private static final int DEFAULT_PREFETCH_DEPTH = 2;
+
+    // Set by the pipeline when the run can be resumed, see Checkpoint
+    @Setter
+    private Checkpoint checkpoint = null;
+
     protected Stage(Class<?> clazz) {
         this.name = clazz.getSimpleName();
     }
@@ -118,14 +158,87 @@ public abstract class Stage {
 
     public Genome run(Genome inputGenome) throws Exception {
         preExecute();
+        Genome result = executor == null ? runInCurrentPool(inputGenome) : executor.submit(() -> runInCurrentPool(inputGenome));
+        if(executor != null) {
+            log.info(executor.describeUtilization());
+        }
+        postExecute();
+        return result;
+    }
+
+    private Genome runInCurrentPool(Genome inputGenome) throws Exception {
         Genome result = execute(inputGenome);
         if(result != null && result.getTotalSequences() > 0) {
             result.writeSequences(outputFolder, getResultFilename());
+            result.writeBinarySequences(outputFolder, getResultFilename());
         }
-        postExecute();
         return result;
     }
 
+    /**
+     * Will load all genomes in the folder with the I/O executor of the stage if it has one
+     */
+    protected List<Genome> loadGenomesInFolder(String folder, List<SequenceEvaluator> criteria, boolean skipDuplicates,
+                                               boolean includeAllChromosomes) {
+        return Utils.loadGenomesInFolder(folder, criteria, skipDuplicates, includeAllChromosomes, ioExecutor);
+    }
+
+    /**
+     * Will create an indexed genome from a file in the input folder, from the genome cache if one is set
+     */
+    protected Genome loadInputGenome(File file, List<SequenceEvaluator> criteria, boolean skipDuplicates,
+                                     boolean includeAllChromosomes) throws Exception {
+        if(genomeCache != null) {
+            return genomeCache.getGenome(file, criteria, skipDuplicates, includeAllChromosomes, true);
+        }
+        return new Genome(file, criteria, skipDuplicates, includeAllChromosomes, true);
+    }
+
+    /**
+     * Will return a prefetcher loading the files in the input folder the same way as loadInputGenome
+     * ahead of the stage processing them
+     */
+    protected GenomePrefetcher prefetchInputGenomes(List<File> files, List<SequenceEvaluator> criteria, boolean skipDuplicates,
+                                                    boolean includeAllChromosomes) {
+        return new GenomePrefetcher(files, file -> loadInputGenome(file, criteria, skipDuplicates, includeAllChromosomes),
+                ioExecutor, prefetchDepth, prefetchMemoryBudget);
+    }
+
+    /**
+     * Will return the genome to continue processing the files in the input folder with. When resuming from a
+     * checkpoint that is the genome as it was after the last processed file, otherwise the input genome.
+     */
+    protected Genome resumeFromCheckpoint(Genome inputGenome) throws IOException {
+        Genome progress = checkpoint == null ? null : checkpoint.getProgress();
+        if(progress == null) {
+            return inputGenome;
+        }
+        log.info("Resuming from checkpoint " + checkpoint.getDirectory() + " after processed files " + checkpoint.getProcessedFiles());
+        return progress;
+    }
+
+    protected boolean isProcessedInCheckpoint(File file) {
+        return checkpoint != null && checkpoint.isProcessed(getPathInInputFolder(file));
+    }
+
+    /**
+     * Will save the genome as it is after processing the file so the stage can resume from it
+     */
+    protected void checkpointProcessedFile(File file, Genome genome) throws Exception {
+        if(checkpoint != null) {
+            checkpoint.saveProgress(getPathInInputFolder(file), genome);
+        }
+    }
+
+    /**
+     * Will return the path of the file relative to the input folder, which tells apart files with the same name
+     * in different sub folders
+     */
+    private String getPathInInputFolder(File file) {
+        Path folder = Path.of(inputFolder).toAbsolutePath().normalize();
+        return folder.relativize(file.toPath().toAbsolutePath().normalize()).toString();
+    }
+
     protected BufferedWriter getDiscardWriter() throws IOException {
         if(discardWriter == null) {
             discardWriter = new BufferedWriter(new FileWriter(outputFolder + "/discarded.log", true));
@@ -149,7 +262,9 @@ public abstract class Stage {
 
     // Will do any required pre-processing of the input files.
     // Right now it will split fasta files with multiple genomes into separate files
-    // and also make sure all characters are upper case.
+    // and also make sure all characters are upper case. The files are processed in parallel
+    // on the I/O executor of the stage, if it has one. A .fai index is only written for the
+    // files a fasta file is rewritten into, unchanged files are left as they are, see FastaPreprocessor.
     public void preProcessInputFiles() throws  Exception {
         if(!shouldPreProcessFiles) {
             log.info("Will skip preprocess files for stage " + getName());
@@ -157,96 +272,32 @@ public abstract class Stage {
         } else {
             log.info("Pre-processing stage " + getName());
         }
-        List<File> fastaFiles = Utils.getFilesInFolder(inputFolder, Utils.FASTA_FILE_ENDING);
+        List<File> fastaFiles = Utils.getFastaFilesInFolder(inputFolder);
         log.info("Files to preprocess: " + fastaFiles.size());
         AtomicInteger processed = new AtomicInteger();
-        fastaFiles.forEach(fastaFile -> {
-            try {
-                if(hasMultipleGenomesInFastaFile(fastaFile)) {
-                    log.info("Found multiple genomes in fasta file so will split file: " + fastaFile.getName());
-                    splitFastaWithMultipleGenomes(fastaFile);
-                } else if(hasLowerCaseCharacters(fastaFile)) {
-                    log.info("Found lower case letter in fasta file so will create new file: " + fastaFile.getName());
-                    splitFastaWithMultipleGenomes(fastaFile);
-                }
-                if(processed.getAndIncrement() % 10 == 0) {
-                    log.info("Processed files: " + processed + "/" + fastaFiles.size());
-                }
-            } catch (Exception e) {
-                log.severe(e.getMessage());
-                e.printStackTrace();
-                System.exit(1);
-            }
-        });
-    }
-
-    private void splitFastaWithMultipleGenomes(File fastaFile) throws Exception {
-        if(!StringUtils.endsWith(fastaFile.getName(), Utils.FASTA_FILE_ENDING)) {
-            throw new Exception("Tried to split a non-fasta file");
-        }
-        BufferedWriter writer = null;
-        try (Stream<String> lines = Files.lines(fastaFile.toPath())) {
-            Iterator<String> it = lines.iterator();
-            int fastaCount = 0;
-            while(it.hasNext()) {
-                String line = it.next();
-                if(line.isEmpty()) {
-                    // We remove empty lines
-                    continue;
-                } else if(line.charAt(0) == FASTA_DELIMITER) {
-                    if(writer != null) {
-                        writer.flush();
-                        writer.close();
-                    }
-                    if(Utils.isChromosomeFile(fastaFile.getName())) {
-                        throw new Exception("No support for splitting chromosome files at this time!");
-                    }
-                    String output = inputFolder + "/" + FilenameUtils.removeExtension(fastaFile.getName()) + "_" + fastaCount + Utils.FASTA_FILE_ENDING;
-                    if(new File(output).exists()) {
-                        throw new Exception("Did not expect file to already exist while splitting fasta file: " + output);
-                    }
-                    writer = new BufferedWriter(new FileWriter(output, true));
-                    fastaCount++;
-                } else {
-                    // We modify everything to be upper case except the first line
-                    line = line.toUpperCase();
-                }
-                if(writer == null) {
-                    throw new Exception("Something went wrong trying to split fasta file");
-                }
-                writer.write(line);
-                writer.newLine();
-            }
-            if(writer != null) {
-                writer.flush();
-                writer.close();
-            }
-            File renameFile = new File(fastaFile.getAbsolutePath()+".skip");
-            if(!fastaFile.renameTo(renameFile)) {
-                throw new Exception("Unable to rename original file: " + fastaFile.getName() + " to " + renameFile.getName());
+        if(ioExecutor == null || Main.DEBUG) {
+            for(File fastaFile : fastaFiles) {
+                preProcessInputFile(fastaFile, processed, fastaFiles.size());
             }
+            return;
         }
-    }
-
-    private boolean hasMultipleGenomesInFastaFile(File fastaFile) throws IOException {
-        try (Stream<String> lines = Files.lines(fastaFile.toPath())) {
-            int numberOfFasta = (int) lines.parallel().filter(s -> s.isEmpty() || s.charAt(0) == FASTA_DELIMITER).count();
-            if (numberOfFasta > 1) {
-                log.info("Found " + numberOfFasta + " genomes inside fasta file: " + fastaFile.getName());
-                return true;
-            }
-            return false;
+        List<Future<?>> preprocessing = new ArrayList<>();
+        fastaFiles.forEach(fastaFile -> preprocessing.add(ioExecutor.submit(() -> preProcessInputFile(fastaFile, processed, fastaFiles.size()))));
+        for(Future<?> future : preprocessing) {
+            Utils.await(future);
         }
     }
 
-    private boolean hasLowerCaseCharacters(File fastaFile) throws IOException {
-        try (Stream<String> lines = Files.lines(fastaFile.toPath())) {
-            int linesWithLowerCase = (int) lines.parallel().filter(s -> !StringUtils.isAllUpperCase(s)).count();
-            if(linesWithLowerCase > 1) {
-                log.info("Found lower case letters in file: " + fastaFile.getName());
-                return true;
+    private void preProcessInputFile(File fastaFile, AtomicInteger processed, int files) {
+        try {
+            FastaPreprocessor.preprocess(fastaFile, inputFolder);
+            if(processed.incrementAndGet() % 10 == 0) {
+                log.info("Processed files: " + processed + "/" + files);
             }
-            return false;
+        } catch (Exception e) {
+            log.severe(e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
         }
     }
 
@@ -0,0 +1,202 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.Utils;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF file, the blocked gzip format used by samtools, where the data is compressed in independent gzip
+ * blocks of at most 64 kb which each record their compressed size in an extra header field. Since the blocks can
+ * be found without decompressing them, the blocks ahead of the reader are decompressed in parallel in the pool of
+ * the thread creating the stream, see Utils.getPool, while the data is returned in order.
+ */
+public class BgzfInputStream extends InputStream {
+
+    private static final int HEADER_LENGTH = 12;
+    private static final int FOOTER_LENGTH = 8;
+    private static final int FLAG_EXTRA = 4;
+
+    private final DataInputStream input;
+    private final ForkJoinPool pool;
+    private final int blocksAhead;
+    private final Deque<CompletableFuture<byte[]>> blocks = new ArrayDeque<>();
+    private boolean endOfInput = false;
+    private byte[] block = new byte[0];
+    private int position = 0;
+
+    public BgzfInputStream(InputStream input) {
+        this.input = new DataInputStream(input);
+        this.pool = Utils.getPool();
+        this.blocksAhead = pool.getParallelism() * 4;
+    }
+
+    /**
+     * Will return true if the header is the header of a BGZF block
+     */
+    public static boolean isBgzf(byte[] header) {
+        if(header.length < 18 || (header[0] & 0xFF) != 0x1f || (header[1] & 0xFF) != 0x8b || header[2] != 8
+                || (header[3] & FLAG_EXTRA) == 0) {
+            return false;
+        }
+        return header[12] == 'B' && header[13] == 'C';
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        while(position == block.length) {
+            if(!nextBlock()) {
+                return -1;
+            }
+        }
+        int read = Math.min(length, block.length - position);
+        System.arraycopy(block, position, buffer, offset, read);
+        position += read;
+        return read;
+    }
+
+    private boolean nextBlock() throws IOException {
+        while(!endOfInput && blocks.size() < blocksAhead) {
+            byte[] compressed = readCompressedBlock();
+            if(compressed == null) {
+                endOfInput = true;
+            } else {
+                blocks.add(CompletableFuture.supplyAsync(() -> decompress(compressed), pool));
+            }
+        }
+        if(blocks.isEmpty()) {
+            return false;
+        }
+        try {
+            block = blocks.poll().join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        position = 0;
+        return true;
+    }
+
+    /**
+     * Will return the whole block, header and footer included, or null at the end of the input
+     */
+    private byte[] readCompressedBlock() throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        int read = input.readNBytes(header, 0, HEADER_LENGTH);
+        if(read == 0) {
+            return null;
+        }
+        if(read < HEADER_LENGTH || (header[0] & 0xFF) != 0x1f || (header[1] & 0xFF) != 0x8b || (header[3] & FLAG_EXTRA) == 0) {
+            throw new IOException("Not a BGZF block");
+        }
+        int extraLength = (header[10] & 0xFF) | (header[11] & 0xFF) << 8;
+        byte[] extra = new byte[extraLength];
+        input.readFully(extra);
+        int blockSize = -1;
+        for(int i = 0; i + 4 <= extraLength; ) {
+            int fieldLength = (extra[i + 2] & 0xFF) | (extra[i + 3] & 0xFF) << 8;
+            if(extra[i] == 'B' && extra[i + 1] == 'C' && fieldLength == 2) {
+                blockSize = ((extra[i + 4] & 0xFF) | (extra[i + 5] & 0xFF) << 8) + 1;
+            }
+            i += 4 + fieldLength;
+        }
+        if(blockSize == -1) {
+            throw new IOException("BGZF block without block size");
+        }
+        byte[] compressed = new byte[blockSize];
+        System.arraycopy(header, 0, compressed, 0, HEADER_LENGTH);
+        System.arraycopy(extra, 0, compressed, HEADER_LENGTH, extraLength);
+        try {
+            input.readFully(compressed, HEADER_LENGTH + extraLength, blockSize - HEADER_LENGTH - extraLength);
+        } catch (EOFException e) {
+            throw new IOException("Truncated BGZF block", e);
+        }
+        return compressed;
+    }
+
+    private static byte[] decompress(byte[] compressed) {
+        int extraLength = (compressed[10] & 0xFF) | (compressed[11] & 0xFF) << 8;
+        int dataStart = HEADER_LENGTH + extraLength;
+        int footer = compressed.length - FOOTER_LENGTH;
+        int expectedCrc = readInt(compressed, footer);
+        int size = readInt(compressed, footer + 4);
+        byte[] data = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed, dataStart, footer - dataStart);
+            int inflated = 0;
+            while(inflated < size && !inflater.finished()) {
+                int count = inflater.inflate(data, inflated, size - inflated);
+                if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if(inflated != size) {
+                throw new CompletionException(new IOException("BGZF block decompressed to " + inflated + " bytes but expected " + size));
+            }
+        } catch (DataFormatException e) {
+            throw new CompletionException(new IOException("Invalid BGZF block", e));
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if((int) crc.getValue() != expectedCrc) {
+            throw new CompletionException(new IOException("BGZF block has invalid checksum"));
+        }
+        return data;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    @Override
+    public void close() throws IOException {
+        blocks.forEach(future -> future.cancel(false));
+        blocks.clear();
+        input.close();
+    }
+}
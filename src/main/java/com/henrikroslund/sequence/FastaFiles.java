@@ -0,0 +1,86 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens fasta files for reading regardless of whether they are compressed, see Utils.isCompressedFastaFile.
+ * A BGZF compressed file is decompressed block by block in parallel, see BgzfInputStream, while any other gzip
+ * file, which can only be decompressed from the start, is decompressed on the reading thread.
+ */
+public class FastaFiles {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BGZF_HEADER_LENGTH = 18;
+
+    private FastaFiles() {
+    }
+
+    /**
+     * Will return a channel with the uncompressed content of the fasta file
+     */
+    public static ReadableByteChannel open(Path fastaFile) throws IOException {
+        if(!Utils.isCompressedFastaFile(fastaFile.getFileName().toString())) {
+            return FileChannel.open(fastaFile, StandardOpenOption.READ);
+        }
+        return Channels.newChannel(openStream(fastaFile));
+    }
+
+    /**
+     * Will return a stream with the uncompressed content of the fasta file
+     */
+    public static InputStream openStream(Path fastaFile) throws IOException {
+        InputStream input = new BufferedInputStream(Files.newInputStream(fastaFile), BUFFER_SIZE);
+        if(!Utils.isCompressedFastaFile(fastaFile.getFileName().toString())) {
+            return input;
+        }
+        try {
+            input.mark(BGZF_HEADER_LENGTH);
+            byte[] header = input.readNBytes(BGZF_HEADER_LENGTH);
+            input.reset();
+            if(BgzfInputStream.isBgzf(header)) {
+                return new BgzfInputStream(input);
+            }
+            return new GZIPInputStream(input, BUFFER_SIZE);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+}
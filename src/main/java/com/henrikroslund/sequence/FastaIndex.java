@@ -0,0 +1,218 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Index of the records of a fasta file in the .fai format used by samtools faidx, stored next to the fasta file.
+ * Each line is the name of the record, the number of bases, the offset of the first base in the file, the number
+ * of bases per line and the number of bytes per line including the line break. When the lines of a record do not
+ * all have the same length, except the last line, the bases and bytes per line are 0 so the offset of a base can
+ * not be computed from the line length but the record can still be read from its offset.
+ */
+public class FastaIndex {
+
+    public static final String INDEX_FILE_ENDING = ".fai";
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    @AllArgsConstructor
+    @Getter
+    public static class Entry {
+        private final String name;
+        private final long length;
+        private final long offset;
+        private final int lineBases;
+        private final int lineBytes;
+    }
+
+    public static File getIndexFile(File fastaFile) {
+        return new File(fastaFile.getPath() + INDEX_FILE_ENDING);
+    }
+
+    public static void write(File fastaFile, List<Entry> entries) throws IOException {
+        Files.write(getIndexFile(fastaFile).toPath(), entries.stream()
+                .map(entry -> entry.name + "\t" + entry.length + "\t" + entry.offset + "\t" + entry.lineBases + "\t" + entry.lineBytes)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Will return the entries of the index of the fasta file or null if there is no index or it is older than the file
+     */
+    public static List<Entry> read(File fastaFile) throws IOException {
+        File indexFile = getIndexFile(fastaFile);
+        if(!indexFile.exists() || indexFile.lastModified() < fastaFile.lastModified()) {
+            return null;
+        }
+        List<Entry> entries = new ArrayList<>();
+        for(String line : Files.readAllLines(indexFile.toPath())) {
+            String[] parts = line.split("\t");
+            if(parts.length != 5) {
+                throw new IOException("Unexpected index line " + line + " in " + indexFile.getName());
+            }
+            entries.add(new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                    Integer.parseInt(parts[3]), Integer.parseInt(parts[4])));
+        }
+        return entries;
+    }
+
+    /**
+     * Will read the sequence data of the record from its offset to the end of the file without the line breaks,
+     * so the file should only contain that record
+     */
+    public static String readSequenceData(File fastaFile, Entry entry) throws IOException {
+        StringBuilder sequenceData = new StringBuilder((int) Math.min(entry.length, Integer.MAX_VALUE - 8));
+        try(FileChannel channel = FileChannel.open(fastaFile.toPath(), StandardOpenOption.READ)) {
+            channel.position(entry.offset);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while(channel.read(buffer) != -1) {
+                buffer.flip();
+                while(buffer.hasRemaining()) {
+                    byte character = buffer.get();
+                    if(character != '\n') {
+                        sequenceData.append((char) character);
+                    }
+                }
+                buffer.clear();
+            }
+        }
+        return sequenceData.toString();
+    }
+
+    /**
+     * Builds the index of a fasta file from its bytes, one at a time in the order of the file
+     */
+    public static class Builder {
+        private final List<Entry> entries = new ArrayList<>();
+        private long position = 0;
+        private boolean atLineStart = true;
+        private boolean inHeader = false;
+        private final StringBuilder header = new StringBuilder();
+
+        private String name = null;
+        private long length;
+        private long offset;
+        private int lineBases;
+        private int lineBytes;
+        private boolean regularLines;
+        private boolean hadShortLine;
+        private int currentLineBases = 0;
+        private int currentLineBytes = 0;
+
+        public void accept(byte character) {
+            position++;
+            if(atLineStart && character == '>') {
+                addEntry();
+                inHeader = true;
+                header.setLength(0);
+                atLineStart = false;
+                return;
+            }
+            if(inHeader) {
+                if(character == '\n') {
+                    inHeader = false;
+                    atLineStart = true;
+                    startEntry();
+                } else {
+                    header.append((char) character);
+                }
+                return;
+            }
+            atLineStart = character == '\n';
+            currentLineBytes++;
+            if(character == '\n') {
+                endLine(true);
+            } else if(character != '\r') {
+                currentLineBases++;
+            }
+        }
+
+        private void startEntry() {
+            String headerLine = header.toString().trim();
+            int nameEnd = headerLine.indexOf(' ');
+            name = nameEnd == -1 ? headerLine : headerLine.substring(0, nameEnd);
+            length = 0;
+            offset = position;
+            lineBases = -1;
+            lineBytes = -1;
+            regularLines = true;
+            hadShortLine = false;
+        }
+
+        private void endLine(boolean hasLineBreak) {
+            if(currentLineBases > 0) {
+                length += currentLineBases;
+                if(lineBases == -1) {
+                    lineBases = currentLineBases;
+                    lineBytes = currentLineBytes;
+                } else if(hadShortLine || currentLineBases > lineBases
+                        || (hasLineBreak && currentLineBytes - currentLineBases != lineBytes - lineBases)) {
+                    regularLines = false;
+                } else if(currentLineBases < lineBases) {
+                    // Only the last line may be shorter
+                    hadShortLine = true;
+                }
+            } else if(lineBases != -1) {
+                // An empty line is only fine at the end of the record
+                hadShortLine = true;
+            }
+            currentLineBases = 0;
+            currentLineBytes = 0;
+        }
+
+        private void addEntry() {
+            if(name != null) {
+                // The last line of the file may not have a line break
+                if(currentLineBytes > 0) {
+                    endLine(false);
+                }
+                boolean seekable = regularLines && lineBases > 0;
+                entries.add(new Entry(name, length, offset, seekable ? lineBases : 0, seekable ? lineBytes : 0));
+                name = null;
+            }
+        }
+
+        /**
+         * Will return the entries of all records, the last one is completed by the end of the file
+         */
+        public List<Entry> build() {
+            addEntry();
+            return entries;
+        }
+    }
+}
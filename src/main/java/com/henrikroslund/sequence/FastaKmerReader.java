@@ -0,0 +1,183 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static com.henrikroslund.sequence.Sequence.RAW_LENGTH;
+
+/**
+ * Reads all windows of RAW_LENGTH bases of a fasta file in a single streaming pass without creating any strings.
+ * The 2 bit encodings of the window and its reverse complement are rolled forward one base at a time so each base
+ * costs a few shifts. The windows are handed to a consumer in fixed size batches which are reused,
+ * so memory does not depend on the length of the genome.
+ *
+ * Line breaks, including \r, are skipped and lower case bases are treated as upper case. Any other character,
+ * for example N, is counted as a position but no window containing it is created. Header lines starting with
+ * '>' are not counted and the bases before and after a header are never part of the same window.
+ * The start index of a window is the number of bases, excluding headers and line breaks, before it.
+ */
+public class FastaKmerReader {
+
+    public static final int DEFAULT_BATCH_SIZE = 1 << 16;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int COMPLEMENT_SHIFT = SequenceEncoding.shift(0);
+
+    /**
+     * The windows read since the batch was last handed to the consumer. The arrays are reused for the next batch
+     * so the consumer must not keep a reference to them.
+     */
+    public static class Batch {
+        private int size = 0;
+        private final int[] startIndexes;
+        private final long[] encoded;
+        private final long[] reverseComplements;
+
+        private Batch(int capacity) {
+            startIndexes = new int[capacity];
+            encoded = new long[capacity];
+            reverseComplements = new long[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getStartIndex(int index) {
+            return startIndexes[index];
+        }
+
+        public long getEncoded(int index) {
+            return encoded[index];
+        }
+
+        /**
+         * The reverse complement starts at the last base of the window on the other strand
+         */
+        public int getComplementStartIndex(int index) {
+            return startIndexes[index] + (RAW_LENGTH - 1);
+        }
+
+        public long getReverseComplement(int index) {
+            return reverseComplements[index];
+        }
+    }
+
+    private final Batch batch;
+    private final Consumer<Batch> consumer;
+
+    private long forward = 0;
+    private long reverseComplement = 0;
+    private int validBases = 0;
+    private int position = 0;
+    private boolean atLineStart = true;
+    private boolean inHeader = false;
+
+    private FastaKmerReader(int batchSize, Consumer<Batch> consumer) {
+        this.batch = new Batch(batchSize);
+        this.consumer = consumer;
+    }
+
+    /**
+     * Will read all windows of the fasta file, which is decompressed while reading if it is compressed
+     */
+    public static void read(Path fastaFile, int batchSize, Consumer<Batch> consumer) throws IOException {
+        FastaKmerReader reader = new FastaKmerReader(batchSize, consumer);
+        try(ReadableByteChannel channel = FastaFiles.open(fastaFile)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while(channel.read(buffer) != -1) {
+                buffer.flip();
+                while(buffer.hasRemaining()) {
+                    reader.accept(buffer.get());
+                }
+                buffer.clear();
+            }
+        }
+        reader.flush();
+    }
+
+    /**
+     * Will read all windows of sequence data which does not contain any header
+     */
+    public static void read(CharSequence sequenceData, int batchSize, Consumer<Batch> consumer) {
+        FastaKmerReader reader = new FastaKmerReader(batchSize, consumer);
+        reader.atLineStart = false;
+        for(int i = 0; i < sequenceData.length(); i++) {
+            reader.accept(sequenceData.charAt(i));
+        }
+        reader.flush();
+    }
+
+    private void accept(int character) {
+        if(character == '\n') {
+            atLineStart = true;
+            inHeader = false;
+            return;
+        }
+        if(character == '\r' || inHeader) {
+            return;
+        }
+        if(atLineStart && character == '>') {
+            inHeader = true;
+            validBases = 0;
+            return;
+        }
+        atLineStart = false;
+
+        int code = SequenceEncoding.code(character);
+        position++;
+        if(code < 0) {
+            validBases = 0;
+            return;
+        }
+        forward = ((forward << SequenceEncoding.BITS_PER_BASE) | code) & SequenceEncoding.RAW_MASK;
+        reverseComplement = (reverseComplement >>> SequenceEncoding.BITS_PER_BASE) | ((long) (code ^ 3) << COMPLEMENT_SHIFT);
+        if(++validBases >= RAW_LENGTH) {
+            add(position - RAW_LENGTH);
+        }
+    }
+
+    private void add(int startIndex) {
+        batch.startIndexes[batch.size] = startIndex;
+        batch.encoded[batch.size] = forward;
+        batch.reverseComplements[batch.size] = reverseComplement;
+        if(++batch.size == batch.startIndexes.length) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if(batch.size > 0) {
+            consumer.accept(batch);
+            batch.size = 0;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.Utils;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prepares a fasta file for the stages by streaming its bytes. A file with multiple records or lower case bases is
+ * rewritten into one file per record, named after the file with the number of the record appended, where the bases
+ * are upper case and empty lines are removed. The original file is then renamed to end with .skip. Empty lines alone
+ * are not a reason to rewrite a file since they are skipped when the file is read.
+ *
+ * The file is read until the first reason to rewrite it is found, so a file which needs no changes is read once
+ * and a file which is rewritten is only read again from the start while being written. A .fai index, see
+ * FastaIndex, is written for each written file so the sequence data can be read from its offset.
+ * A compressed file, see FastaFiles, is decompressed while reading and the files it is rewritten into are not
+ * compressed.
+ */
+@Log
+public class FastaPreprocessor {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    public static final String SKIP_FILE_ENDING = ".skip";
+
+    // Set when a reason to rewrite the file is found while scanning
+    private String rewriteReason = null;
+    private int records = 0;
+    private boolean atLineStart = true;
+    private boolean inHeader = false;
+
+    private FastaPreprocessor() {
+    }
+
+    /**
+     * Will preprocess the fasta file and return the files it was rewritten into, which are written to the output
+     * folder, or an empty list if the file did not need to be changed
+     */
+    public static List<File> preprocess(File fastaFile, String outputFolder) throws Exception {
+        if(!Utils.isFastaFile(fastaFile.getName())) {
+            throw new Exception("Tried to preprocess a non-fasta file " + fastaFile.getName());
+        }
+        FastaPreprocessor preprocessor = new FastaPreprocessor();
+        try(ReadableByteChannel channel = FastaFiles.open(fastaFile.toPath())) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while(preprocessor.rewriteReason == null && channel.read(buffer) != -1) {
+                buffer.flip();
+                while(preprocessor.rewriteReason == null && buffer.hasRemaining()) {
+                    preprocessor.scan(buffer.get());
+                }
+                buffer.clear();
+            }
+            if(preprocessor.rewriteReason == null) {
+                return new ArrayList<>();
+            }
+            log.info("Found " + preprocessor.rewriteReason + " in fasta file so will split file: " + fastaFile.getName());
+            if(Utils.isChromosomeFile(fastaFile.getName())) {
+                throw new Exception("No support for splitting chromosome files at this time!");
+            }
+        }
+        List<File> outputFiles;
+        // A compressed file can not be repositioned so it is opened again to be read from the start
+        try(ReadableByteChannel channel = FastaFiles.open(fastaFile.toPath())) {
+            outputFiles = rewrite(channel, fastaFile, outputFolder);
+        }
+        log.info("Split " + fastaFile.getName() + " into " + outputFiles.size() + " files");
+        File renameFile = new File(fastaFile.getAbsolutePath() + SKIP_FILE_ENDING);
+        if(!fastaFile.renameTo(renameFile)) {
+            throw new Exception("Unable to rename original file: " + fastaFile.getName() + " to " + renameFile.getName());
+        }
+        return outputFiles;
+    }
+
+    private void scan(byte character) {
+        if(atLineStart) {
+            if(character == '>') {
+                if(++records > 1) {
+                    rewriteReason = "multiple genomes";
+                }
+                inHeader = true;
+            }
+        }
+        if(character == '\n') {
+            atLineStart = true;
+            inHeader = false;
+        } else {
+            atLineStart = false;
+            if(!inHeader && character >= 'a' && character <= 'z') {
+                rewriteReason = "lower case letter";
+            }
+        }
+    }
+
+    /**
+     * Will write each record to its own file with upper case bases, without empty lines and \r
+     */
+    private static List<File> rewrite(ReadableByteChannel channel, File fastaFile, String outputFolder) throws Exception {
+        List<File> outputFiles = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer outputBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        FileChannel output = null;
+        FastaIndex.Builder index = null;
+        boolean atLineStart = true;
+        boolean inHeader = false;
+        try {
+            while(channel.read(buffer) != -1) {
+                buffer.flip();
+                while(buffer.hasRemaining()) {
+                    byte character = buffer.get();
+                    if(character == '\r' || (atLineStart && character == '\n')) {
+                        // We remove empty lines
+                        continue;
+                    }
+                    if(atLineStart && character == '>') {
+                        if(output != null) {
+                            close(output, outputBuffer, outputFiles.get(outputFiles.size() - 1), index);
+                        }
+                        String name = fastaFile.getName();
+                        File outputFile = new File(outputFolder + "/" + name.substring(0, name.length() - Utils.getFastaFileEnding(name).length())
+                                + "_" + outputFiles.size() + Utils.FASTA_FILE_ENDING);
+                        if(outputFile.exists()) {
+                            throw new Exception("Did not expect file to already exist while splitting fasta file: " + outputFile);
+                        }
+                        output = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                        index = new FastaIndex.Builder();
+                        outputFiles.add(outputFile);
+                        inHeader = true;
+                    } else if(atLineStart && !inHeader && output == null) {
+                        throw new Exception("Something went wrong trying to split fasta file " + fastaFile.getName());
+                    }
+                    if(character == '\n') {
+                        inHeader = false;
+                    } else if(!inHeader && character >= 'a' && character <= 'z') {
+                        // We modify everything to be upper case except the header
+                        character -= 'a' - 'A';
+                    }
+                    atLineStart = character == '\n';
+                    write(output, outputBuffer, character);
+                    index.accept(character);
+                }
+                buffer.clear();
+            }
+            if(output != null) {
+                if(!atLineStart) {
+                    write(output, outputBuffer, (byte) '\n');
+                    index.accept((byte) '\n');
+                }
+                close(output, outputBuffer, outputFiles.get(outputFiles.size() - 1), index);
+                output = null;
+            }
+        } finally {
+            if(output != null) {
+                output.close();
+            }
+        }
+        return outputFiles;
+    }
+
+    private static void write(FileChannel output, ByteBuffer outputBuffer, byte character) throws IOException {
+        if(!outputBuffer.hasRemaining()) {
+            flush(output, outputBuffer);
+        }
+        outputBuffer.put(character);
+    }
+
+    private static void flush(FileChannel output, ByteBuffer outputBuffer) throws IOException {
+        outputBuffer.flip();
+        while(outputBuffer.hasRemaining()) {
+            output.write(outputBuffer);
+        }
+        outputBuffer.clear();
+    }
+
+    private static void close(FileChannel output, ByteBuffer outputBuffer, File outputFile, FastaIndex.Builder index) throws IOException {
+        flush(output, outputBuffer);
+        output.close();
+        FastaIndex.write(outputFile, index.build());
+    }
+}
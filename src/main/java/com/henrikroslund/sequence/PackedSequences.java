@@ -0,0 +1,366 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.evaluators.comparisons.TypeEvaluator;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Stores a large amount of sequences in parallel primitive columns instead of one Sequence object per sequence.
+ * Each sequence takes 8 bytes for the encoding, 4 bytes for the start index, 1 bit for the strand and
+ * 4 bytes for the genome id which is mapped to a genome name through a small dictionary.
+ * Sequence objects are only created as views when they are requested.
+ *
+ * The columns are buffers so they can either be arrays on the heap which grow when adding or be
+ * memory mapped from a binary genome file, see PackedSequencesFile, in which case the instance is immutable.
+ * The meta data column, one int per type and sequence where -1 means no value, only exists if a sequence
+ * with meta data has been added.
+ *
+ * This class is not thread safe when adding.
+ *
+ * A sorted instance, created with toSortedUnique, contains each encoding only once in ascending order and
+ * is immutable which allows contains to be answered with a binary search. An unsorted instance can be made
+ * immutable with makeImmutable so indexes referring to its positions stay valid.
+ */
+public class PackedSequences extends AbstractCollection<Sequence> {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    static final int META_DATA_TYPES = TypeEvaluator.Type.values().length;
+    static final int NO_META_DATA = -1;
+
+    private LongBuffer encoded;
+    private IntBuffer startIndexes;
+    private IntBuffer genomeIds;
+    private IntBuffer metaData = null;
+    private final BitSet complements;
+    private int size = 0;
+    private boolean sorted = false;
+    private boolean immutable = false;
+
+    private final List<String> genomeNames = new ArrayList<>();
+    private final Map<String, Integer> genomeNameIds = new HashMap<>();
+
+    public PackedSequences() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PackedSequences(int initialCapacity) {
+        initialCapacity = Math.max(initialCapacity, 1);
+        encoded = LongBuffer.allocate(initialCapacity);
+        startIndexes = IntBuffer.allocate(initialCapacity);
+        genomeIds = IntBuffer.allocate(initialCapacity);
+        complements = new BitSet(initialCapacity);
+    }
+
+    /**
+     * Will create an immutable instance backed by the columns, for example memory mapped from a file
+     */
+    PackedSequences(int size, LongBuffer encoded, IntBuffer startIndexes, IntBuffer genomeIds, BitSet complements,
+                    IntBuffer metaData, List<String> genomeNames, boolean sorted) {
+        this.size = size;
+        this.encoded = encoded;
+        this.startIndexes = startIndexes;
+        this.genomeIds = genomeIds;
+        this.complements = complements;
+        this.metaData = metaData;
+        genomeNames.forEach(this::getGenomeId);
+        this.sorted = sorted;
+        this.immutable = true;
+    }
+
+    @Override
+    public boolean add(Sequence sequence) {
+        add(sequence.getEncoded(), sequence.getStartIndex(), sequence.getIsComplement(), sequence.getGenome());
+        if(sequence.hasMetaData()) {
+            setMetaData(size - 1, sequence.getMetaData());
+        }
+        return true;
+    }
+
+    public void add(long encoding, int startIndex, boolean isComplement, String genome) {
+        add(encoding, startIndex, isComplement, getGenomeId(genome));
+    }
+
+    public void add(long encoding, int startIndex, boolean isComplement, int genomeId) {
+        if(immutable) {
+            throw new UnsupportedOperationException("Sequences are immutable");
+        }
+        if(size == encoded.capacity()) {
+            grow();
+        }
+        encoded.put(size, encoding);
+        startIndexes.put(size, startIndex);
+        genomeIds.put(size, genomeId);
+        if(isComplement) {
+            complements.set(size);
+        }
+        size++;
+    }
+
+    private void setMetaData(int index, Map<TypeEvaluator.Type, Integer> values) {
+        if(metaData == null) {
+            metaData = IntBuffer.allocate(encoded.capacity() * META_DATA_TYPES);
+            Arrays.fill(metaData.array(), NO_META_DATA);
+        }
+        values.forEach((type, value) -> metaData.put(index * META_DATA_TYPES + type.ordinal(), value));
+    }
+
+    /**
+     * Will add all the sequences of the other instance without creating any Sequence objects
+     */
+    public void append(PackedSequences other) {
+        int[] genomeIdMapping = new int[other.genomeNames.size()];
+        for(int i = 0; i < genomeIdMapping.length; i++) {
+            genomeIdMapping[i] = getGenomeId(other.genomeNames.get(i));
+        }
+        ensureCapacity(size + other.size);
+        for(int i = 0; i < other.size; i++) {
+            add(other.getEncoded(i), other.getStartIndex(i), other.getIsComplement(i), genomeIdMapping[other.getGenomeId(i)]);
+            if(other.hasMetaData(i)) {
+                setMetaData(size - 1, other.getMetaData(i));
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        while(encoded.capacity() < capacity) {
+            grow();
+        }
+    }
+
+    /**
+     * Will return a new sorted instance with only one sequence per encoding. When the same encoding has been
+     * added multiple times the one added first is kept, so the result does not depend on the order
+     * in which parallel threads happened to add sequences to the chunks that were appended.
+     */
+    public PackedSequences toSortedUnique() {
+        long[] keys = new long[size];
+        encoded.get(0, keys);
+        Arrays.parallelSort(keys);
+        int unique = 0;
+        for(int i = 0; i < keys.length; i++) {
+            if(unique == 0 || keys[i] != keys[unique-1]) {
+                keys[unique++] = keys[i];
+            }
+        }
+        final int uniqueKeys = unique;
+
+        // Holds the index+1 of the first added sequence for each key so that 0 can mean not yet set
+        AtomicIntegerArray firstAdded = new AtomicIntegerArray(uniqueKeys);
+        IntStream.range(0, size).parallel().forEach(i -> {
+            int key = Arrays.binarySearch(keys, 0, uniqueKeys, encoded.get(i));
+            firstAdded.accumulateAndGet(key, i+1, (current, added) -> current == 0 ? added : Math.min(current, added));
+        });
+
+        PackedSequences result = new PackedSequences(uniqueKeys);
+        result.genomeNames.addAll(genomeNames);
+        result.genomeNameIds.putAll(genomeNameIds);
+        for(int key = 0; key < uniqueKeys; key++) {
+            int i = firstAdded.get(key) - 1;
+            result.add(keys[key], getStartIndex(i), getIsComplement(i), getGenomeId(i));
+            if(hasMetaData(i)) {
+                result.setMetaData(key, getMetaData(i));
+            }
+        }
+        result.sorted = true;
+        result.immutable = true;
+        return result;
+    }
+
+    public void makeImmutable() {
+        immutable = true;
+    }
+
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Will return the index of the encoding or a negative value if it does not exist
+     */
+    public int indexOf(long encoding) {
+        if(sorted) {
+            int low = 0;
+            int high = size - 1;
+            while(low <= high) {
+                int middle = (low + high) >>> 1;
+                long value = encoded.get(middle);
+                if(value < encoding) {
+                    low = middle + 1;
+                } else if(value > encoding) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+        for(int i = 0; i < size; i++) {
+            if(encoded.get(i) == encoding) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object object) {
+        if(object instanceof Sequence) {
+            return indexOf(((Sequence) object).getEncoded()) >= 0;
+        }
+        return false;
+    }
+
+    private void grow() {
+        int capacity = encoded.capacity() + (encoded.capacity() >> 1) + 1;
+        encoded = LongBuffer.wrap(Arrays.copyOf(encoded.array(), capacity));
+        startIndexes = IntBuffer.wrap(Arrays.copyOf(startIndexes.array(), capacity));
+        genomeIds = IntBuffer.wrap(Arrays.copyOf(genomeIds.array(), capacity));
+        if(metaData != null) {
+            int previousLength = metaData.capacity();
+            int[] grown = Arrays.copyOf(metaData.array(), capacity * META_DATA_TYPES);
+            Arrays.fill(grown, previousLength, grown.length, NO_META_DATA);
+            metaData = IntBuffer.wrap(grown);
+        }
+    }
+
+    /**
+     * Will return the id of the genome name and add it to the dictionary if it does not exist
+     */
+    public int getGenomeId(String genome) {
+        return genomeNameIds.computeIfAbsent(genome, name -> {
+            genomeNames.add(name);
+            return genomeNames.size() - 1;
+        });
+    }
+
+    public String getGenomeName(int genomeId) {
+        return genomeNames.get(genomeId);
+    }
+
+    List<String> getGenomeNames() {
+        return Collections.unmodifiableList(genomeNames);
+    }
+
+    public long getEncoded(int index) {
+        return encoded.get(index);
+    }
+
+    public int getStartIndex(int index) {
+        return startIndexes.get(index);
+    }
+
+    public boolean getIsComplement(int index) {
+        return complements.get(index);
+    }
+
+    public int getGenomeId(int index) {
+        return genomeIds.get(index);
+    }
+
+    public boolean hasMetaData() {
+        return metaData != null;
+    }
+
+    public boolean hasMetaData(int index) {
+        if(metaData == null) {
+            return false;
+        }
+        for(int type = 0; type < META_DATA_TYPES; type++) {
+            if(metaData.get(index * META_DATA_TYPES + type) != NO_META_DATA) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getMetaDataValue(int index, int type) {
+        return metaData == null ? NO_META_DATA : metaData.get(index * META_DATA_TYPES + type);
+    }
+
+    /**
+     * Will return a new map with the meta data of the sequence at the index or null if it has none
+     */
+    public Map<TypeEvaluator.Type, Integer> getMetaData(int index) {
+        if(!hasMetaData(index)) {
+            return null;
+        }
+        Map<TypeEvaluator.Type, Integer> result = new HashMap<>();
+        for(TypeEvaluator.Type type : TypeEvaluator.Type.values()) {
+            int value = metaData.get(index * META_DATA_TYPES + type.ordinal());
+            if(value != NO_META_DATA) {
+                result.put(type, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Will create a new Sequence view of the sequence at the index
+     */
+    public Sequence get(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return new Sequence(getEncoded(index), getStartIndex(index), genomeNames.get(getGenomeId(index)),
+                getIsComplement(index), getMetaData(index));
+    }
+
+    @Override
+    public Iterator<Sequence> iterator() {
+        return new Iterator<>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Sequence next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,279 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Reads and writes PackedSequences in a versioned binary format where every column is stored with a fixed width
+ * so that loading is a memory mapping of the file without any parsing.
+ *
+ * All values are little endian. The file starts with a header:
+ *   int magic, int version, int flags, int size, int meta data types,
+ *   the first row of the genome and the genome name dictionary as length prefixed UTF-8 strings
+ *   where the dictionary is prefixed by the number of names.
+ * The header is padded to a multiple of 8 bytes and followed by the columns, each padded to 8 bytes:
+ *   long[size] encoded, int[size] start indexes, int[size] genome ids, long[(size+63)/64] complement bits
+ *   and, if the meta data flag is set, int[size * meta data types] meta data where -1 means no value.
+ */
+@Log
+public class PackedSequencesFile {
+
+    private static final int MAGIC = 0x4E454743; // "CGEN" in little endian
+    public static final int VERSION = 1;
+    private static final int FLAG_SORTED = 1;
+    private static final int FLAG_META_DATA = 1 << 1;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    @Getter
+    private final String firstRow;
+    @Getter
+    private final PackedSequences sequences;
+
+    private PackedSequencesFile(String firstRow, PackedSequences sequences) {
+        this.firstRow = firstRow;
+        this.sequences = sequences;
+    }
+
+    /**
+     * Will map the file into memory. The returned sequences are immutable and backed by the file, only the
+     * genome name dictionary and the complement bits are copied to the heap.
+     */
+    public static PackedSequencesFile open(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = readHeader(channel, path);
+            long offset = header.length;
+            int size = header.size;
+
+            LongBuffer encoded = map(channel, offset, (long) size * Long.BYTES).asLongBuffer();
+            offset += padded((long) size * Long.BYTES);
+            IntBuffer startIndexes = map(channel, offset, (long) size * Integer.BYTES).asIntBuffer();
+            offset += padded((long) size * Integer.BYTES);
+            IntBuffer genomeIds = map(channel, offset, (long) size * Integer.BYTES).asIntBuffer();
+            offset += padded((long) size * Integer.BYTES);
+            long complementBytes = (long) complementWords(size) * Long.BYTES;
+            BitSet complements = BitSet.valueOf(map(channel, offset, complementBytes).asLongBuffer());
+            offset += complementBytes;
+            IntBuffer metaData = null;
+            if((header.flags & FLAG_META_DATA) != 0) {
+                metaData = map(channel, offset, (long) size * header.metaDataTypes * Integer.BYTES).asIntBuffer();
+            }
+
+            PackedSequences sequences = new PackedSequences(size, encoded, startIndexes, genomeIds, complements,
+                    metaData, header.genomeNames, (header.flags & FLAG_SORTED) != 0);
+            return new PackedSequencesFile(header.firstRow, sequences);
+        }
+    }
+
+    /**
+     * Will only read the header to get the first row, which is much cheaper than mapping the whole file
+     */
+    public static String readFirstRow(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readHeader(channel, path).firstRow;
+        }
+    }
+
+    /**
+     * @param sorted should only be true if the sequences are unique and in ascending order of their encoding
+     *               since a sorted file is searched with a binary search when loaded.
+     */
+    public static void write(Path path, String firstRow, PackedSequences sequences, boolean sorted) throws IOException {
+        int size = sequences.size();
+        boolean hasMetaData = sequences.hasMetaData();
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt((sorted ? FLAG_SORTED : 0) | (hasMetaData ? FLAG_META_DATA : 0));
+            buffer.putInt(size);
+            buffer.putInt(PackedSequences.META_DATA_TYPES);
+            putString(channel, buffer, firstRow);
+            List<String> genomeNames = sequences.getGenomeNames();
+            putInt(channel, buffer, genomeNames.size());
+            for(String genomeName : genomeNames) {
+                putString(channel, buffer, genomeName);
+            }
+            pad(channel, buffer);
+
+            for(int i = 0; i < size; i++) {
+                flushIfFull(channel, buffer, Long.BYTES);
+                buffer.putLong(sequences.getEncoded(i));
+            }
+            pad(channel, buffer);
+            for(int i = 0; i < size; i++) {
+                flushIfFull(channel, buffer, Integer.BYTES);
+                buffer.putInt(sequences.getStartIndex(i));
+            }
+            pad(channel, buffer);
+            for(int i = 0; i < size; i++) {
+                flushIfFull(channel, buffer, Integer.BYTES);
+                buffer.putInt(sequences.getGenomeId(i));
+            }
+            pad(channel, buffer);
+            for(int word = 0; word < complementWords(size); word++) {
+                long bits = 0;
+                for(int bit = 0; bit < Long.SIZE && word * Long.SIZE + bit < size; bit++) {
+                    if(sequences.getIsComplement(word * Long.SIZE + bit)) {
+                        bits |= 1L << bit;
+                    }
+                }
+                flushIfFull(channel, buffer, Long.BYTES);
+                buffer.putLong(bits);
+            }
+            if(hasMetaData) {
+                for(int i = 0; i < size; i++) {
+                    for(int type = 0; type < PackedSequences.META_DATA_TYPES; type++) {
+                        flushIfFull(channel, buffer, Integer.BYTES);
+                        buffer.putInt(sequences.getMetaDataValue(i, type));
+                    }
+                }
+                pad(channel, buffer);
+            }
+            flush(channel, buffer);
+        }
+        log.info(String.format("Wrote %,d to \"" + path.getFileName() + "\"", size));
+    }
+
+    private static Header readHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer fixed = readFully(channel, 0, 5 * Integer.BYTES);
+        if(fixed.getInt() != MAGIC) {
+            throw new IOException("Not a binary genome file: " + path);
+        }
+        int version = fixed.getInt();
+        if(version != VERSION) {
+            throw new IOException("Unsupported binary genome version " + version + " in " + path + ", expected " + VERSION);
+        }
+        Header header = new Header();
+        header.flags = fixed.getInt();
+        header.size = fixed.getInt();
+        header.metaDataTypes = fixed.getInt();
+        if((header.flags & FLAG_META_DATA) != 0 && header.metaDataTypes != PackedSequences.META_DATA_TYPES) {
+            throw new IOException("Binary genome " + path + " has " + header.metaDataTypes
+                    + " meta data types but expected " + PackedSequences.META_DATA_TYPES);
+        }
+        long offset = 5 * Integer.BYTES;
+        int length = readFully(channel, offset, Integer.BYTES).getInt();
+        header.firstRow = new String(readFully(channel, offset + Integer.BYTES, length).array(), StandardCharsets.UTF_8);
+        offset += Integer.BYTES + length;
+        int genomeNames = readFully(channel, offset, Integer.BYTES).getInt();
+        offset += Integer.BYTES;
+        for(int i = 0; i < genomeNames; i++) {
+            length = readFully(channel, offset, Integer.BYTES).getInt();
+            header.genomeNames.add(new String(readFully(channel, offset + Integer.BYTES, length).array(), StandardCharsets.UTF_8));
+            offset += Integer.BYTES + length;
+        }
+        header.length = padded(offset);
+        return header;
+    }
+
+    private static class Header {
+        private int flags;
+        private int size;
+        private int metaDataTypes;
+        private String firstRow;
+        private final List<String> genomeNames = new ArrayList<>();
+        private long length;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of binary genome file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        return mapped.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int complementWords(int size) {
+        return (size + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    private static long padded(long length) {
+        return (length + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    private static void putInt(FileChannel channel, ByteBuffer buffer, int value) throws IOException {
+        flushIfFull(channel, buffer, Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    private static void putString(FileChannel channel, ByteBuffer buffer, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(channel, buffer, bytes.length);
+        for(byte b : bytes) {
+            flushIfFull(channel, buffer, 1);
+            buffer.put(b);
+        }
+    }
+
+    /**
+     * Will pad with zeros so the next column starts at a multiple of 8 bytes from the start of the file
+     */
+    private static void pad(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long written = channel.position() + buffer.position();
+        for(long i = written; i < padded(written); i++) {
+            flushIfFull(channel, buffer, 1);
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static void flushIfFull(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if(buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
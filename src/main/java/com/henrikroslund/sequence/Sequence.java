@@ -30,33 +30,26 @@ import com.henrikroslund.Utils;
 import com.henrikroslund.evaluators.comparisons.TypeEvaluator;
 import com.henrikroslund.exceptions.InvalidSequenceException;
 import lombok.Getter;
-import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.extern.java.Log;
 
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 
 /**
  * This class represents a sequence.
  * A sequence consists of two parts, PAM and TARGET and is exactly PAM length + TARGET length = 24 characters long.
- * A sequence is valid if both PAM and TARGET is valid.
- * A PAM is valid if there is a match for PAM_MATCH_REGEXP
- * A TARGET is valid if the number of TARGET_MATCH_PATTERN matches are within TARGET_MATCH_MIN and TARGET_MATCH_MAX (inclusive).
+ * The raw characters are not stored but are packed into a single long, see SequenceEncoding, so a sequence
+ * is a thin view of an encoding together with its location. For large amount of sequences the PackedSequences
+ * class should be used instead to avoid having one object per sequence.
  */
 @Log
 public class Sequence implements Comparable<Sequence> {
 
-    @Getter
-    private final String raw;
-
-    private int pamHash = 0;
-    private int seedHash = 0;
-    private int i10t17Hash = 0;
-    private int i18t23Hash = 0;
-
     public static final int PAM_INDEX_START = 0;
     public static final int PAM_LENGTH = 4;
 
@@ -74,72 +67,133 @@ public class Sequence implements Comparable<Sequence> {
     public static final int N7_INDEX = TARGET_INDEX_START + 6;
     public static final int N20_INDEX = TARGET_INDEX_START + 19;
 
-    // Will only be initialized on first get
-    private Integer gcCount = null;
+    @Getter
+    private final long encoded;
 
     // Index of start of sequence. The index is always based on the positive strand.
     @Getter
     private final int startIndex;
-    @Getter
-    private final int endIndex;
 
     private final boolean isComplement;
 
     @Getter
     private final String genome;
 
-    // metaData is created upon first get to save memory
-    @Setter
-    private Map<TypeEvaluator.Type, Integer> metaData;
+    // Counters indexed by the ordinal of TypeEvaluator.Type which are created upon first use to save memory.
+    // The counters are atomic so matches can be counted from parallel streams without taking any locks.
+    // A type without a value, for example when parsed from a string with only some types, has NO_META_DATA.
+    private volatile AtomicIntegerArray metaData;
+    private static final AtomicReferenceFieldUpdater<Sequence, AtomicIntegerArray> META_DATA_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Sequence.class, AtomicIntegerArray.class, "metaData");
+    private static final int NO_META_DATA = -1;
+    private static final TypeEvaluator.Type[] META_DATA_TYPES = TypeEvaluator.Type.values();
 
-    @SneakyThrows
     public Sequence(String raw, int startIndex, String genome) {
         this(raw, startIndex, genome, false);
     }
 
-    @SneakyThrows
     public Sequence(String raw, int startIndex, String genome, boolean isComplement) {
         this(raw, startIndex, genome, isComplement, null);
     }
 
-    @SneakyThrows
     public Sequence(String raw, int startIndex, String genome, boolean isComplement, Map<TypeEvaluator.Type, Integer> metaData) {
-        if(raw.length() != RAW_LENGTH) {
-            throw new InvalidSequenceException("Raw sequence has length " + raw.length() + " but expected " + RAW_LENGTH);
-        }
-        this.raw = raw;
+        this(encodeRaw(raw), startIndex, genome, isComplement, metaData);
+    }
+
+    public Sequence(long encoded, int startIndex, String genome, boolean isComplement) {
+        this(encoded, startIndex, genome, isComplement, null);
+    }
+
+    public Sequence(long encoded, int startIndex, String genome, boolean isComplement, Map<TypeEvaluator.Type, Integer> metaData) {
+        this.encoded = encoded;
         this.startIndex = startIndex;
-        this.endIndex = startIndex + RAW_LENGTH - 1;
         this.genome = genome;
         this.isComplement = isComplement;
-        this.metaData = metaData;
+        setMetaData(metaData);
+    }
+
+    @SneakyThrows
+    private static long encodeRaw(String raw) {
+        if(raw.length() != RAW_LENGTH) {
+            throw new InvalidSequenceException("Raw sequence has length " + raw.length() + " but expected " + RAW_LENGTH);
+        }
+        long encoded = SequenceEncoding.encode(raw);
+        if(encoded == SequenceEncoding.INVALID) {
+            throw new InvalidSequenceException("Raw sequence contains characters other than A, C, G and T: " + raw);
+        }
+        return encoded;
     }
 
+    public String getRaw() {
+        return SequenceEncoding.decode(encoded);
+    }
+
+    public int getEndIndex() {
+        return startIndex + RAW_LENGTH - 1;
+    }
+
+    /**
+     * Will return a copy of the meta data. If the sequence has no meta data all types are first set to 0.
+     */
     public Map<TypeEvaluator.Type, Integer> getMetaData() {
-        if(metaData == null) {
-            metaData = new HashMap<>();
-            for(TypeEvaluator.Type type : TypeEvaluator.Type.values()) {
-                metaData.put(type, 0);
+        AtomicIntegerArray counters = getMetaDataCounters();
+        Map<TypeEvaluator.Type, Integer> result = new EnumMap<>(TypeEvaluator.Type.class);
+        for(TypeEvaluator.Type type : META_DATA_TYPES) {
+            int value = counters.get(type.ordinal());
+            if(value != NO_META_DATA) {
+                result.put(type, value);
             }
         }
-        return metaData;
+        return result;
+    }
+
+    /**
+     * Will return the value of the type or null if the sequence has no value for it
+     */
+    public Integer getMetaData(TypeEvaluator.Type type) {
+        int value = getMetaDataCounters().get(type.ordinal());
+        return value == NO_META_DATA ? null : value;
+    }
+
+    public void setMetaData(Map<TypeEvaluator.Type, Integer> values) {
+        if(values == null) {
+            metaData = null;
+            return;
+        }
+        AtomicIntegerArray counters = new AtomicIntegerArray(META_DATA_TYPES.length);
+        for(TypeEvaluator.Type type : META_DATA_TYPES) {
+            counters.set(type.ordinal(), values.getOrDefault(type, NO_META_DATA));
+        }
+        metaData = counters;
     }
 
-    // This method is synchronized because it is not thread safe
-    public synchronized void increaseMetaDataCounters(List<TypeEvaluator.Type> keys) {
-        keys.forEach(key -> {
-            Integer value = getMetaData().get(key);
-            value++;
-            metaData.put(key, value);
-        });
+    public boolean hasMetaData() {
+        return metaData != null;
+    }
+
+    private AtomicIntegerArray getMetaDataCounters() {
+        AtomicIntegerArray counters = metaData;
+        if(counters == null) {
+            // All types start at 0. If another thread created the counters first those are used instead.
+            META_DATA_UPDATER.compareAndSet(this, null, new AtomicIntegerArray(META_DATA_TYPES.length));
+            counters = metaData;
+        }
+        return counters;
+    }
+
+    public void increaseMetaDataCounters(List<TypeEvaluator.Type> keys) {
+        AtomicIntegerArray counters = getMetaDataCounters();
+        for(TypeEvaluator.Type key : keys) {
+            counters.getAndUpdate(key.ordinal(), value -> value == NO_META_DATA ? 1 : value + 1);
+        }
     }
 
     public boolean equalsPam(Sequence sequence) {
-        return this.getPamHash() == sequence.getPamHash();
+        return SequenceEncoding.equals(encoded, sequence.encoded, SequenceEncoding.PAM_MASK);
     }
 
     public boolean equalsSeed(Sequence sequence) {
-        return this.getSeedHash() == sequence.getSeedHash();
+        return SequenceEncoding.equals(encoded, sequence.encoded, SequenceEncoding.SEED_MASK);
     }
 
     public boolean getIsComplement() {
@@ -174,25 +228,30 @@ public class Sequence implements Comparable<Sequence> {
     }
 
     public Sequence getComplement() {
-        return new Sequence(getComplement(raw), startIndex +(RAW_LENGTH-1), genome, true);
+        return new Sequence(SequenceEncoding.reverseComplement(encoded), startIndex +(RAW_LENGTH-1), genome, true);
     }
 
     public String metaDataToString() {
-        if(metaData == null) {
-            return "";
-        }
-        if(metaData.isEmpty()) {
+        AtomicIntegerArray counters = metaData;
+        if(counters == null) {
             return "";
         }
         StringBuilder result = new StringBuilder(120);
-        metaData.forEach((s, s2) -> result.append(s).append("=").append(s2).append("&"));
-        result.deleteCharAt(result.length()-1);
+        for(TypeEvaluator.Type type : META_DATA_TYPES) {
+            int value = counters.get(type.ordinal());
+            if(value != NO_META_DATA) {
+                result.append(type).append("=").append(value).append("&");
+            }
+        }
+        if(result.length() > 0) {
+            result.deleteCharAt(result.length()-1);
+        }
         return result.toString();
     }
 
     public static Map<TypeEvaluator.Type, Integer> stringToMetaData(String metaString) {
         String[] metaDatas = metaString.split("&");
-        Map<TypeEvaluator.Type, Integer> result = new HashMap<>();
+        Map<TypeEvaluator.Type, Integer> result = new EnumMap<>(TypeEvaluator.Type.class);
         for (String data : metaDatas) {
             String[] parts = data.split("=");
             result.put(TypeEvaluator.Type.valueOf(parts[0]), Integer.valueOf(parts[1]));
@@ -211,7 +270,7 @@ public class Sequence implements Comparable<Sequence> {
             // This operation is expensive so we only do it during serialization
             genomeName = Utils.getStringWithoutWhitespaces(genome);
         }
-        return raw + " " + (isComplement ? "-" : "+") + " " + startIndex + " " + (genomeName != null ? genomeName : "NAME_UNAVAILABLE") + " " + metaDataToString();
+        return getRaw() + " " + (isComplement ? "-" : "+") + " " + startIndex + " " + (genomeName != null ? genomeName : "NAME_UNAVAILABLE") + " " + metaDataToString();
     }
 
     public String serialize() {
@@ -230,87 +289,19 @@ public class Sequence implements Comparable<Sequence> {
     }
 
     /**
-     * Since we want two sequences to be considered equal when we add two
-     * sequences to a treeset with same raw string - then we must only
-     * compare the hashes here
+     * Sequences are ordered by their encoding which is the same order as the raw strings.
+     * Two sequences with the same raw string are considered equal regardless of location.
      */
     @Override
     public int compareTo(Sequence o) {
-        if(getPamHash() > o.getPamHash()) {
-            return 1;
-        } else if(getPamHash() < o.getPamHash()) {
-            return -1;
-        }
-
-        if(getSeedHash() > o.getSeedHash()) {
-            return 1;
-        } else if(getSeedHash() < o.getSeedHash()) {
-            return -1;
-        }
-
-        if(getI10t17Hash() > o.getI10t17Hash()) {
-            return 1;
-        } else if(getI10t17Hash() < o.getI10t17Hash()) {
-            return -1;
-        }
-
-        if(getI18t23Hash() > o.getI18t23Hash()) {
-            return 1;
-        } else if(getI18t23Hash() < o.getI18t23Hash()) {
-            return -1;
-        }
-
-        return 0;
+        return Long.compare(encoded, o.encoded);
     }
 
     /**
      * Will return GC count excluding PAM
      */
     public int getGCCount() {
-        if(gcCount == null) {
-            int count = 0;
-            for(int i=Sequence.PAM_LENGTH; i<RAW_LENGTH; i++) {
-                char currentChar = raw.charAt(i);
-                if(currentChar == 'G' || currentChar == 'C') {
-                    count++;
-                }
-            }
-            gcCount = count;
-        }
-        return gcCount;
-    }
-
-    // The raw hash should never be used as it has large amounts of hash collisions
-    private int getRawHash() {
-        return raw.hashCode();
-    }
-
-    public int getPamHash() {
-        if(this.pamHash == 0) {
-            this.pamHash = raw.substring(PAM_INDEX_START, PAM_LENGTH).hashCode();
-        }
-        return pamHash;
-    }
-
-    public int getSeedHash() {
-        if(this.seedHash == 0) {
-            this.seedHash = raw.substring(SEED_INDEX_START, SEED_INDEX_END+1).hashCode();
-        }
-        return seedHash;
-    }
-
-    private int getI10t17Hash() {
-        if(this.i10t17Hash == 0) {
-            this.i10t17Hash = raw.substring(10, 17+1).hashCode();
-        }
-        return this.i10t17Hash;
-    }
-
-    private int getI18t23Hash() {
-        if(this.i18t23Hash == 0) {
-            this.i18t23Hash = raw.substring(18).hashCode();
-        }
-        return i18t23Hash;
+        return SequenceEncoding.gcCount(encoded, SequenceEncoding.TARGET_MASK);
     }
 
     @Override
@@ -318,18 +309,11 @@ public class Sequence implements Comparable<Sequence> {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Sequence sequence = (Sequence) o;
-        // Because of so many hash collisions with the raw string we instead split that into subsection we know
-        // do not have any collisions and then we check all of those.
-        // We do this instead of comparing the characters one by one as that would have a higher performance
-        // impact when running huge amount of equals.
-        return getRawHash() == sequence.getRawHash() && getPamHash() == sequence.getPamHash() &&
-                getI10t17Hash() == sequence.getI10t17Hash() && getI18t23Hash() == sequence.getI18t23Hash();
+        return encoded == sequence.encoded;
     }
 
     @Override
     public int hashCode() {
-        log.severe("hashCode must never be used in sequence as it is not reliable");
-        System.exit(1);
-        return 0;
+        return Long.hashCode(encoded);
     }
 }
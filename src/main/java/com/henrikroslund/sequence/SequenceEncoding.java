@@ -0,0 +1,188 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.Arrays;
+
+import static com.henrikroslund.sequence.Sequence.*;
+
+/**
+ * Packs a sequence into a single long using 2 bits per base (A=0, C=1, G=2, T=3).
+ * The first character of the raw sequence is stored in the most significant bits so that
+ * comparing two encoded values gives the same order as comparing the raw strings.
+ * Only the lowest RAW_LENGTH * 2 bits are used which means that a valid encoding is never negative.
+ */
+public final class SequenceEncoding {
+
+    public static final int BITS_PER_BASE = 2;
+
+    public static final int A = 0;
+    public static final int C = 1;
+    public static final int G = 2;
+    public static final int T = 3;
+
+    // Returned when a sequence contains characters which can not be encoded, for example N
+    public static final long INVALID = -1;
+
+    public static final long RAW_MASK = (1L << (RAW_LENGTH * BITS_PER_BASE)) - 1;
+    // The lowest bit of every base
+    public static final long LOW_BITS = 0x5555555555555555L & RAW_MASK;
+
+    public static final long PAM_MASK = rangeMask(PAM_INDEX_START, PAM_LENGTH - 1);
+    public static final long SEED_MASK = rangeMask(SEED_INDEX_START, SEED_INDEX_END);
+    public static final long TARGET_MASK = rangeMask(TARGET_INDEX_START, RAW_INDEX_END);
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    private static final byte[] CODES = new byte[128];
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for(int code = 0; code < BASES.length; code++) {
+            CODES[BASES[code]] = (byte) code;
+            CODES[Character.toLowerCase(BASES[code])] = (byte) code;
+        }
+    }
+
+    private SequenceEncoding() {
+    }
+
+    /**
+     * Will return the 2 bit code of the character or -1 if it is not one of {A,C,G,T} (case-insensitive)
+     */
+    public static int code(int character) {
+        return character < CODES.length && character >= 0 ? CODES[character] : -1;
+    }
+
+    public static char base(int code) {
+        return BASES[code];
+    }
+
+    /**
+     * The number of bits the base at index must be shifted right to end up in the lowest 2 bits
+     */
+    public static int shift(int index) {
+        return (RAW_INDEX_END - index) * BITS_PER_BASE;
+    }
+
+    /**
+     * Will return a mask with both bits set for all bases from start to end (inclusive)
+     */
+    public static long rangeMask(int start, int end) {
+        long mask = 0;
+        for(int i = start; i <= end; i++) {
+            mask |= 3L << shift(i);
+        }
+        return mask;
+    }
+
+    public static long encode(CharSequence raw) {
+        if(raw.length() != RAW_LENGTH) {
+            return INVALID;
+        }
+        return encode(raw, 0);
+    }
+
+    /**
+     * Will encode RAW_LENGTH characters starting at offset or return INVALID if
+     * any of the characters is not a base.
+     */
+    public static long encode(CharSequence data, int offset) {
+        long encoded = 0;
+        for(int i = offset; i < offset + RAW_LENGTH; i++) {
+            int code = code(data.charAt(i));
+            if(code < 0) {
+                return INVALID;
+            }
+            encoded = (encoded << BITS_PER_BASE) | code;
+        }
+        return encoded;
+    }
+
+    public static String decode(long encoded) {
+        char[] raw = new char[RAW_LENGTH];
+        for(int i = 0; i < RAW_LENGTH; i++) {
+            raw[i] = BASES[codeAt(encoded, i)];
+        }
+        return new String(raw);
+    }
+
+    public static int codeAt(long encoded, int index) {
+        return (int) (encoded >>> shift(index)) & 3;
+    }
+
+    /**
+     * Will return the reverse complement. Since A=0 T=3 C=1 G=2 the complement
+     * of a base is simply the inverse of its two bits.
+     */
+    public static long reverseComplement(long encoded) {
+        long reversed = Long.reverse(encoded) >>> (Long.SIZE - RAW_LENGTH * BITS_PER_BASE);
+        // Long.reverse also swaps the two bits within each base so swap them back
+        reversed = ((reversed >>> 1) & LOW_BITS) | ((reversed & LOW_BITS) << 1);
+        return reversed ^ RAW_MASK;
+    }
+
+    public static boolean equals(long encoded, long other, long mask) {
+        return ((encoded ^ other) & mask) == 0;
+    }
+
+    /**
+     * Will return a long where the lowest bit of every base that differs between the two encodings is set
+     */
+    public static long mismatchBits(long encoded, long other) {
+        long difference = encoded ^ other;
+        return (difference | (difference >>> 1)) & LOW_BITS;
+    }
+
+    /**
+     * Will return the number of bases within the mask that differs between the two encodings
+     */
+    public static int mismatches(long encoded, long other, long mask) {
+        return Long.bitCount(mismatchBits(encoded, other) & mask);
+    }
+
+    /**
+     * Will return the length of the longest run of consecutive bases which are set in bits.
+     * Each iteration removes the last base of every run so the number of iterations is the longest run.
+     */
+    public static int longestRun(long bits) {
+        bits &= LOW_BITS;
+        int longest = 0;
+        while(bits != 0) {
+            bits &= bits >>> BITS_PER_BASE;
+            longest++;
+        }
+        return longest;
+    }
+
+    /**
+     * Will return the number of G and C bases within the mask. G=10 and C=01 are the only
+     * codes where the two bits differ.
+     */
+    public static int gcCount(long encoded, long mask) {
+        return Long.bitCount((encoded ^ (encoded >>> 1)) & LOW_BITS & mask);
+    }
+}
@@ -0,0 +1,267 @@
+package com.henrikroslund;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.evaluators.comparisons.TypeEvaluator;
+import com.henrikroslund.pipeline.Pipeline;
+import com.henrikroslund.pipeline.stage.Stage;
+import com.henrikroslund.sequence.Sequence;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CheckpointTest {
+
+    private static final File CHROMOSOME_1 = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+    private static final String INPUT_FOLDER = "src/test/resources/serotype_stage_test";
+
+    private Path getCheckpointDirectory(String name) throws Exception {
+        File directory = new File("target/tmp/" + name);
+        FileUtils.deleteDirectory(directory);
+        return directory.toPath();
+    }
+
+    private static List<String> describe(Genome genome) {
+        return genome.getSequences().stream().map(Sequence::toString).collect(Collectors.toList());
+    }
+
+    private static Genome createCandidates() throws Exception {
+        Genome genome = new Genome(CHROMOSOME_1, Collections.emptyList(), true, false);
+        int i = 0;
+        for(Sequence sequence : genome.getSequences()) {
+            if(i++ % 3 == 0) {
+                sequence.increaseMetaDataCounters(List.of(TypeEvaluator.Type.TYPE_2, TypeEvaluator.Type.TYPE_2));
+            }
+        }
+        return genome;
+    }
+
+    @Test
+    public void testSaveProgress() throws Exception {
+        Path directory = getCheckpointDirectory("CheckpointTestProgress");
+        Checkpoint checkpoint = new Checkpoint(directory).getStageCheckpoint(1, "Stage", "description");
+        assertNull(checkpoint.getProgress());
+        assertFalse(checkpoint.isCompleted());
+
+        Genome genome = createCandidates();
+        checkpoint.saveProgress("first.fasta", genome);
+        genome.removeAll(new ArrayList<>(genome.getSequences()).subList(0, genome.getTotalSequences() / 2));
+        checkpoint.saveProgress("second.fasta", genome);
+
+        Checkpoint resumed = new Checkpoint(directory).getStageCheckpoint(1, "Stage", "description");
+        assertEquals(List.of("first.fasta", "second.fasta"), resumed.getProcessedFiles());
+        assertTrue(resumed.isProcessed("second.fasta"));
+        assertFalse(resumed.isProcessed("third.fasta"));
+        Genome restored = resumed.getProgress();
+        assertEquals(describe(genome), describe(restored));
+        assertEquals(genome.getFilename(), restored.getFilename());
+        assertEquals(genome.getFirstRow(), restored.getFirstRow());
+        assertEquals(genome.isSkipDuplicates(), restored.isSkipDuplicates());
+        assertEquals(genome.isIndexed(), restored.isIndexed());
+        // Only the genome of the last update is kept
+        assertEquals(2, directory.resolve("1_Stage").toFile().list().length);
+    }
+
+    @Test
+    public void testGenomePath() throws Exception {
+        Path directory = getCheckpointDirectory("CheckpointTestGenomePath");
+        Checkpoint checkpoint = new Checkpoint(directory).getStageCheckpoint(1, "Stage", "description");
+        Genome genome = createCandidates();
+        checkpoint.saveProgress("first.fasta", genome);
+        Genome restored = new Checkpoint(directory).getStageCheckpoint(1, "Stage", "description").getProgress();
+        assertEquals(CHROMOSOME_1.getAbsolutePath(), restored.getAbsoluteFilePath());
+        assertEquals(genome.getSequenceData(), restored.getSequenceData());
+
+        // A genome which was not created from a file is not given a path when resumed
+        Genome merged = new Genome(true, "merged.fasta", "");
+        merged.addAll(genome.getSequences());
+        checkpoint.saveProgress("second.fasta", merged);
+        restored = new Checkpoint(directory).getStageCheckpoint(1, "Stage", "description").getProgress();
+        assertNull(restored.getAbsoluteFilePath());
+        assertEquals("merged", restored.getFilename());
+        assertEquals(describe(merged), describe(restored));
+        assertThrows(Exception.class, restored::getSequenceData);
+    }
+
+    @Test
+    public void testComplete() throws Exception {
+        Path directory = getCheckpointDirectory("CheckpointTestComplete");
+        Checkpoint checkpoint = new Checkpoint(directory).getStageCheckpoint(1, "Stage", "description");
+        checkpoint.complete(null);
+        assertTrue(checkpoint.isCompleted());
+        assertNull(checkpoint.getResult());
+        assertNull(checkpoint.getProgress());
+
+        Genome genome = createCandidates();
+        Checkpoint other = new Checkpoint(directory).getStageCheckpoint(2, "Stage", "description");
+        assertThrows(IllegalStateException.class, other::getResult);
+        other.complete(genome);
+        assertEquals(describe(genome), describe(new Checkpoint(directory).getStageCheckpoint(2, "Stage", "description").getResult()));
+    }
+
+    @Test
+    public void testDifferentDescription() throws Exception {
+        Path directory = getCheckpointDirectory("CheckpointTestDescription");
+        new Checkpoint(directory).getStageCheckpoint(1, "Stage", "description");
+        assertThrows(IllegalStateException.class, () -> new Checkpoint(directory).getStageCheckpoint(1, "Stage", "other"));
+    }
+
+    @Test
+    public void testResumePipeline() throws Exception {
+        Path directory = getCheckpointDirectory("CheckpointTestPipeline");
+        AtomicInteger created = new AtomicInteger();
+        List<List<String>> received = new ArrayList<>();
+        for(int run = 0; run < 2; run++) {
+            Pipeline pipeline = new Pipeline("test", INPUT_FOLDER, getCheckpointDirectory("CheckpointTestPipelineOutput" + run).toString());
+            pipeline.setCheckpoint(new Checkpoint(directory));
+            pipeline.addStage(new TestStage(() -> {
+                created.incrementAndGet();
+                return createCandidates();
+            }), false);
+            // The second stage is interrupted the first time so the pipeline has to be resumed
+            pipeline.addStage(new TestStage(() -> null) {
+                @Override
+                protected Genome execute(Genome inputGenome) throws Exception {
+                    received.add(describe(inputGenome));
+                    if(received.size() == 1) {
+                        throw new Exception("Interrupted");
+                    }
+                    return null;
+                }
+            }, false);
+            if(run == 0) {
+                assertThrows(Exception.class, pipeline::run);
+            } else {
+                pipeline.run();
+            }
+        }
+        assertEquals(1, created.get());
+        assertEquals(2, received.size());
+        assertEquals(received.get(0), received.get(1));
+    }
+
+    @Test
+    public void testResumeWithSameFileNameInSubFolders() throws Exception {
+        // Genomes downloaded from NCBI have the same file name in a folder per genome
+        File inputFolder = getCheckpointDirectory("CheckpointTestSubFoldersInput").toFile();
+        for(String genome : List.of("GCF_1", "GCF_2")) {
+            File folder = new File(inputFolder, "strains_serotyping/" + genome);
+            assertTrue(folder.mkdirs());
+            Files.writeString(new File(folder, "genomic.fasta").toPath(), ">" + genome + "\nACGT\n");
+        }
+        Path directory = getCheckpointDirectory("CheckpointTestSubFolders");
+        List<String> processed = new ArrayList<>();
+        for(int run = 0; run < 2; run++) {
+            Pipeline pipeline = new Pipeline("test", inputFolder.getPath(), getCheckpointDirectory("CheckpointTestSubFoldersOutput" + run).toString());
+            pipeline.setCheckpoint(new Checkpoint(directory));
+            // The stage is interrupted after the first file the first time so the pipeline has to be resumed
+            pipeline.addStage(new TestStage(() -> null) {
+                @Override
+                protected Genome execute(Genome inputGenome) throws Exception {
+                    for(File file : Utils.getFastaFilesInFolder(getInputFolder())) {
+                        if(isProcessedInCheckpoint(file)) {
+                            continue;
+                        }
+                        processed.add(file.getParentFile().getName());
+                        checkpointProcessedFile(file, createCandidates());
+                        if(processed.size() == 1) {
+                            throw new Exception("Interrupted");
+                        }
+                    }
+                    return null;
+                }
+            }, false);
+            if(run == 0) {
+                assertThrows(Exception.class, pipeline::run);
+            } else {
+                pipeline.run();
+            }
+        }
+        // The file of the second genome is not taken for the processed file of the first genome
+        assertEquals(List.of("GCF_1", "GCF_2"), processed);
+    }
+
+    @Test
+    public void testPipelineDescription() throws Exception {
+        Path directory = getCheckpointDirectory("CheckpointTestPipelineDescription");
+        String outputFolder = getCheckpointDirectory("CheckpointTestPipelineDescriptionOutput").toString();
+        Pipeline pipeline = new Pipeline("test", INPUT_FOLDER, outputFolder);
+        pipeline.setCheckpoint(new Checkpoint(directory));
+        pipeline.addStage(new TestStage(() -> null), false);
+        pipeline.run();
+
+        // The checkpoint can not be used by another pipeline or a pipeline reading another input folder
+        Pipeline otherName = new Pipeline("other", INPUT_FOLDER, outputFolder);
+        otherName.setCheckpoint(new Checkpoint(directory));
+        otherName.addStage(new TestStage(() -> null), false);
+        assertThrows(IllegalStateException.class, otherName::run);
+
+        Pipeline otherInput = new Pipeline("test", "src/test/resources/serotype_stage_test_circular", outputFolder);
+        otherInput.setCheckpoint(new Checkpoint(directory));
+        otherInput.addStage(new TestStage(() -> null), false);
+        assertThrows(IllegalStateException.class, otherInput::run);
+    }
+
+    private static class TestStage extends Stage {
+
+        interface Result {
+            Genome create() throws Exception;
+        }
+
+        private final Result result;
+
+        TestStage(Result result) {
+            super(TestStage.class);
+            this.result = result;
+        }
+
+        @Override
+        protected Genome execute(Genome inputGenome) throws Exception {
+            return result.create();
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+
+        @Override
+        protected String getStageFolder() {
+            return "/strains_serotyping";
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.henrikroslund;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.evaluators.CrisprPamEvaluator;
+import com.henrikroslund.evaluators.SequenceEvaluator;
+import com.henrikroslund.sequence.PackedSequences;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GenomeCacheTest {
+
+    private static final File CHROMOSOME_1 = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+    private static final List<SequenceEvaluator> CRITERIA = Collections.singletonList(new CrisprPamEvaluator(false));
+
+    private Path getCacheDirectory(String name) throws Exception {
+        File directory = new File("target/tmp/" + name);
+        FileUtils.deleteDirectory(directory);
+        return directory.toPath();
+    }
+
+    private long countEntries(Path directory) throws Exception {
+        try(Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testGetGenome() throws Exception {
+        Path directory = getCacheDirectory("GenomeCacheTest");
+        GenomeCache cache = new GenomeCache(directory, Long.MAX_VALUE);
+        Genome expected = new Genome(CHROMOSOME_1, CRITERIA, true, true, true);
+
+        Genome created = cache.getGenome(CHROMOSOME_1, CRITERIA, true, true, true);
+        assertEquals(1, countEntries(directory));
+        Genome cached = cache.getGenome(CHROMOSOME_1, CRITERIA, true, true, true);
+        assertEquals(1, countEntries(directory));
+        assertTrue(cached.getSequences() instanceof PackedSequences);
+        assertEquals(new ArrayList<>(expected.getSequences()), new ArrayList<>(created.getSequences()));
+        assertEquals(new ArrayList<>(expected.getSequences()), new ArrayList<>(cached.getSequences()));
+        assertEquals(expected.getFirstRow(), cached.getFirstRow());
+        assertEquals(expected.getFilename(), cached.getFilename());
+
+        Genome notIndexed = cache.getGenome(CHROMOSOME_1, CRITERIA, true, true, false);
+        assertEquals(new ArrayList<>(expected.getSequences()), new ArrayList<>(notIndexed.getSequences()));
+
+        cache.getGenome(CHROMOSOME_1, Collections.singletonList(new CrisprPamEvaluator(true)), true, true, true);
+        assertEquals(2, countEntries(directory));
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        String key = GenomeCache.getKey(CHROMOSOME_1, CRITERIA, true, false);
+        assertEquals(key, GenomeCache.getKey(CHROMOSOME_1, CRITERIA, true, false));
+        assertNotEquals(key, GenomeCache.getKey(CHROMOSOME_1, CRITERIA, false, false));
+        assertNotEquals(key, GenomeCache.getKey(CHROMOSOME_1, CRITERIA, true, true));
+        assertNotEquals(key, GenomeCache.getKey(CHROMOSOME_1, Collections.emptyList(), true, false));
+        File chromosome2 = new File("src/test/resources/chromosomes/genome chromosome 2.fasta");
+        assertNotEquals(GenomeCache.getChecksum(CHROMOSOME_1.toPath()), GenomeCache.getChecksum(chromosome2.toPath()));
+    }
+
+    @Test
+    public void testInvalidEntryIsRecreated() throws Exception {
+        Path directory = getCacheDirectory("GenomeCacheTest_invalid");
+        GenomeCache cache = new GenomeCache(directory, Long.MAX_VALUE);
+        Path entry = directory.resolve(GenomeCache.getKey(CHROMOSOME_1, CRITERIA, true, false) + Genome.BINARY_GENOME_FILE_ENDING);
+        Files.writeString(entry, "not a genome");
+        Genome genome = cache.getGenome(CHROMOSOME_1, CRITERIA, true, false, true);
+        assertEquals(new Genome(CHROMOSOME_1, CRITERIA, true, false).getTotalSequences(), genome.getTotalSequences());
+        assertTrue(Files.size(entry) > "not a genome".length());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        Path directory = getCacheDirectory("GenomeCacheTest_evict");
+        GenomeCache cache = new GenomeCache(directory, 0);
+        cache.getGenome(CHROMOSOME_1, CRITERIA, true, false, true);
+        assertEquals(0, countEntries(directory));
+
+        GenomeCache largeCache = new GenomeCache(directory, Long.MAX_VALUE);
+        largeCache.getGenome(CHROMOSOME_1, CRITERIA, true, false, true);
+        largeCache.getGenome(CHROMOSOME_1, Collections.emptyList(), true, false, true);
+        Path newest = directory.resolve(GenomeCache.getKey(CHROMOSOME_1, Collections.emptyList(), true, false) + Genome.BINARY_GENOME_FILE_ENDING);
+        Path oldest = directory.resolve(GenomeCache.getKey(CHROMOSOME_1, CRITERIA, true, false) + Genome.BINARY_GENOME_FILE_ENDING);
+        Files.setLastModifiedTime(oldest, FileTime.fromMillis(0));
+
+        new GenomeCache(directory, Files.size(newest)).evict();
+        assertTrue(Files.exists(newest));
+        assertFalse(Files.exists(oldest));
+    }
+}
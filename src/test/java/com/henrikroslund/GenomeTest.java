@@ -26,21 +26,72 @@ package com.henrikroslund;
  * #L%
  */
 
+import com.henrikroslund.evaluators.CompiledEvaluator;
 import com.henrikroslund.evaluators.CrisprPamEvaluator;
+import com.henrikroslund.evaluators.EvaluatorConfig;
 import com.henrikroslund.evaluators.IdenticalEvaluator;
+import com.henrikroslund.evaluators.SequenceEvaluator;
+import com.henrikroslund.evaluators.comparisons.MatchEvaluator;
+import com.henrikroslund.evaluators.comparisons.MismatchEvaluator;
+import com.henrikroslund.sequence.PackedSequences;
 import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
+import org.apache.commons.lang3.Range;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class GenomeTest {
 
+    @Test
+    public void testLogEvaluationMatchKeepsSequence() {
+        Genome genome = new Genome(true, "someFile.fasta", "firstRow");
+        Sequence sequence = new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 5, "logged_genome", true);
+        genome.addAll(Collections.singletonList(sequence));
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        Logger logger = Logger.getLogger(IdenticalEvaluator.class.getName());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+            @Override
+            public void flush() {
+            }
+            @Override
+            public void close() {
+            }
+        };
+        boolean logEvaluationMatchBefore = EvaluatorConfig.logEvaluationMatch;
+        logger.addHandler(handler);
+        EvaluatorConfig.logEvaluationMatch = true;
+        try {
+            assertEquals(1, genome.getSequencesMatchingAnyEvaluator(new IdenticalEvaluator(sequence)).size());
+        } finally {
+            EvaluatorConfig.logEvaluationMatch = logEvaluationMatchBefore;
+            logger.removeHandler(handler);
+        }
+        assertFalse(messages.isEmpty());
+        messages.forEach(message -> assertTrue(message.contains("- 5 logged_genome"), message));
+    }
+
     @Test
     public void testGenomeConstructorNoFile() {
         String filename = "someFile.fasta";
@@ -64,6 +115,59 @@ public class GenomeTest {
         assertEquals(4, genome.getTotalSequences());
     }
 
+    @Test
+    public void testIndexedGenome() throws Exception {
+        File chromosome1 = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+        Genome genome = new Genome(chromosome1, Collections.emptyList(), true, true);
+        Genome indexed = new Genome(chromosome1, Collections.emptyList(), true, true, true);
+        assertTrue(indexed.isIndexed());
+        assertEquals(genome.getTotalSequences(), indexed.getTotalSequences());
+        for(Sequence sequence : genome.getSequences()) {
+            assertTrue(indexed.exists(sequence));
+        }
+        Sequence sequence = indexed.getSequences().iterator().next();
+        assertFalse(indexed.exists(new Sequence("TTTAGGGGGAAAAACCCCCAAATG", 0, "filename")));
+        assertThrows(UnsupportedOperationException.class, () -> indexed.removeAll(Collections.singletonList(sequence)));
+
+        Genome indexedWithDuplicates = new Genome(chromosome1, Collections.emptyList(), false, true, true);
+        assertEquals(new Genome(chromosome1, Collections.emptyList(), false, true).getTotalSequences(), indexedWithDuplicates.getTotalSequences());
+        assertThrows(IllegalArgumentException.class, () -> indexedWithDuplicates.exists(sequence));
+    }
+
+    @Test
+    public void testGetSequencesWithinMismatchesIndexed() throws Exception {
+        File chromosome1 = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+        for(boolean skipDuplicates : Arrays.asList(true, false)) {
+            Genome genome = new Genome(chromosome1, Collections.emptyList(), skipDuplicates, true);
+            Genome indexed = new Genome(chromosome1, Collections.emptyList(), skipDuplicates, true, true);
+            Sequence sequence = new Sequence("TTTACCCCCAAAAACCCCCAAATA", 0, "query");
+            long mask = SequenceEncoding.rangeMask(Sequence.SEED_INDEX_START, Sequence.RAW_INDEX_END);
+            for(int maxMismatches = 0; maxMismatches <= 5; maxMismatches++) {
+                assertEquals(genome.getSequencesWithinMismatches(sequence, mask, maxMismatches),
+                        indexed.getSequencesWithinMismatches(sequence, mask, maxMismatches));
+            }
+            assertEquals(2, indexed.getSequencesWithinMismatches(sequence, mask, 1).size());
+
+            SequenceEvaluator bindCriteria = new MatchEvaluator(sequence, Range.between(15, 24),
+                    Collections.singletonList(Range.between(Sequence.SEED_INDEX_START, Sequence.RAW_INDEX_END)));
+            assertEquals(genome.getSequencesMatchingAnyEvaluator(bindCriteria), indexed.getSequencesMatchingAnyEvaluator(bindCriteria));
+            assertFalse(indexed.getSequencesMatchingAnyEvaluator(bindCriteria).isEmpty());
+        }
+    }
+
+    @Test
+    public void testForEachSequence() throws Exception {
+        File chromosome1 = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+        Genome genome = new Genome(chromosome1, Collections.singletonList(new CrisprPamEvaluator(false)), false, true);
+        List<Sequence> streamed = Collections.synchronizedList(new ArrayList<>());
+        Genome.forEachSequence(chromosome1, Collections.singletonList(new CrisprPamEvaluator(false)), true, streamed::add);
+        assertEquals(new TreeSet<>(genome.getSequences()), new TreeSet<>(streamed));
+        assertEquals(genome.getTotalSequences(), streamed.size());
+        assertEquals("genomechromosome1", streamed.get(0).getGenome());
+        assertThrows(IllegalArgumentException.class, () -> Genome.forEachSequence(
+                new File("src/test/resources/chromosomes/genome chromosome 2.fasta"), Collections.emptyList(), true, sequence -> {}));
+    }
+
     @Test
     public void testGenomeConstructorIncludeAllChromosomesAttemptToCreateForWrongChromosome()  {
         File chromosome2 = new File("src/test/resources/chromosomes/genome chromosome 2.fasta");
@@ -124,6 +228,133 @@ public class GenomeTest {
                 Arrays.asList(new CrisprPamEvaluator(true), new IdenticalEvaluator(sequence))));
     }
 
+    @Test
+    public void testGetSequenceMatchingAllEvaluatorsIndexed() throws Exception {
+        File chromosome1 = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+        Genome genome = new Genome(chromosome1, Collections.emptyList(), true, true);
+        Genome indexed = new Genome(chromosome1, Collections.emptyList(), true, true, true);
+        List<String> queries = Arrays.asList(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, "TTTACCCCCAAAAACCCCCAAATA",
+                "TTTAGGGCCAAAAACCCCCAAATG", "TTTAGGGCCAAAAACCCCCAAAAA", "GGGAGGGGGGGGGGGGGGGGGGGG");
+        for(String query : queries) {
+            Sequence sequence = new Sequence(query, 0, "query");
+            for(int maxMismatches = 0; maxMismatches <= 3; maxMismatches++) {
+                List<SequenceEvaluator> evaluators = Arrays.asList(
+                        new MismatchEvaluator(sequence, Range.between(0, maxMismatches), Range.between(Sequence.SEED_INDEX_START, Sequence.SEED_INDEX_END)),
+                        new MismatchEvaluator(sequence, Range.between(0, 1), Range.between(Sequence.N7_INDEX, Sequence.N20_INDEX)));
+                assertEquals(genome.getSequenceMatchingAllEvaluators(evaluators),
+                        indexed.getSequenceMatchingAllEvaluators(evaluators), query + " " + maxMismatches);
+            }
+        }
+    }
+
+    @Test
+    public void testScanStrategiesGiveSameResult() throws Exception {
+        // Large enough to be split into several chunks when scanning in parallel
+        Random random = new Random(1);
+        StringBuilder data = new StringBuilder();
+        for(int i = 0; i < 50000; i++) {
+            data.append("ACGT".charAt(random.nextInt(4)));
+        }
+        File file = File.createTempFile("scan", Utils.FASTA_FILE_ENDING);
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), ">firstRow\n" + data + "\n");
+
+        Sequence sequence = new Sequence("TTTACCCCCAAAAACCCCCAAATG", 0, "query");
+        List<SequenceEvaluator> evaluators = Arrays.asList(new CrisprPamEvaluator(false),
+                new MismatchEvaluator(sequence, Range.between(0, 8), Range.between(Sequence.SEED_INDEX_START, Sequence.N20_INDEX)));
+        for(boolean skipDuplicates : new boolean[]{false, true}) {
+            for(boolean indexed : new boolean[]{false, true}) {
+                Genome genome = new Genome(file, Collections.emptyList(), skipDuplicates, false, indexed);
+                List<Sequence> matches = genome.getSequencesMatchingAnyEvaluator(evaluators, Genome.ScanStrategy.OUTER_PARALLEL);
+                assertFalse(matches.isEmpty());
+                assertEquals(matches, genome.getSequencesMatchingAnyEvaluator(evaluators, Genome.ScanStrategy.INNER_PARALLEL));
+
+                Sequence first = genome.getSequenceMatchingAllEvaluators(evaluators, Genome.ScanStrategy.OUTER_PARALLEL);
+                assertNotNull(first);
+                assertEquals(first, genome.getSequenceMatchingAllEvaluators(evaluators, Genome.ScanStrategy.INNER_PARALLEL));
+                assertEquals(first.getStartIndex(), genome.getSequenceMatchingAllEvaluators(evaluators, Genome.ScanStrategy.INNER_PARALLEL).getStartIndex());
+
+                assertEquals(genome.hasAnyMatchToAnyEvaluator(evaluators, Genome.ScanStrategy.OUTER_PARALLEL).getMatch(),
+                        genome.hasAnyMatchToAnyEvaluator(evaluators, Genome.ScanStrategy.INNER_PARALLEL).getMatch());
+            }
+        }
+    }
+
+    @Test
+    public void testGetSequencesMatchingAllEvaluators() throws Exception {
+        File chromosome1 = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+        Genome genome = new Genome(chromosome1, Collections.emptyList(), true, true);
+        Genome indexed = new Genome(chromosome1, Collections.emptyList(), true, true, true);
+        Sequence sequence = new Sequence("TTTACCCCCAAAAACCCCCAAATG", 0, "query");
+        List<SequenceEvaluator> evaluators = Arrays.asList(
+                new MismatchEvaluator(sequence, Range.between(0, 3), Range.between(Sequence.SEED_INDEX_START, Sequence.SEED_INDEX_END)),
+                new MismatchEvaluator(sequence, Range.between(0, 8), Range.between(Sequence.N7_INDEX, Sequence.N20_INDEX)));
+        List<Sequence> matches = genome.getSequencesMatchingAllEvaluators(evaluators, Genome.ScanStrategy.INNER_PARALLEL);
+        assertFalse(matches.isEmpty());
+        assertEquals(new TreeSet<>(matches), new TreeSet<>(indexed.getSequencesMatchingAllEvaluators(evaluators, Genome.ScanStrategy.OUTER_PARALLEL)));
+        matches.forEach(match -> assertTrue(SequenceEvaluator.matchAll(evaluators, match)));
+    }
+
+    @Test
+    public void testCombine() throws Exception {
+        File chromosome1 = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+        File chromosome2 = new File("src/test/resources/chromosomes/genome chromosome 2.fasta");
+        Genome genome1 = new Genome(chromosome1, Collections.emptyList(), true, false, true);
+        Genome genome2 = new Genome(chromosome2, Collections.emptyList(), true, false, true);
+        Genome combined = Genome.combine("combined", List.of(genome1, genome2));
+
+        TreeSet<Sequence> all = new TreeSet<>(genome1.getSequences());
+        all.addAll(genome2.getSequences());
+        assertEquals(all.size(), combined.getTotalSequences());
+        assertTrue(combined.isIndexed());
+        for(Sequence sequence : all) {
+            assertTrue(combined.exists(sequence));
+            Sequence match = combined.getSequenceMatchingAllEvaluators(List.of(new IdenticalEvaluator(sequence)));
+            assertEquals(genome1.exists(sequence) ? genome1.getFilename() : genome2.getFilename(), match.getGenome());
+        }
+        assertThrows(IllegalArgumentException.class, () -> Genome.combine("combined",
+                List.of(new Genome(chromosome1, Collections.emptyList(), true, false))));
+    }
+
+    @Test
+    public void testCombineSameFilename() throws Exception {
+        File chromosome1 = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+        File directory = new File("target/tmp/combine_same_filename");
+        directory.mkdirs();
+        // A different genome in another folder with the same filename
+        File sameName = new File(directory, chromosome1.getName());
+        Files.copy(new File("src/test/resources/chromosomes/genome chromosome 2.fasta").toPath(), sameName.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Genome genome1 = new Genome(chromosome1, Collections.emptyList(), true, false, true);
+        Genome genome2 = new Genome(sameName, Collections.emptyList(), true, false, true);
+        List<String> names = Genome.getCombinedGenomeNames(List.of(genome1, genome2));
+        assertEquals(List.of(genome1.getFilename(), genome2.getFilename() + "_1"), names);
+
+        Genome combined = Genome.combine("combined", List.of(genome1, genome2));
+        for(Sequence sequence : genome2.getSequences()) {
+            Sequence match = combined.getSequenceMatchingAllEvaluators(List.of(new IdenticalEvaluator(sequence)));
+            assertEquals(genome1.exists(sequence) ? names.get(0) : names.get(1), match.getGenome());
+        }
+
+        // Combining one genome at a time gives the same names and sequences
+        Genome.Combiner combiner = new Genome.Combiner("combined");
+        assertEquals(names.get(0), combiner.add(genome1));
+        assertEquals(names.get(1), combiner.add(genome2));
+        Genome incremental = combiner.combine();
+        assertEquals(combined.getTotalSequences(), incremental.getTotalSequences());
+        for(Sequence sequence : combined.getSequences()) {
+            Sequence match = incremental.getSequenceMatchingAllEvaluators(List.of(new IdenticalEvaluator(sequence)));
+            assertEquals(sequence.getGenome(), match.getGenome());
+        }
+    }
+
+    @Test
+    public void testGetScanStrategy() {
+        Genome genome = new Genome(true, "filename", "firstRow");
+        genome.createSequences(Collections.emptyList(), TestUtils.VALID_STRICT_CRISPR_SEQUENCE);
+        assertEquals(Genome.ScanStrategy.OUTER_PARALLEL, genome.getScanStrategy(1));
+    }
+
     @Test
     public void testGetSequenceMatchingAnyEvaluators() {
         Genome genome = new Genome(true, "filename", "firstRow");
@@ -154,6 +385,62 @@ public class GenomeTest {
         assertEquals(0, sequence.compareTo(sequences.get(0)));
     }
 
+    /**
+     * Matches every 1000th encoding and records the threads the genome is scanned by. The first sequence of each
+     * scan chunk takes a while so the other threads of the pool get to take chunks when the scan is parallel.
+     */
+    private static SequenceEvaluator getThreadRecordingEvaluator(Set<Thread> threads) {
+        return new IdenticalEvaluator(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 0, "reference")) {
+            @Override
+            public CompiledEvaluator compile() {
+                return (reference, encoded) -> {
+                    threads.add(Thread.currentThread());
+                    if(encoded % 4096 == 0) {
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return encoded % 1000 == 0 ? CompiledEvaluator.MATCH : CompiledEvaluator.NO_MATCH;
+                };
+            }
+        };
+    }
+
+    @Test
+    public void testScanStrategyParallelism() throws Exception {
+        Genome genome = new Genome(false, "filename", "firstRow");
+        List<Sequence> sequences = new ArrayList<>();
+        for(int i = 0; i < 40000; i++) {
+            sequences.add(new Sequence(i, i, "genome", false));
+        }
+        genome.addAll(sequences);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Set<Thread> outerThreads = ConcurrentHashMap.newKeySet();
+            List<Sequence> outerMatches = pool.submit(() -> genome.getSequencesMatchingAnyEvaluator(
+                    getThreadRecordingEvaluator(outerThreads), Genome.ScanStrategy.OUTER_PARALLEL)).get();
+            // The candidates are processed in parallel so the scan itself stays on the thread of the candidate
+            assertEquals(1, outerThreads.size());
+
+            Set<Thread> innerThreads = ConcurrentHashMap.newKeySet();
+            List<Sequence> innerMatches = pool.submit(() -> genome.getSequencesMatchingAnyEvaluator(
+                    getThreadRecordingEvaluator(innerThreads), Genome.ScanStrategy.INNER_PARALLEL)).get();
+            assertTrue(innerThreads.size() > 1);
+
+            assertEquals(40, outerMatches.size());
+            assertEquals(outerMatches, innerMatches);
+            for(int i = 0; i < innerMatches.size(); i++) {
+                assertEquals(i * 1000, innerMatches.get(i).getStartIndex());
+            }
+            assertEquals(0, pool.submit(() -> genome.getSequenceMatchingAllEvaluators(
+                    Collections.singletonList(getThreadRecordingEvaluator(innerThreads)), Genome.ScanStrategy.INNER_PARALLEL)).get().getStartIndex());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     @Test
     public void testCreateSequencesWithSkipDuplicates() {
         Genome genome = new Genome(true, "filename", "firstRow");
@@ -239,6 +526,33 @@ public class GenomeTest {
         assertEquals(genome.getFirstRow(), writtenGenome.getFirstRow());
     }
 
+    @Test
+    public void testSaveBinaryGenomeLoadGenome() throws Exception {
+        File chromosome1 = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+        Genome genome = new Genome(chromosome1, Collections.emptyList(), true, true);
+
+        String outputFolder = "target/tmp";
+        String outputFilename = "test_binary";
+        setupForFileTest(outputFolder, outputFilename);
+
+        genome.writeBinarySequences(outputFolder, outputFilename);
+        File binaryFile = new File(outputFolder+"/"+outputFilename+Genome.BINARY_GENOME_FILE_ENDING);
+        Genome writtenGenome = new Genome(binaryFile, Collections.emptyList(), true, false);
+        assertEquals(genome.getFirstRow(), writtenGenome.getFirstRow());
+        assertEquals(new ArrayList<>(genome.getSequences()), new ArrayList<>(writtenGenome.getSequences()));
+
+        Genome indexed = new Genome(binaryFile, Collections.emptyList(), true, false, true);
+        assertTrue(indexed.getSequences() instanceof PackedSequences);
+        assertEquals(genome.getTotalSequences(), indexed.getTotalSequences());
+        for(Sequence sequence : genome.getSequences()) {
+            assertTrue(indexed.exists(sequence));
+        }
+
+        List<SequenceEvaluator> criteria = Collections.singletonList(new CrisprPamEvaluator(false));
+        assertEquals(new Genome(chromosome1, criteria, true, true).getTotalSequences(),
+                new Genome(binaryFile, criteria, true, false, true).getTotalSequences());
+    }
+
     // TODO do save/load testing with check for meta data and stuff
 
     private void setupForFileTest(String folderPath, String filename) throws Exception {
@@ -248,9 +562,11 @@ public class GenomeTest {
                 throw new Exception("Could not create output directory: " + folderPath);
             }
         }
-        File file = new File(folder+"/"+filename+Genome.GENOME_FILE_ENDING);
-        if(file.exists()) {
-            assertTrue(file.delete());
+        for(String fileEnding : List.of(Genome.GENOME_FILE_ENDING, Genome.BINARY_GENOME_FILE_ENDING)) {
+            File file = new File(folder+"/"+filename+fileEnding);
+            if(file.exists()) {
+                assertTrue(file.delete());
+            }
         }
     }
 }
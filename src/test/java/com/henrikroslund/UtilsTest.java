@@ -26,9 +26,18 @@ package com.henrikroslund;
  * #L%
  */
 
+import com.henrikroslund.pipeline.StageExecutor;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
 
 import static com.henrikroslund.Utils.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -62,4 +71,63 @@ public class UtilsTest {
         assertEquals("bla " + CHROMOSOME_STRING +" 4.fasta", files.get(3));
         assertEquals("bla " + CHROMOSOME_STRING +" 5.fasta", files.get(4));
     }
+
+    @Test
+    public void testCompressedFastaFiles() {
+        assertEquals(".fasta", getFastaFileEnding("genome.fasta"));
+        assertEquals(".fna.gz", getFastaFileEnding("genome.fna.gz"));
+        assertNull(getFastaFileEnding("genome.fna"));
+        assertTrue(isCompressedFastaFile("genome.fasta.gz"));
+        assertFalse(isCompressedFastaFile("genome.fasta"));
+        assertEquals("genome", removeFastaFileEnding("genome.fasta.gz"));
+        assertEquals("genome", removeFastaFileEnding("genome.fasta"));
+        assertTrue(isPrimaryChromosomeFile("bla " + CHROMOSOME_STRING +" 1.fna.gz"));
+        assertFalse(isPrimaryChromosomeFile("bla " + CHROMOSOME_STRING +" 2.fasta.gz"));
+        assertEquals("bla " + CHROMOSOME_STRING +" 2.fna.gz", getChromosomeFiles("bla " + CHROMOSOME_STRING +" 1.fna.gz").get(1));
+    }
+
+    @Test
+    public void testLoadGenomesInFolderWithIoExecutor() throws Exception {
+        String folder = "src/test/resources/serotype_stage_test/strains_serotyping";
+        List<String> expected = loadGenomesInFolder(folder, Collections.emptyList(), true, false).stream()
+                .map(genome -> genome.getFilename() + genome.getTotalSequences()).sorted().collect(Collectors.toList());
+        assertEquals(3, expected.size());
+        ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+        try(StageExecutor executor = new StageExecutor("test", 2)) {
+            List<Genome> genomes = executor.submit(() -> loadGenomesInFolder(folder, Collections.emptyList(), true, false, ioExecutor));
+            assertEquals(expected, genomes.stream()
+                    .map(genome -> genome.getFilename() + genome.getTotalSequences()).sorted().collect(Collectors.toList()));
+        } finally {
+            ioExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoadGenomesInFolderWithIoExecutorAndOneThread() {
+        String folder = "src/test/resources/serotype_stage_test/strains_serotyping";
+        ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+        // The only thread of the stage waits for the genomes while their sequences are created in the same pool
+        try(StageExecutor executor = new StageExecutor("test", 1)) {
+            List<Genome> genomes = assertTimeoutPreemptively(Duration.ofSeconds(60),
+                    () -> executor.submit(() -> loadGenomesInFolder(folder, Collections.emptyList(), true, false, ioExecutor)));
+            assertEquals(3, genomes.size());
+        } finally {
+            ioExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRunParallelInPool() throws Exception {
+        assertSame(ForkJoinPool.commonPool(), getPool());
+        try(StageExecutor executor = new StageExecutor("test", 2)) {
+            assertSame(executor.getPool(), executor.submit(Utils::getPool));
+            assertSame(executor.getPool(), runWithPool(executor.getPool(), Utils::getPool));
+            runWithPool(executor.getPool(), () -> {
+                runParallel(() -> assertTrue(ForkJoinTask.inForkJoinPool() && executor.getPool() == ForkJoinTask.getPool()));
+                return null;
+            });
+            assertEquals(2, executor.getParallelism());
+            assertTrue(executor.describeUtilization().startsWith("Pool parallelism 2"));
+        }
+    }
 }
@@ -0,0 +1,164 @@
+package com.henrikroslund.evaluators;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.TestUtils;
+import com.henrikroslund.evaluators.comparisons.MatchEvaluator;
+import com.henrikroslund.evaluators.comparisons.MismatchEvaluator;
+import com.henrikroslund.evaluators.comparisons.TypeEvaluator;
+import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
+import org.apache.commons.lang3.Range;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EvaluationPlanTest {
+
+    private static final Sequence REFERENCE = new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 0, "reference");
+
+    private static List<SequenceEvaluator> getEvaluators() {
+        return List.of(
+                new CrisprPamEvaluator(false),
+                new CrisprPamEvaluator(true),
+                new GCContentN1N20Evaluator(),
+                new IdenticalEvaluator(REFERENCE),
+                new IdenticalEvaluator(REFERENCE, true, false),
+                new NoConsecutiveIdenticalN1N20Evaluator(NoConsecutiveIdenticalN1N20Evaluator.Type.TRIPLE),
+                new PamAndSeedIdenticalMatcher(REFERENCE),
+                new MismatchEvaluator(REFERENCE, Range.between(0, 8), Range.between(Sequence.N1_INDEX, Sequence.N20_INDEX)),
+                new MatchEvaluator(REFERENCE, Range.between(16, 24)),
+                new TypeEvaluator(REFERENCE));
+    }
+
+    /**
+     * Random sequences close to the reference so that all evaluators both match and not match some of them
+     */
+    private static List<Sequence> getSequences() {
+        Random random = new Random(1);
+        List<Sequence> sequences = new ArrayList<>();
+        for(int i = 0; i < 2000; i++) {
+            long encoded = REFERENCE.getEncoded();
+            int mutations = random.nextInt(12);
+            for(int j = 0; j < mutations; j++) {
+                encoded ^= (long) (random.nextInt(3) + 1) << SequenceEncoding.shift(random.nextInt(Sequence.RAW_LENGTH));
+            }
+            sequences.add(new Sequence(encoded, i, "genome", false));
+        }
+        return sequences;
+    }
+
+    @Test
+    public void testCompiledSameAsEvaluate() {
+        List<Sequence> sequences = getSequences();
+        for(SequenceEvaluator evaluator : getEvaluators()) {
+            CompiledEvaluator compiled = evaluator.compile();
+            int matches = 0;
+            for(Sequence sequence : sequences) {
+                boolean expected = evaluator.getNewEvaluator(REFERENCE).evaluate(sequence);
+                int result = compiled.evaluate(REFERENCE.getEncoded(), sequence.getEncoded());
+                assertEquals(expected, result != CompiledEvaluator.NO_MATCH, evaluator.describe() + " " + sequence);
+                matches += expected ? 1 : 0;
+            }
+            if(!(evaluator instanceof TypeEvaluator)) {
+                assertTrue(matches > 0 && matches < sequences.size(), evaluator.describe() + " " + matches);
+            }
+        }
+    }
+
+    @Test
+    public void testTypeEvaluatorResultCode() {
+        TypeEvaluator template = new TypeEvaluator(null);
+        CompiledEvaluator compiled = template.compile();
+        for(Sequence sequence : getSequences()) {
+            TypeEvaluator evaluator = (TypeEvaluator) template.getNewEvaluator(REFERENCE);
+            evaluator.evaluate(sequence);
+            int expected = 0;
+            for(TypeEvaluator.Type type : evaluator.getMatchTypes()) {
+                expected |= 1 << type.ordinal();
+            }
+            assertEquals(expected, compiled.evaluate(REFERENCE.getEncoded(), sequence.getEncoded()));
+        }
+    }
+
+    @Test
+    public void testDefaultCompile() {
+        // An evaluator which does not override compile
+        SequenceEvaluator evaluator = new SequenceEvaluator() {
+            private final CrisprPamEvaluator crisprPamEvaluator = new CrisprPamEvaluator(true);
+
+            @Override
+            public boolean evaluate(Sequence sequence) {
+                return crisprPamEvaluator.evaluate(sequence);
+            }
+
+            @Override
+            public Sequence getMatch() {
+                return crisprPamEvaluator.getMatch();
+            }
+
+            @Override
+            public SequenceEvaluator getNewEvaluator(Sequence sequence) {
+                return this;
+            }
+
+            @Override
+            public String describe() {
+                return crisprPamEvaluator.describe();
+            }
+        };
+        CompiledEvaluator compiled = evaluator.compile();
+        assertEquals(CompiledEvaluator.MATCH, compiled.evaluate(0, SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE)));
+        assertEquals(CompiledEvaluator.NO_MATCH, compiled.evaluate(0, SequenceEncoding.encode("TTTTCCCCCAAAAACCCCCAAATG")));
+    }
+
+    @Test
+    public void testPlan() {
+        Sequence other = new Sequence("TTTACCCCCAAAAACCCCCAAATG", 0, "genome");
+        Sequence seedMismatch = new Sequence("TTTAGCCCCAAAAACCCCCAAATG", 0, "genome");
+        MismatchEvaluator seedEvaluator = new MismatchEvaluator(other, Range.is(0), Range.between(Sequence.SEED_INDEX_START, Sequence.SEED_INDEX_END));
+        List<SequenceEvaluator> evaluators = List.of(new CrisprPamEvaluator(false), seedEvaluator);
+        EvaluationPlan plan = new EvaluationPlan(evaluators);
+
+        assertTrue(plan.matchAll(other.getEncoded()));
+        assertFalse(plan.matchAll(seedMismatch.getEncoded()));
+        assertEquals(0, plan.matchAny(seedMismatch.getEncoded()));
+        assertTrue(plan.matchAll(seedMismatch.getEncoded(), seedMismatch.getEncoded()));
+        assertFalse(plan.matchAll(other.getEncoded(), seedMismatch.getEncoded()));
+        assertEquals(EvaluationPlan.NO_MATCH, new EvaluationPlan(Collections.singletonList(seedEvaluator)).matchAny(seedMismatch.getEncoded()));
+        assertTrue(new EvaluationPlan(Collections.emptyList()).matchAll(other.getEncoded()));
+
+        List<SequenceEvaluator> described = plan.describeMatch(null, other);
+        assertEquals(other, described.get(1).getMatch());
+        assertNull(seedEvaluator.getMatch());
+    }
+}
@@ -0,0 +1,97 @@
+package com.henrikroslund.genomeFeature;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.sequence.Sequence;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GenomeFeatureTest {
+
+    private static final File FEATURES = new File("src/test/resources/features/genome_features.txt");
+    private static final String RAW = "TTTACCCCCAAAAACCCCCAAAAA";
+
+    @Test
+    public void testGetMatchingFeatures() throws Exception {
+        GenomeFeature genomeFeature = new GenomeFeature(FEATURES);
+
+        List<Feature> matches = genomeFeature.getMatchingFeatures(Collections.singletonList(new Sequence(RAW, 250, "")), false);
+        assertEquals(1, matches.size());
+        assertTrue(matches.get(0).toString().contains("third"));
+
+        // The complement feature is written as 500 300 but still covers 300 to 500
+        matches = genomeFeature.getMatchingFeatures(Collections.singletonList(new Sequence(RAW, 400, "")), false);
+        assertEquals(2, matches.size());
+        assertTrue(matches.get(0).toString().contains("second"));
+        assertTrue(matches.get(1).toString().contains("third"));
+
+        matches = genomeFeature.getMatchingFeatures(Collections.singletonList(new Sequence(RAW, 400, "")), true);
+        assertEquals(1, matches.size());
+        assertTrue(matches.get(0).toString().contains("third"));
+
+        matches = genomeFeature.getMatchingFeatures(Collections.singletonList(new Sequence(RAW, 400, "", true)), true);
+        assertEquals(1, matches.size());
+        assertTrue(matches.get(0).toString().contains("second"));
+
+        // The last feature in the table is included as well
+        matches = genomeFeature.getMatchingFeatures(Collections.singletonList(new Sequence(RAW, 1950, "", true)), true);
+        assertEquals(1, matches.size());
+        assertTrue(matches.get(0).toString().contains("last"));
+
+        assertTrue(genomeFeature.getMatchingFeatures(Collections.singletonList(new Sequence(RAW, 1200, "")), false).isEmpty());
+    }
+
+    @Test
+    public void testGetMatchingFeaturesSameAsFeatureMatch() throws Exception {
+        GenomeFeature genomeFeature = new GenomeFeature(FEATURES);
+        List<Feature> features = genomeFeature.getFeatures();
+        assertEquals(4, features.size());
+
+        Random random = new Random(1);
+        for(int i = 0; i < 500; i++) {
+            List<Sequence> sequences = new ArrayList<>();
+            for(int j = random.nextInt(3); j >= 0; j--) {
+                sequences.add(new Sequence(RAW, random.nextInt(2100), "", random.nextBoolean()));
+            }
+            boolean mustMatchStrand = random.nextBoolean();
+            List<Feature> expected = new ArrayList<>();
+            for(Feature feature : features) {
+                if(sequences.stream().anyMatch(sequence -> feature.isMatch(sequence, mustMatchStrand))) {
+                    expected.add(feature);
+                }
+            }
+            assertEquals(expected, genomeFeature.getMatchingFeatures(sequences, mustMatchStrand));
+        }
+    }
+}
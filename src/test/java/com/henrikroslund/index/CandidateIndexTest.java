@@ -0,0 +1,80 @@
+package com.henrikroslund.index;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.TestUtils;
+import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CandidateIndexTest {
+
+    @Test
+    public void testLookup() {
+        Sequence first = new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 5, "candidates");
+        Sequence second = new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2, 7, "candidates");
+        CandidateIndex candidateIndex = new CandidateIndex(Arrays.asList(first, second));
+        assertEquals(2, candidateIndex.size());
+        assertSame(second, candidateIndex.get(1));
+
+        assertArrayEquals(new int[]{0}, candidateIndex.getIdentical(first.getEncoded()));
+        assertArrayEquals(new int[]{}, candidateIndex.getIdentical(SequenceEncoding.encode("TTTACCCCCAAAAACCCCCAAATA")));
+
+        long mask = SequenceEncoding.rangeMask(Sequence.SEED_INDEX_START, Sequence.N20_INDEX);
+        long query = SequenceEncoding.encode("TTTACCCCCAAAAACCCCCAAATA");
+        assertArrayEquals(new int[]{0, 1}, candidateIndex.getWithinMismatches(query, mask, 1));
+        assertArrayEquals(new int[]{}, candidateIndex.getWithinMismatches(query, mask, 0));
+        // More mismatches than positions can not be indexed but gives the same result
+        assertArrayEquals(new int[]{0, 1}, candidateIndex.getWithinMismatches(query, SequenceEncoding.SEED_MASK, 6));
+    }
+
+    @Test
+    public void testGetIdentical() {
+        List<Sequence> candidates = new ArrayList<>();
+        Random random = new Random(1);
+        for(int i = 0; i < 1000; i++) {
+            candidates.add(new Sequence(random.nextLong() & SequenceEncoding.RAW_MASK, i, "candidates", false));
+        }
+        candidates.add(candidates.get(10));
+        candidates.add(new Sequence(0, 0, "candidates", false));
+        CandidateIndex candidateIndex = new CandidateIndex(candidates);
+
+        for(int i = 0; i < 1000; i++) {
+            int[] identical = candidateIndex.getIdentical(candidates.get(i).getEncoded());
+            assertArrayEquals(i == 10 ? new int[]{10, 1000} : new int[]{i}, identical);
+        }
+        assertArrayEquals(new int[]{1001}, candidateIndex.getIdentical(0));
+        assertArrayEquals(new int[]{}, new CandidateIndex(new ArrayList<>()).getIdentical(0));
+    }
+}
@@ -0,0 +1,115 @@
+package com.henrikroslund.index;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.sequence.PackedSequences;
+import com.henrikroslund.sequence.Sequence;
+import com.henrikroslund.sequence.SequenceEncoding;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MismatchIndexTest {
+
+    private static PackedSequences randomSequences(Random random, int count) {
+        PackedSequences sequences = new PackedSequences();
+        for(int i = 0; i < count; i++) {
+            sequences.add(random.nextLong() & SequenceEncoding.RAW_MASK, i, false, "genome");
+        }
+        return sequences;
+    }
+
+    private static long withMismatches(Random random, long encoded, int[] positions, int mismatches) {
+        for(int i = 0; i < mismatches; i++) {
+            int position = positions[random.nextInt(positions.length)];
+            encoded ^= (long) (1 + random.nextInt(3)) << SequenceEncoding.shift(position);
+        }
+        return encoded;
+    }
+
+    @Test
+    public void testCandidatesSameAsBruteForce() {
+        Random random = new Random(1);
+        PackedSequences sequences = randomSequences(random, 2000);
+        long seedMask = SequenceEncoding.SEED_MASK;
+        long n7n20Mask = SequenceEncoding.rangeMask(Sequence.N7_INDEX, Sequence.N20_INDEX);
+        int[] n7n20Positions = IntStream.rangeClosed(Sequence.N7_INDEX, Sequence.N20_INDEX).toArray();
+
+        for(long mask : new long[]{seedMask, n7n20Mask, seedMask | n7n20Mask}) {
+            for(int maxMismatches = 0; maxMismatches <= 6; maxMismatches++) {
+                if(!MismatchIndex.canIndex(Long.bitCount(mask & SequenceEncoding.LOW_BITS), maxMismatches)) {
+                    continue;
+                }
+                MismatchIndex index = new MismatchIndex(sequences, mask, maxMismatches);
+                for(int query = 0; query < 50; query++) {
+                    long encoded = withMismatches(random, sequences.getEncoded(random.nextInt(sequences.size())),
+                            n7n20Positions, random.nextInt(6));
+                    int finalMaxMismatches = maxMismatches;
+                    int[] expected = IntStream.range(0, sequences.size())
+                            .filter(i -> SequenceEncoding.mismatches(encoded, sequences.getEncoded(i), mask) <= finalMaxMismatches)
+                            .toArray();
+                    assertArrayEquals(expected, index.getCandidates(encoded));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFindFirst() {
+        PackedSequences sequences = new PackedSequences();
+        sequences.add(new Sequence("TTTACCCCCAAAAACCCCCAAATG", 0, "genome"));
+        sequences.add(new Sequence("TTTACCCCCAAAAACCCCCAAATT", 1, "genome"));
+        sequences.add(new Sequence("TTTAGGGGGAAAAACCCCCAAATT", 2, "genome"));
+        MismatchIndex index = new MismatchIndex(sequences, SequenceEncoding.rangeMask(0, Sequence.RAW_INDEX_END), 1);
+
+        long query = SequenceEncoding.encode("TTTACCCCCAAAAACCCCCAAATA");
+        assertEquals(0, index.findFirst(query, candidate -> true));
+        assertEquals(1, index.findFirst(query, candidate -> candidate > 0));
+        assertEquals(-1, index.findFirst(query, candidate -> candidate > 1));
+    }
+
+    @Test
+    public void testCanIndex() {
+        assertTrue(MismatchIndex.canIndex(6, 5));
+        assertFalse(MismatchIndex.canIndex(6, 6));
+        assertThrows(IllegalArgumentException.class, () -> new MismatchIndex(new PackedSequences(), SequenceEncoding.SEED_MASK, 6));
+    }
+
+    @Test
+    public void testGetNeighbours() {
+        long key = SequenceEncoding.encode("ACGT") >>> SequenceEncoding.shift(3);
+        assertArrayEquals(new long[]{key}, MismatchIndex.getNeighbours(key, 4, 0));
+        assertEquals(1 + 4*3, MismatchIndex.getNeighbours(key, 4, 1).length);
+        long[] neighbours = MismatchIndex.getNeighbours(key, 4, 2);
+        assertEquals(1 + 4*3 + 6*9, neighbours.length);
+        assertEquals(neighbours.length, Arrays.stream(neighbours).distinct().count());
+    }
+}
@@ -0,0 +1,79 @@
+package com.henrikroslund.pcr;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrimerAutomatonTest {
+
+    @Test
+    public void testFindOccurrences() {
+        PrimerAutomaton primerAutomaton = new PrimerAutomaton(List.of("ACG", "CG", "GTA", "ACG", "AA"));
+        List<List<Integer>> occurrences = primerAutomaton.findOccurrences("ACGTAACGNCGAAA");
+        assertEquals(List.of(0, 5), occurrences.get(0));
+        assertEquals(List.of(1, 6, 9), occurrences.get(1));
+        assertEquals(List.of(2), occurrences.get(2));
+        assertEquals(List.of(0, 5), occurrences.get(3));
+        // Overlapping occurrences are all found
+        assertEquals(List.of(4, 11, 12), occurrences.get(4));
+    }
+
+    @Test
+    public void testSameAsIndexOf() {
+        Random random = new Random(1);
+        String bases = "ACGT";
+        StringBuilder data = new StringBuilder();
+        for(int i = 0; i < 5000; i++) {
+            data.append(bases.charAt(random.nextInt(bases.length())));
+        }
+        List<String> primers = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            int start = random.nextInt(data.length() - 10);
+            primers.add(data.substring(start, start + 2 + random.nextInt(6)));
+        }
+        List<List<Integer>> occurrences = new PrimerAutomaton(primers).findOccurrences(data);
+        for(int primer = 0; primer < primers.size(); primer++) {
+            List<Integer> expected = new ArrayList<>();
+            for(int index = data.indexOf(primers.get(primer)); index != -1; index = data.indexOf(primers.get(primer), index + 1)) {
+                expected.add(index);
+            }
+            assertEquals(expected, occurrences.get(primer));
+        }
+    }
+
+    @Test
+    public void testInvalidPrimer() {
+        assertThrows(IllegalArgumentException.class, () -> new PrimerAutomaton(List.of("")));
+        assertThrows(IllegalArgumentException.class, () -> new PrimerAutomaton(List.of("ACÅ")));
+    }
+}
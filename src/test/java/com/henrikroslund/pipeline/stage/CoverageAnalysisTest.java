@@ -27,75 +27,153 @@ package com.henrikroslund.pipeline.stage;
  */
 
 import com.henrikroslund.sequence.Sequence;
-import org.apache.commons.lang3.tuple.Pair;
+import com.henrikroslund.sequence.SequenceEncoding;
 import org.junit.jupiter.api.Test;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class CoverageAnalysisTest {
 
-    @Test
-    public void getCoverageMapMultipleSequencesTwoSequences() {
-        Map<Sequence, TreeSet<String>> coverage = Collections.synchronizedMap(new TreeMap<>());
-
-        Sequence sequence1 = new Sequence("TTTACCCCCAAAAACCCCCAAATG", 0, "test1");
-        String genome1 = "genome1";
-        TreeSet<String> sequence1Genomes = new TreeSet<>();
-        sequence1Genomes.add(genome1);
+    private static final Sequence SEQUENCE_1 = new Sequence("TTTACCCCCAAAAACCCCCAAATG", 0, "test1");
+    private static final Sequence SEQUENCE_2 = new Sequence("TTTAAAAAAAAAAAACCCCAAATG", 0, "test2");
+    private static final Sequence SEQUENCE_3 = new Sequence("TTTCCCCAAAAAAAACCCCAAATG", 0, "test3");
 
-        Sequence sequence2 = new Sequence("TTTAAAAAAAAAAAACCCCAAATG", 0, "test2");
-        String genome2 = "genome2";
-        TreeSet<String> sequence2Genomes = new TreeSet<>();
-        sequence2Genomes.add(genome2);
+    @Test
+    public void getTopPairsTwoSequences() {
+        SequenceCoverage coverage = new SequenceCoverage(List.of(SEQUENCE_1, SEQUENCE_2), List.of("genome2", "genome1", "genome3"));
+        int sequence1 = coverage.getSequences().indexOf(SEQUENCE_1);
+        int sequence2 = coverage.getSequences().indexOf(SEQUENCE_2);
+        coverage.add(sequence1, coverage.getGenomeId("genome1"));
+        coverage.add(sequence2, coverage.getGenomeId("genome2"));
+
+        List<SequenceCoverage.SequencePair> pairs = coverage.getTopPairs(10);
+        assertEquals(1, pairs.size());
+        SequenceCoverage.SequencePair pair = pairs.get(0);
+        assertEquals(2, pair.getCoverage());
+        assertEquals(List.of("genome1", "genome2"), coverage.getGenomes(true, pair.getFirst(), pair.getSecond()));
+        assertEquals(List.of("genome3"), coverage.getGenomes(false, pair.getFirst(), pair.getSecond()));
+    }
 
-        coverage.put(sequence1,sequence1Genomes);
-        coverage.put(sequence2,sequence2Genomes);
-        TreeSet<Pair<List<Sequence>, HashSet<String>>> coverageMultiple = CoverageAnalysis.getCoverageMapMultipleSequences(coverage);
+    @Test
+    public void getTopPairsThreeSequences() {
+        SequenceCoverage coverage = new SequenceCoverage(List.of(SEQUENCE_1, SEQUENCE_2, SEQUENCE_3), List.of("genome1", "genome2"));
+        int sequence1 = coverage.getSequences().indexOf(SEQUENCE_1);
+        int sequence2 = coverage.getSequences().indexOf(SEQUENCE_2);
+        int sequence3 = coverage.getSequences().indexOf(SEQUENCE_3);
+        coverage.add(sequence1, coverage.getGenomeId("genome1"));
+        coverage.add(sequence2, coverage.getGenomeId("genome2"));
+
+        List<SequenceCoverage.SequencePair> pairs = coverage.getTopPairs(10);
+        assertEquals(3, pairs.size());
+        assertEquals(2, pairs.get(0).getCoverage());
+        assertEquals(Set.of(sequence1, sequence2), Set.of(pairs.get(0).getFirst(), pairs.get(0).getSecond()));
+        assertEquals(1, pairs.get(1).getCoverage());
+        assertEquals(1, pairs.get(2).getCoverage());
+        assertEquals(List.of("genome2"), coverage.getGenomes(true, sequence2, sequence3));
+
+        // Only the pairs with the highest coverage are kept
+        pairs = coverage.getTopPairs(1);
+        assertEquals(1, pairs.size());
+        assertEquals(2, pairs.get(0).getCoverage());
+    }
 
-        assertEquals(1, coverageMultiple.size());
+    @Test
+    public void getTopPairsSameAsAllPairs() {
+        List<Sequence> sequences = new ArrayList<>();
+        List<String> genomes = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            genomes.add("genome" + i);
+        }
+        Random random = new Random(1);
+        for(int i = 0; i < 60; i++) {
+            sequences.add(new Sequence(random.nextLong() & SequenceEncoding.RAW_MASK, i, "test", false));
+        }
+        SequenceCoverage coverage = new SequenceCoverage(sequences, genomes);
+        for(int i = 0; i < 1500; i++) {
+            coverage.add(random.nextInt(sequences.size()), random.nextInt(genomes.size()));
+        }
+
+        List<Integer> allPairCoverage = new ArrayList<>();
+        for(int first = 0; first < sequences.size(); first++) {
+            for(int second = first + 1; second < sequences.size(); second++) {
+                Set<String> union = new HashSet<>(coverage.getGenomes(true, first));
+                union.addAll(coverage.getGenomes(true, second));
+                assertEquals(union.size(), coverage.getCoverage(first, second));
+                allPairCoverage.add(union.size());
+            }
+        }
+        allPairCoverage.sort(Comparator.reverseOrder());
+        List<SequenceCoverage.SequencePair> pairs = coverage.getTopPairs(50);
+        assertEquals(allPairCoverage.subList(0, 50), pairs.stream().map(SequenceCoverage.SequencePair::getCoverage).collect(Collectors.toList()));
+    }
 
-        HashSet<String> genomes = coverageMultiple.stream().findFirst().get().getRight();
-        assertEquals(2, genomes.size());
-        assertTrue(genomes.contains(genome1));
-        assertTrue(genomes.contains(genome2));
+    @Test
+    public void getPanels() {
+        List<Sequence> sequences = new ArrayList<>();
+        for(int i = 0; i < 4; i++) {
+            sequences.add(new Sequence(i, i, "test", false));
+        }
+        List<String> genomes = new ArrayList<>();
+        for(int i = 0; i < 6; i++) {
+            genomes.add("genome" + i);
+        }
+        SequenceCoverage coverage = new SequenceCoverage(sequences, genomes);
+        // The greedy choice of the sequence covering the most genomes first is not the best panel of two
+        int[][] found = {{0, 1, 2}, {3, 4, 5}, {0, 1, 3, 4}, {4}};
+        for(int sequence = 0; sequence < found.length; sequence++) {
+            for(int genome : found[sequence]) {
+                coverage.add(sequence, genome);
+            }
+        }
+
+        List<SequenceCoverage.Panel> greedyPanels = coverage.getGreedyPanels(4, 6);
+        assertEquals(3, greedyPanels.size());
+        assertArrayEquals(new int[]{2}, greedyPanels.get(0).getSequences());
+        assertEquals(4, greedyPanels.get(0).getCoverage());
+        assertArrayEquals(new int[]{2, 0}, greedyPanels.get(1).getSequences());
+        assertEquals(5, greedyPanels.get(1).getCoverage());
+        assertEquals(6, greedyPanels.get(2).getCoverage());
+        assertEquals(List.of(), coverage.getGenomes(false, greedyPanels.get(2).getSequences()));
+
+        SequenceCoverage.Panel bestPanel = coverage.getBestPanel(2, greedyPanels.get(1));
+        assertArrayEquals(new int[]{0, 1}, bestPanel.getSequences());
+        assertEquals(6, bestPanel.getCoverage());
+
+        // The target stops the greedy selection
+        assertEquals(1, coverage.getGreedyPanels(4, 3).size());
     }
 
     @Test
-    public void getCoverageMapMultipleSequencesThreeSequences() {
-        Map<Sequence, TreeSet<String>> coverage = Collections.synchronizedMap(new TreeMap<>());
-
-        Sequence sequence1 = new Sequence("TTTACCCCCAAAAACCCCCAAATG", 0, "test1");
-        String genome1 = "genome1";
-        TreeSet<String> sequence1Genomes = new TreeSet<>();
-        sequence1Genomes.add(genome1);
-
-        Sequence sequence2 = new Sequence("TTTAAAAAAAAAAAACCCCAAATG", 0, "test2");
-        String genome2 = "genome2";
-        TreeSet<String> sequence2Genomes = new TreeSet<>();
-        sequence2Genomes.add(genome2);
-
-        Sequence sequence3 = new Sequence("TTTCCCCAAAAAAAACCCCAAATG", 0, "test3");
-        TreeSet<String> sequence3Genomes = new TreeSet<>();
-        sequence2Genomes.add(genome2);
-
-        coverage.put(sequence1,sequence1Genomes);
-        coverage.put(sequence2,sequence2Genomes);
-        coverage.put(sequence3,sequence3Genomes);
-        TreeSet<Pair<List<Sequence>, HashSet<String>>> coverageMultiple = CoverageAnalysis.getCoverageMapMultipleSequences(coverage);
-
-        assertEquals(3, coverageMultiple.size());
-
-        Iterator<Pair<List<Sequence>, HashSet<String>>> it = coverageMultiple.iterator();
-        HashSet<String> genomes = it.next().getRight();
-        assertEquals(2, genomes.size());
-        assertTrue(genomes.contains(genome1));
-        assertTrue(genomes.contains(genome2));
-
-        genomes = it.next().getRight();
-        assertEquals(1, genomes.size());
-        assertTrue(genomes.contains(genome2));
+    public void getBestPanelSameAsAllPanels() {
+        List<Sequence> sequences = new ArrayList<>();
+        List<String> genomes = new ArrayList<>();
+        for(int i = 0; i < 70; i++) {
+            genomes.add("genome" + i);
+        }
+        Random random = new Random(2);
+        for(int i = 0; i < 25; i++) {
+            sequences.add(new Sequence(i, i, "test", false));
+        }
+        SequenceCoverage coverage = new SequenceCoverage(sequences, genomes);
+        for(int i = 0; i < 200; i++) {
+            coverage.add(random.nextInt(sequences.size()), random.nextInt(genomes.size()));
+        }
+
+        int best = 0;
+        for(int first = 0; first < sequences.size(); first++) {
+            for(int second = first + 1; second < sequences.size(); second++) {
+                for(int third = second + 1; third < sequences.size(); third++) {
+                    best = Math.max(best, coverage.getGenomes(true, first, second, third).size());
+                }
+            }
+        }
+        SequenceCoverage.Panel greedyPanel = coverage.getGreedyPanels(3, genomes.size()).get(2);
+        SequenceCoverage.Panel bestPanel = coverage.getBestPanel(3, greedyPanel);
+        assertEquals(best, bestPanel.getCoverage());
+        assertEquals(best, coverage.getGenomes(true, bestPanel.getSequences()).size());
+        assertTrue(greedyPanel.getCoverage() <= bestPanel.getCoverage());
     }
 }
@@ -0,0 +1,116 @@
+package com.henrikroslund.pipeline.stage;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.Genome;
+import com.henrikroslund.Utils;
+import com.henrikroslund.pipeline.StageExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GenomePrefetcherTest {
+
+    private static final String FOLDER = "src/test/resources/serotype_stage_test/strains_serotyping";
+
+    @Test
+    public void testGenomesInOrder() throws Exception {
+        List<File> files = Utils.getFilesInFolder(FOLDER, Utils.FASTA_FILE_ENDING);
+        Set<String> loadingThreads = ConcurrentHashMap.newKeySet();
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        try(GenomePrefetcher genomes = new GenomePrefetcher(files, file -> {
+            loadingThreads.add(Thread.currentThread().getName());
+            return new Genome(file, Collections.emptyList(), true, false, true);
+        }, ioExecutor, 2, Long.MAX_VALUE)) {
+            for(File file : files) {
+                Genome genome = genomes.get(file);
+                Genome expected = new Genome(file, Collections.emptyList(), true, false);
+                assertEquals(expected.getFilename(), genome.getFilename());
+                assertEquals(expected.getTotalSequences(), genome.getTotalSequences());
+            }
+        } finally {
+            ioExecutor.shutdown();
+        }
+        assertFalse(loadingThreads.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testGenomesWithOneThread() {
+        List<File> files = Utils.getFilesInFolder(FOLDER, Utils.FASTA_FILE_ENDING);
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        // The only thread of the stage waits for the prefetched genomes while their sequences are created in its pool
+        try(StageExecutor executor = new StageExecutor("test", 1)) {
+            int loaded = assertTimeoutPreemptively(Duration.ofSeconds(60), () -> executor.submit(() -> {
+                try(GenomePrefetcher genomes = new GenomePrefetcher(files,
+                        file -> new Genome(file, Collections.emptyList(), true, false, true), ioExecutor, 2, Long.MAX_VALUE)) {
+                    int count = 0;
+                    for(File file : files) {
+                        assertTrue(genomes.get(file).getTotalSequences() > 0);
+                        count++;
+                    }
+                    return count;
+                }
+            }));
+            assertEquals(files.size(), loaded);
+        } finally {
+            ioExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNoPrefetchWithoutMemory() throws Exception {
+        List<File> files = Utils.getFilesInFolder(FOLDER, Utils.FASTA_FILE_ENDING);
+        Set<String> loadingThreads = ConcurrentHashMap.newKeySet();
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        try(GenomePrefetcher genomes = new GenomePrefetcher(files, file -> {
+            loadingThreads.add(Thread.currentThread().getName());
+            return new Genome(file, Collections.emptyList(), true, false, true);
+        }, ioExecutor, 2, GenomePrefetcher.estimateMemory(files.get(0)) - 1)) {
+            assertNotNull(genomes.get(files.get(0)));
+        } finally {
+            ioExecutor.shutdown();
+        }
+        assertEquals(Set.of(Thread.currentThread().getName()), loadingThreads);
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        List<File> files = Utils.getFilesInFolder(FOLDER, Utils.FASTA_FILE_ENDING);
+        try(GenomePrefetcher genomes = new GenomePrefetcher(files, file -> null, null, 2, Long.MAX_VALUE)) {
+            assertThrows(IllegalStateException.class, () -> genomes.get(files.get(1)));
+        }
+    }
+}
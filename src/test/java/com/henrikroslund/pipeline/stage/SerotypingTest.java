@@ -26,6 +26,7 @@ package com.henrikroslund.pipeline.stage;
  * #L%
  */
 
+import com.henrikroslund.pcr.PrimerAutomaton;
 import com.henrikroslund.pcr.Serotype;
 import com.henrikroslund.pipeline.Pipeline;
 import org.junit.jupiter.api.Test;
@@ -33,6 +34,7 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.List;
+import java.util.Random;
 
 public class SerotypingTest {
 
@@ -78,22 +80,44 @@ public class SerotypingTest {
     }
 
     @Test
-    public void testFindOccurrence() {
-        String genomeSequenceData = "ABCDEFGDE";
-        String sequence = "DE";
-        List<Integer> indexes = Serotyping.findOccurrences(genomeSequenceData, sequence, false, "test");
-        assertEquals(2, indexes.size());
-        assertEquals(4, indexes.get(0).intValue());
-        assertEquals(8, indexes.get(1).intValue());
+    public void testToPositions() {
+        List<Integer> indexes = new PrimerAutomaton(List.of("GT")).findOccurrences("ACGTACCGT").get(0);
+        assertEquals(List.of(3, 8), Serotyping.toPositions(indexes, "GT", false, "test"));
     }
 
     @Test
-    public void testFindOccurrenceComplement() {
-        String genomeSequenceData = "ABCDEFGDE";
-        String sequence = "DE";
-        List<Integer> indexes = Serotyping.findOccurrences(genomeSequenceData, sequence, true, "test");
-        assertEquals(2, indexes.size());
-        assertEquals(5, indexes.get(0).intValue());
-        assertEquals(1, indexes.get(1).intValue());
+    public void testToPositionsComplement() {
+        // The complement of the primer is found in the genome data and the positions are reversed
+        List<Integer> indexes = new PrimerAutomaton(List.of("GT")).findOccurrences("ACGTACCGT").get(0);
+        assertEquals(List.of(8, 3), Serotyping.toPositions(indexes, "AC", true, "test"));
+    }
+
+    @Test
+    public void testToPositionsOverlappingAtStart() {
+        List<Integer> indexes = new PrimerAutomaton(List.of("AA")).findOccurrences("AAAT").get(0);
+        assertEquals(List.of(1, 2), Serotyping.toPositions(indexes, "AA", false, "test"));
+        assertEquals(List.of(2, 1), Serotyping.toPositions(indexes, "TT", true, "test"));
+    }
+
+    @Test
+    public void testGetShortestDistance() {
+        assertEquals(Integer.MAX_VALUE, Serotyping.getShortestDistance(new int[]{}, 5, new int[]{10}, 5, 100));
+        assertEquals(25, Serotyping.getShortestDistance(new int[]{10, 30}, 5, new int[]{50}, 5, 100));
+        // Wraps around the end of the circular genome
+        assertEquals(20, Serotyping.getShortestDistance(new int[]{80}, 5, new int[]{5}, 5, 100));
+
+        Random random = new Random(1);
+        for(int i = 0; i < 200; i++) {
+            int genomeSize = 1000;
+            int[] primerA = random.ints(random.nextInt(20), 1, genomeSize - 30).sorted().toArray();
+            int[] primerB = random.ints(random.nextInt(20), 1, genomeSize - 30).sorted().toArray();
+            int expected = Integer.MAX_VALUE;
+            for(int a : primerA) {
+                for(int b : primerB) {
+                    expected = Math.min(expected, a > b ? genomeSize - a - 24 + b : b - a + 30);
+                }
+            }
+            assertEquals(expected, Serotyping.getShortestDistance(primerA, 24, primerB, 30, genomeSize));
+        }
     }
 }
@@ -0,0 +1,93 @@
+package com.henrikroslund.pipeline.stage;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.Genome;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StageTest {
+
+    private static class TestStage extends Stage {
+
+        TestStage() {
+            super(TestStage.class);
+        }
+
+        @Override
+        protected Genome execute(Genome inputGenome) {
+            return inputGenome;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+
+        @Override
+        protected String getStageFolder() {
+            return "/genomes";
+        }
+    }
+
+    @Test
+    public void testPreProcessInputFilesWithIoExecutor() throws Exception {
+        File directory = new File("target/tmp/stage_preprocess");
+        FileUtils.deleteDirectory(directory);
+        File inputFolder = new File(directory, "input/genomes");
+        assertTrue(inputFolder.mkdirs());
+        for(int i = 0; i < 3; i++) {
+            Files.writeString(new File(inputFolder, "genome" + i + ".fasta").toPath(), ">first\nACGT\n>second\nacgt\n");
+        }
+        TestStage stage = new TestStage();
+        stage.configure(new File(directory, "input").getPath(), new File(directory, "output").getPath(), true);
+        AtomicInteger ioThreads = new AtomicInteger();
+        ExecutorService ioExecutor = Executors.newFixedThreadPool(2, runnable -> {
+            ioThreads.incrementAndGet();
+            return new Thread(runnable);
+        });
+        try {
+            stage.setIoExecutor(ioExecutor);
+            stage.preProcessInputFiles();
+        } finally {
+            ioExecutor.shutdown();
+        }
+        assertTrue(ioThreads.get() > 0);
+        for(int i = 0; i < 3; i++) {
+            assertFalse(new File(inputFolder, "genome" + i + ".fasta").exists());
+            assertEquals(">second\nACGT\n", Files.readString(new File(inputFolder, "genome" + i + "_1.fasta").toPath()));
+        }
+    }
+}
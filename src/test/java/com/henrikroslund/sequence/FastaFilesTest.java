@@ -0,0 +1,226 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.Genome;
+import com.henrikroslund.Utils;
+import com.henrikroslund.pipeline.StageExecutor;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FastaFilesTest {
+
+    private File createFolder(String name) throws Exception {
+        File directory = new File("target/tmp/" + name);
+        FileUtils.deleteDirectory(directory);
+        assertTrue(directory.mkdirs());
+        return directory;
+    }
+
+    private static void writeGzip(File file, byte[] data) throws IOException {
+        try(OutputStream output = new GZIPOutputStream(new FileOutputStream(file))) {
+            output.write(data);
+        }
+    }
+
+    /**
+     * Will write the data as BGZF blocks of at most blockSize uncompressed bytes followed by the empty end of file block
+     */
+    private static void writeBgzf(File file, byte[] data, int blockSize) throws IOException {
+        try(OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+            for(int offset = 0; offset < data.length; offset += blockSize) {
+                writeBgzfBlock(output, data, offset, Math.min(blockSize, data.length - offset));
+            }
+            writeBgzfBlock(output, data, 0, 0);
+        }
+    }
+
+    private static void writeBgzfBlock(OutputStream output, byte[] data, int offset, int length) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        byte[] compressed = new byte[length + 1024];
+        int compressedLength = deflater.deflate(compressed);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        ByteBuffer block = ByteBuffer.allocate(18 + compressedLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+        block.put(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0});
+        block.putShort((short) (block.capacity() - 1));
+        block.put(compressed, 0, compressedLength);
+        block.putInt((int) crc.getValue());
+        block.putInt(length);
+        output.write(block.array());
+    }
+
+    private static byte[] createFasta(int bases) {
+        Random random = new Random(1);
+        StringBuilder fasta = new StringBuilder(">genome sequence, complete genome\n");
+        for(int i = 0; i < bases; i++) {
+            fasta.append("ACGT".charAt(random.nextInt(4)));
+            if(i % 70 == 69) {
+                fasta.append('\n');
+            }
+        }
+        return fasta.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> readWindows(File file) throws IOException {
+        List<String> windows = new ArrayList<>();
+        FastaKmerReader.read(file.toPath(), 1000, batch -> {
+            for(int i = 0; i < batch.size(); i++) {
+                windows.add(batch.getStartIndex(i) + SequenceEncoding.decode(batch.getEncoded(i)));
+            }
+        });
+        return windows;
+    }
+
+    @Test
+    public void testBgzf() throws Exception {
+        File directory = createFolder("fasta_files_bgzf");
+        byte[] data = createFasta(200000);
+        File file = new File(directory, "genome.fna.gz");
+        writeBgzf(file, data, 5000);
+
+        // A BGZF file is also a valid gzip file with multiple members
+        try(InputStream input = new GZIPInputStream(new FileInputStream(file))) {
+            assertArrayEquals(data, input.readAllBytes());
+        }
+        try(InputStream input = FastaFiles.openStream(file.toPath())) {
+            assertTrue(input instanceof BgzfInputStream);
+            assertArrayEquals(data, input.readAllBytes());
+        }
+        try(InputStream input = FastaFiles.openStream(file.toPath())) {
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            byte[] buffer = new byte[7];
+            int count;
+            while((count = input.read(buffer)) != -1) {
+                read.write(buffer, 0, count);
+            }
+            assertArrayEquals(data, read.toByteArray());
+        }
+
+        File plain = new File(directory, "genome.fasta");
+        Files.write(plain.toPath(), data);
+        assertEquals(readWindows(plain), readWindows(file));
+        assertEquals(Utils.getFirstRow(plain.getAbsolutePath()), Utils.getFirstRow(file.getAbsolutePath()));
+        String firstRow = Utils.getFirstRow(file.getAbsolutePath());
+        assertEquals(Genome.getSequenceData(plain.getAbsolutePath(), firstRow), Genome.getSequenceData(file.getAbsolutePath(), firstRow));
+    }
+
+    @Test
+    public void testBgzfWithOneThread() throws Exception {
+        File directory = createFolder("fasta_files_bgzf_one_thread");
+        byte[] data = createFasta(50000);
+        writeBgzf(new File(directory, "genome.fna.gz"), data, 5000);
+        File plain = new File(createFolder("fasta_files_bgzf_one_thread_plain"), "genome.fasta");
+        Files.write(plain.toPath(), data);
+        int expected = new Genome(plain, Collections.emptyList(), true, false).getTotalSequences();
+        ExecutorService ioExecutor = Executors.newFixedThreadPool(1);
+        // The blocks are decompressed in the pool of the stage while its only thread waits for the genome
+        try(StageExecutor executor = new StageExecutor("test", 1)) {
+            List<Genome> genomes = assertTimeoutPreemptively(Duration.ofSeconds(60), () -> executor.submit(() ->
+                    Utils.loadGenomesInFolder(directory.getPath(), Collections.emptyList(), true, false, ioExecutor)));
+            assertEquals(1, genomes.size());
+            assertEquals(expected, genomes.get(0).getTotalSequences());
+            byte[] read = assertTimeoutPreemptively(Duration.ofSeconds(60), () -> executor.submit(() -> {
+                try(InputStream input = FastaFiles.openStream(new File(directory, "genome.fna.gz").toPath())) {
+                    return input.readAllBytes();
+                }
+            }));
+            assertArrayEquals(data, read);
+        } finally {
+            ioExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBgzfInvalidChecksum() throws Exception {
+        File directory = createFolder("fasta_files_bgzf_checksum");
+        File file = new File(directory, "genome.fasta.gz");
+        writeBgzf(file, createFasta(1000), 5000);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        // The checksum of the first block is 8 bytes before the end of the block, which is followed by the 28 byte end of file block
+        bytes[bytes.length - 28 - 8] ^= 1;
+        Files.write(file.toPath(), bytes);
+        try(InputStream input = FastaFiles.openStream(file.toPath())) {
+            assertThrows(IOException.class, input::readAllBytes);
+        }
+    }
+
+    @Test
+    public void testGzipGenome() throws Exception {
+        File directory = createFolder("fasta_files_gzip");
+        for(int i = 1; i <= 2; i++) {
+            File chromosome = new File("src/test/resources/chromosomes/genome chromosome " + i + ".fasta");
+            writeGzip(new File(directory, chromosome.getName() + ".gz"), Files.readAllBytes(chromosome.toPath()));
+        }
+        File plain = new File("src/test/resources/chromosomes/genome chromosome 1.fasta");
+        File compressed = new File(directory, "genome chromosome 1.fasta.gz");
+        try(InputStream input = FastaFiles.openStream(compressed.toPath())) {
+            assertTrue(input instanceof GZIPInputStream);
+        }
+        for(boolean includeAllChromosomes : new boolean[]{false, true}) {
+            Genome expected = new Genome(plain, Collections.emptyList(), true, includeAllChromosomes);
+            Genome genome = new Genome(compressed, Collections.emptyList(), true, includeAllChromosomes);
+            assertEquals(expected.getFilename(), genome.getFilename());
+            assertEquals(new ArrayList<>(expected.getSequences()), new ArrayList<>(genome.getSequences()));
+        }
+        assertEquals(2, Utils.getFastaFilesInFolder(directory.getPath()).size());
+    }
+
+    @Test
+    public void testPreprocessCompressed() throws Exception {
+        File directory = createFolder("fasta_files_preprocess");
+        File file = new File(directory, "genome.fna.gz");
+        writeBgzf(file, ">first\nACGTA\n>second\nacgt\n".getBytes(StandardCharsets.UTF_8), 10);
+        List<File> files = FastaPreprocessor.preprocess(file, directory.getPath());
+        assertEquals(2, files.size());
+        assertEquals(new File(directory, "genome_0.fasta").getPath(), files.get(0).getPath());
+        assertEquals(">second\nACGT\n", Files.readString(files.get(1).toPath()));
+        assertFalse(file.exists());
+    }
+}
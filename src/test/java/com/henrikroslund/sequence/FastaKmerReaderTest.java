@@ -0,0 +1,101 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.TestUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FastaKmerReaderTest {
+
+    private static List<Sequence> read(CharSequence sequenceData, int batchSize) {
+        List<Sequence> sequences = new ArrayList<>();
+        FastaKmerReader.read(sequenceData, batchSize, batch -> addAll(batch, sequences));
+        return sequences;
+    }
+
+    private static void addAll(FastaKmerReader.Batch batch, List<Sequence> sequences) {
+        for(int i = 0; i < batch.size(); i++) {
+            sequences.add(new Sequence(batch.getEncoded(i), batch.getStartIndex(i), "genome", false));
+            sequences.add(new Sequence(batch.getReverseComplement(i), batch.getComplementStartIndex(i), "genome", true));
+        }
+    }
+
+    @Test
+    public void testSameAsEncodingEachWindow() {
+        String sequenceData = TestUtils.VALID_STRICT_CRISPR_SEQUENCE + "GATTACA" + TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2;
+        for(int batchSize : new int[]{1, 3, FastaKmerReader.DEFAULT_BATCH_SIZE}) {
+            List<Sequence> sequences = read(sequenceData, batchSize);
+            assertEquals((sequenceData.length() - Sequence.RAW_LENGTH + 1) * 2, sequences.size());
+            for(int i = 0; i + Sequence.RAW_LENGTH <= sequenceData.length(); i++) {
+                Sequence expected = new Sequence(sequenceData.substring(i, i + Sequence.RAW_LENGTH), i, "genome");
+                Sequence forward = sequences.get(i * 2);
+                Sequence complement = sequences.get(i * 2 + 1);
+                assertEquals(expected, forward);
+                assertEquals(i, forward.getStartIndex());
+                assertEquals(expected.getComplement(), complement);
+                assertEquals(expected.getComplement().getStartIndex(), complement.getStartIndex());
+                assertTrue(complement.getIsComplement());
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidCharactersAndLowerCase() {
+        List<Sequence> sequences = read("n" + TestUtils.VALID_STRICT_CRISPR_SEQUENCE.toLowerCase() + "NA", 10);
+        assertEquals(2, sequences.size());
+        assertEquals(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, sequences.get(0).getRaw());
+        assertEquals(1, sequences.get(0).getStartIndex());
+
+        assertTrue(read(TestUtils.VALID_STRICT_CRISPR_SEQUENCE.substring(0, 12) + "N" + TestUtils.VALID_STRICT_CRISPR_SEQUENCE.substring(12), 10).isEmpty());
+    }
+
+    @Test
+    public void testFastaFile() throws Exception {
+        Path fastaFile = Path.of("target/tmp/FastaKmerReaderTest.fasta");
+        new File("target/tmp").mkdirs();
+        String sequence = TestUtils.VALID_STRICT_CRISPR_SEQUENCE;
+        Files.writeString(fastaFile, ">header TTTACCCCCAAAAACCCCCAAATG\r\n" + sequence.substring(0, 10) + "\r\n"
+                + sequence.substring(10) + "\nA\n>second header\n" + sequence + "\n");
+        List<Sequence> sequences = new ArrayList<>();
+        FastaKmerReader.read(fastaFile, 2, batch -> addAll(batch, sequences));
+        assertEquals(6, sequences.size());
+        assertEquals(sequence, sequences.get(0).getRaw());
+        assertEquals(0, sequences.get(0).getStartIndex());
+        assertEquals(1, sequences.get(2).getStartIndex());
+        // Windows never span a header and the header is not counted as positions
+        assertEquals(sequence, sequences.get(4).getRaw());
+        assertEquals(sequence.length() + 1, sequences.get(4).getStartIndex());
+    }
+}
@@ -0,0 +1,131 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.Genome;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FastaPreprocessorTest {
+
+    private File createFolder(String name) throws Exception {
+        File directory = new File("target/tmp/" + name);
+        FileUtils.deleteDirectory(directory);
+        assertTrue(directory.mkdirs());
+        return directory;
+    }
+
+    private File createFile(File directory, String name, String content) throws Exception {
+        File file = new File(directory, name);
+        Files.writeString(file.toPath(), content);
+        return file;
+    }
+
+    @Test
+    public void testUnchangedFile() throws Exception {
+        File directory = createFolder("fasta_preprocessor_unchanged");
+        File file = createFile(directory, "genome.fasta", ">genome one\nACGTNACGTA\nACG\n");
+        assertTrue(FastaPreprocessor.preprocess(file, directory.getPath()).isEmpty());
+        assertTrue(file.exists());
+        assertFalse(FastaIndex.getIndexFile(file).exists());
+    }
+
+    @Test
+    public void testUnchangedFileWithTrailingEmptyLine() throws Exception {
+        File directory = createFolder("fasta_preprocessor_trailing_empty_line");
+        String content = ">genome one\nACGTNACGTA\nACG\n\n";
+        File file = createFile(directory, "genome.fasta", content);
+        assertTrue(FastaPreprocessor.preprocess(file, directory.getPath()).isEmpty());
+        assertEquals(content, Files.readString(file.toPath()));
+        assertFalse(new File(file.getPath() + FastaPreprocessor.SKIP_FILE_ENDING).exists());
+        assertEquals("ACGTNACGTAACG", Genome.getSequenceData(file.getAbsolutePath(), ">genome one\n"));
+    }
+
+    @Test
+    public void testSplitMultipleGenomes()throws Exception {
+        File directory = createFolder("fasta_preprocessor_split");
+        File file = createFile(directory, "genome.fasta", ">first genome\nACGTA\nACG\n\n>second\r\nacgtA\r\ncgTAc\r\nA");
+        List<File> files = FastaPreprocessor.preprocess(file, directory.getPath());
+        assertEquals(2, files.size());
+        assertFalse(file.exists());
+        assertTrue(new File(file.getPath() + FastaPreprocessor.SKIP_FILE_ENDING).exists());
+
+        assertEquals(new File(directory, "genome_0.fasta").getPath(), files.get(0).getPath());
+        assertEquals(">first genome\nACGTA\nACG\n", Files.readString(files.get(0).toPath()));
+        assertEquals(">second\nACGTA\nCGTAC\nA\n", Files.readString(files.get(1).toPath()));
+
+        List<FastaIndex.Entry> index = FastaIndex.read(files.get(1));
+        assertEquals(1, index.size());
+        assertEquals("second", index.get(0).getName());
+        assertEquals(11, index.get(0).getLength());
+        assertEquals(8, index.get(0).getOffset());
+        assertEquals(5, index.get(0).getLineBases());
+        assertEquals(6, index.get(0).getLineBytes());
+        assertEquals("ACGTACGTACA", FastaIndex.readSequenceData(files.get(1), index.get(0)));
+
+        // The sequence data is the same whether the index is used or not
+        String firstRow = ">second\n";
+        assertEquals("ACGTACGTACA", Genome.getSequenceData(files.get(1).getAbsolutePath(), firstRow));
+        assertTrue(FastaIndex.getIndexFile(files.get(1)).delete());
+        assertEquals("ACGTACGTACA", Genome.getSequenceData(files.get(1).getAbsolutePath(), firstRow));
+    }
+
+    @Test
+    public void testLowerCase() throws Exception {
+        File directory = createFolder("fasta_preprocessor_lower_case");
+        File file = createFile(directory, "genome.fasta", ">genome name\nACGTacgt\n");
+        List<File> files = FastaPreprocessor.preprocess(file, directory.getPath());
+        assertEquals(1, files.size());
+        assertEquals(">genome name\nACGTACGT\n", Files.readString(files.get(0).toPath()));
+
+        File chromosome = createFile(directory, "genome chromosome 1.fasta", ">genome\nacgt\n");
+        assertThrows(Exception.class, () -> FastaPreprocessor.preprocess(chromosome, directory.getPath()));
+    }
+
+    @Test
+    public void testIndexIrregularLines() {
+        FastaIndex.Builder builder = new FastaIndex.Builder();
+        for(byte character : ">a\nACG\nAC\nACG\n>b x\nAC\nAC\nA".getBytes()) {
+            builder.accept(character);
+        }
+        List<FastaIndex.Entry> entries = builder.build();
+        assertEquals(2, entries.size());
+        assertEquals(8, entries.get(0).getLength());
+        assertEquals(0, entries.get(0).getLineBases());
+        assertEquals("b", entries.get(1).getName());
+        assertEquals(5, entries.get(1).getLength());
+        assertEquals(19, entries.get(1).getOffset());
+        assertEquals(2, entries.get(1).getLineBases());
+        assertEquals(3, entries.get(1).getLineBytes());
+    }
+}
@@ -0,0 +1,105 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.TestUtils;
+import com.henrikroslund.evaluators.comparisons.TypeEvaluator;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedSequencesFileTest {
+
+    private static final String FIRST_ROW = ">genome first row\n";
+
+    private Path getFile(String name) throws IOException {
+        new File("target/tmp").mkdirs();
+        Path path = Path.of("target/tmp/" + name);
+        Files.deleteIfExists(path);
+        return path;
+    }
+
+    @Test
+    public void testWriteAndOpen() throws Exception {
+        PackedSequences sequences = new PackedSequences();
+        long encoded = SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE);
+        // More than 64 sequences so the complement bits span multiple words
+        for(int i = 0; i < 150; i++) {
+            sequences.add(encoded + i, i * 3, i % 3 == 0, i % 2 == 0 ? "genome1" : "genome2");
+        }
+        Path path = getFile("PackedSequencesFileTest.genome.bin");
+        PackedSequencesFile.write(path, FIRST_ROW, sequences, false);
+
+        PackedSequencesFile file = PackedSequencesFile.open(path);
+        assertEquals(FIRST_ROW, file.getFirstRow());
+        assertEquals(FIRST_ROW, PackedSequencesFile.readFirstRow(path));
+        PackedSequences loaded = file.getSequences();
+        assertTrue(loaded.isImmutable());
+        assertFalse(loaded.isSorted());
+        assertFalse(loaded.hasMetaData());
+        assertEquals(sequences.size(), loaded.size());
+        for(int i = 0; i < sequences.size(); i++) {
+            assertEquals(sequences.getEncoded(i), loaded.getEncoded(i));
+            assertEquals(sequences.getStartIndex(i), loaded.getStartIndex(i));
+            assertEquals(sequences.getIsComplement(i), loaded.getIsComplement(i));
+            assertEquals(sequences.get(i).getGenome(), loaded.get(i).getGenome());
+        }
+        assertThrows(UnsupportedOperationException.class, () -> loaded.add(encoded, 0, false, "genome1"));
+    }
+
+    @Test
+    public void testSortedWithMetaData() throws Exception {
+        PackedSequences sequences = new PackedSequences();
+        Sequence sequence = new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2, 7, "genome1");
+        sequence.increaseMetaDataCounters(List.of(TypeEvaluator.Type.TYPE_2));
+        sequences.add(sequence);
+        sequences.add(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 5, "genome1", true));
+        PackedSequences sorted = sequences.toSortedUnique();
+
+        Path path = getFile("PackedSequencesFileTest_sorted.genome.bin");
+        PackedSequencesFile.write(path, FIRST_ROW, sorted, true);
+        PackedSequences loaded = PackedSequencesFile.open(path).getSequences();
+        assertTrue(loaded.isSorted());
+        assertTrue(loaded.contains(sequence));
+        Sequence loadedSequence = loaded.get(loaded.indexOf(sequence.getEncoded()));
+        assertEquals(sequence.getMetaData(), loadedSequence.getMetaData());
+        assertNull(loaded.getMetaData(loaded.indexOf(SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE))));
+    }
+
+    @Test
+    public void testOpenInvalidFile() throws Exception {
+        Path path = getFile("PackedSequencesFileTest_invalid.genome.bin");
+        Files.writeString(path, FIRST_ROW + "TTTACCCCCAAAAACCCCCAAATG + 0 genome\n");
+        assertThrows(IOException.class, () -> PackedSequencesFile.open(path));
+    }
+}
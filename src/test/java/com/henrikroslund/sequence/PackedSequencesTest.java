@@ -0,0 +1,110 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.TestUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedSequencesTest {
+
+    @Test
+    public void testAddAndGet() {
+        PackedSequences sequences = new PackedSequences(1);
+        Sequence sequence = new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 5, "genome1");
+        sequences.add(sequence);
+        sequences.add(sequence.getComplement());
+        sequences.add(SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2), 100, false, "genome2");
+        assertEquals(3, sequences.size());
+
+        Sequence first = sequences.get(0);
+        assertEquals(sequence, first);
+        assertEquals(5, first.getStartIndex());
+        assertFalse(first.getIsComplement());
+        assertEquals("genome1", first.getGenome());
+
+        Sequence second = sequences.get(1);
+        assertEquals(TestUtils.VALID_CRISPR_SEQUENCE_COMPLEMENT, second.getRaw());
+        assertTrue(second.getIsComplement());
+        assertEquals(sequence.getComplement().getStartIndex(), second.getStartIndex());
+
+        assertEquals("genome2", sequences.get(2).getGenome());
+        assertEquals(0, sequences.getGenomeId(0));
+        assertEquals(0, sequences.getGenomeId(1));
+        assertEquals(1, sequences.getGenomeId(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> sequences.get(3));
+    }
+
+    @Test
+    public void testIterator() {
+        PackedSequences sequences = new PackedSequences();
+        sequences.add(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 5, "genome1"));
+        sequences.add(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2, 7, "genome1"));
+        Iterator<Sequence> it = sequences.iterator();
+        assertEquals(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, it.next().getRaw());
+        assertEquals(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2, it.next().getRaw());
+        assertFalse(it.hasNext());
+        assertTrue(sequences.contains(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2, 0, "other")));
+    }
+
+    @Test
+    public void testToSortedUnique() {
+        PackedSequences sequences = new PackedSequences();
+        sequences.add(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2, 7, "genome1"));
+        sequences.add(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 5, "genome1"));
+        sequences.add(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2, 3, "genome2"));
+
+        PackedSequences sorted = sequences.toSortedUnique();
+        assertTrue(sorted.isSorted());
+        assertEquals(2, sorted.size());
+        assertTrue(sorted.getEncoded(0) < sorted.getEncoded(1));
+        Sequence duplicate = sorted.get(sorted.indexOf(SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2)));
+        assertEquals(7, duplicate.getStartIndex());
+        assertEquals("genome1", duplicate.getGenome());
+
+        assertTrue(sorted.contains(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 0, "other")));
+        assertFalse(sorted.contains(new Sequence(TestUtils.VALID_CRISPR_SEQUENCE_COMPLEMENT, 0, "other")));
+        assertThrows(UnsupportedOperationException.class, () -> sorted.add(new Sequence(TestUtils.VALID_CRISPR_SEQUENCE_COMPLEMENT, 0, "other")));
+    }
+
+    @Test
+    public void testAppend() {
+        PackedSequences sequences = new PackedSequences(1);
+        sequences.add(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 5, "genome1"));
+        PackedSequences other = new PackedSequences(1);
+        other.add(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2, 7, "genome2"));
+        other.add(new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2, 9, "genome1"));
+        sequences.append(other);
+        assertEquals(3, sequences.size());
+        assertEquals("genome2", sequences.get(1).getGenome());
+        assertEquals(0, sequences.getGenomeId(2));
+        assertEquals(9, sequences.getStartIndex(2));
+    }
+}
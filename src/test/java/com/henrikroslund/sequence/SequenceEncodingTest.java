@@ -0,0 +1,114 @@
+package com.henrikroslund.sequence;
+
+/*-
+ * #%L
+ * crispr-cas12a
+ * %%
+ * Copyright (C) 2020 - 2022 Henrik Roslund
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.henrikroslund.TestUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SequenceEncodingTest {
+
+    @Test
+    public void testEncodeDecode() {
+        long encoded = SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE);
+        assertTrue(encoded >= 0);
+        assertEquals(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, SequenceEncoding.decode(encoded));
+        assertEquals(0, SequenceEncoding.encode("AAAAAAAAAAAAAAAAAAAAAAAA"));
+        assertEquals(SequenceEncoding.RAW_MASK, SequenceEncoding.encode("TTTTTTTTTTTTTTTTTTTTTTTT"));
+    }
+
+    @Test
+    public void testEncodeLowerCase() {
+        assertEquals(SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE),
+                SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE.toLowerCase()));
+    }
+
+    @Test
+    public void testEncodeInvalid() {
+        assertEquals(SequenceEncoding.INVALID, SequenceEncoding.encode("TTTACCCCCAAAAACCCCCAAATN"));
+        assertEquals(SequenceEncoding.INVALID, SequenceEncoding.encode("TTTACCCCCAAAAACCCCCAAAT"));
+        assertEquals(SequenceEncoding.INVALID, SequenceEncoding.encode("NNNNNNNNNNNNNNNNNNNNNNNNN", 1));
+    }
+
+    @Test
+    public void testEncodeWithOffset() {
+        String data = "GG" + TestUtils.VALID_STRICT_CRISPR_SEQUENCE + "CC";
+        assertEquals(SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE), SequenceEncoding.encode(data, 2));
+    }
+
+    @Test
+    public void testReverseComplement() {
+        long encoded = SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE);
+        long complement = SequenceEncoding.reverseComplement(encoded);
+        assertEquals(TestUtils.VALID_CRISPR_SEQUENCE_COMPLEMENT, SequenceEncoding.decode(complement));
+        assertEquals(encoded, SequenceEncoding.reverseComplement(complement));
+        assertEquals(Sequence.getComplement(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2),
+                SequenceEncoding.decode(SequenceEncoding.reverseComplement(SequenceEncoding.encode(TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2))));
+    }
+
+    @Test
+    public void testOrderSameAsRaw() {
+        String[] raws = {"AAAAAAAAAAAAAAAAAAAAAAAT", "CAAAAAAAAAAAAAAAAAAAAAAA", TestUtils.VALID_STRICT_CRISPR_SEQUENCE,
+                TestUtils.VALID_STRICT_CRISPR_SEQUENCE_2, "TTTTTTTTTTTTTTTTTTTTTTTG"};
+        for(String raw1 : raws) {
+            for(String raw2 : raws) {
+                assertEquals(Integer.signum(raw1.compareTo(raw2)),
+                        Long.signum(Long.compare(SequenceEncoding.encode(raw1), SequenceEncoding.encode(raw2))));
+            }
+        }
+    }
+
+    @Test
+    public void testMasks() {
+        long encoded = SequenceEncoding.encode("TTTACCCCCAAAAACCCCCAAATG");
+        long other = SequenceEncoding.encode("TTTAGGGGGAAAAACCCCCAAATG");
+        assertTrue(SequenceEncoding.equals(encoded, other, SequenceEncoding.PAM_MASK));
+        assertFalse(SequenceEncoding.equals(encoded, other, SequenceEncoding.SEED_MASK));
+        assertEquals(0xFFL << SequenceEncoding.shift(Sequence.PAM_LENGTH - 1), SequenceEncoding.PAM_MASK);
+    }
+
+    @Test
+    public void testMismatches() {
+        long encoded = SequenceEncoding.encode("TTTACCCCCAAAAACCCCCAAATG");
+        long other = SequenceEncoding.encode("TTTAGTGCCAAAAACCCCCAAATC");
+        long all = SequenceEncoding.rangeMask(0, Sequence.RAW_INDEX_END);
+        assertEquals(0, SequenceEncoding.mismatches(encoded, encoded, all));
+        assertEquals(4, SequenceEncoding.mismatches(encoded, other, all));
+        assertEquals(3, SequenceEncoding.mismatches(encoded, other, SequenceEncoding.SEED_MASK));
+        assertEquals(0, SequenceEncoding.mismatches(encoded, other, SequenceEncoding.PAM_MASK));
+    }
+
+    @Test
+    public void testLongestRun() {
+        long encoded = SequenceEncoding.encode("TTTACCCCCAAAAACCCCCAAATG");
+        assertEquals(0, SequenceEncoding.longestRun(0));
+        assertEquals(3, SequenceEncoding.longestRun(SequenceEncoding.mismatchBits(encoded, SequenceEncoding.encode("TTTAGTGCCAAAAACCCCCAAATC"))));
+        assertEquals(2, SequenceEncoding.longestRun(SequenceEncoding.mismatchBits(encoded, SequenceEncoding.encode("TTTAGTCGCAAAAACCCCCAAATC"))));
+        assertEquals(Sequence.RAW_LENGTH, SequenceEncoding.longestRun(SequenceEncoding.LOW_BITS));
+    }
+}
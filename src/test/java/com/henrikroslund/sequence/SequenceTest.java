@@ -34,6 +34,7 @@ import org.junit.jupiter.api.Test;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -64,12 +65,35 @@ public class SequenceTest {
     }
 
     @Test
-    public void testHashCalculations() {
-        String pam = "CGCG";
-        String seed = "TATATA";
-        Sequence sequence1 = new Sequence(pam + seed + "AATGTTAGTATCAA", 5, "test");
-        assertEquals(pam.hashCode(), sequence1.getPamHash());
-        assertEquals(seed.hashCode(), sequence1.getSeedHash());
+    public void testPamAndSeedEqual() {
+        Sequence sequence1 = new Sequence("CGCGTATATAAATGTTAGTATCAA", 5, "test");
+        Sequence sequence2 = new Sequence("CGCGTATATACCCCCCCCCCCCCC", 10, "test");
+        Sequence sequence3 = new Sequence("CGCCTATATTAATGTTAGTATCAA", 10, "test");
+        assertTrue(sequence1.equalsPam(sequence2));
+        assertTrue(sequence1.equalsSeed(sequence2));
+        assertNotEquals(sequence1, sequence2);
+        assertFalse(sequence1.equalsPam(sequence3));
+        assertFalse(sequence1.equalsSeed(sequence3));
+    }
+
+    @Test
+    public void testInvalidCharacters() {
+        assertThrows(InvalidSequenceException.class, () -> new Sequence("TTTNCCCCCAAAAACCCCCAAATG", 5, "test"));
+    }
+
+    @Test
+    public void testGCCount() {
+        assertEquals(0, new Sequence("GGCCAAAAAAAAAAAAAAAAAAAA", 0, "test").getGCCount());
+        assertEquals(11, new Sequence("TTTACCCCCAAAAACCCCCAAATG", 0, "test").getGCCount());
+        assertEquals(20, new Sequence("TTTAGCGCGCGCGCGCGCGCGCGC", 0, "test").getGCCount());
+    }
+
+    @Test
+    public void testHashCodeConsistentWithEquals() {
+        Sequence sequence1 = new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 5, "test");
+        Sequence sequence2 = new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 10, "test2", true);
+        assertEquals(sequence1, sequence2);
+        assertEquals(sequence1.hashCode(), sequence2.hashCode());
     }
 
     @Test
@@ -121,6 +145,22 @@ public class SequenceTest {
         assertEquals(Integer.valueOf(10), sequence.getMetaData().get(TypeEvaluator.Type.TYPE_2));
     }
 
+    @Test
+    public void testIncreaseMetaDataCountersInParallel() {
+        Sequence sequence = new Sequence(TestUtils.VALID_STRICT_CRISPR_SEQUENCE, 5, "test");
+        assertFalse(sequence.hasMetaData());
+        assertEquals("", sequence.metaDataToString());
+        int increases = 10000;
+        IntStream.range(0, increases).parallel().forEach(i ->
+                sequence.increaseMetaDataCounters(List.of(TypeEvaluator.Type.TYPE_1, TypeEvaluator.Type.TYPE_5)));
+        assertTrue(sequence.hasMetaData());
+        assertEquals(Integer.valueOf(increases), sequence.getMetaData(TypeEvaluator.Type.TYPE_1));
+        assertEquals(Integer.valueOf(increases), sequence.getMetaData().get(TypeEvaluator.Type.TYPE_5));
+        assertEquals(Integer.valueOf(0), sequence.getMetaData(TypeEvaluator.Type.TYPE_2));
+        assertEquals("TYPE_1=10000&TYPE_2=0&TYPE_3=0&TYPE_4=0&TYPE_5=10000&TYPE_6=0&TYPE_DISCARD=0", sequence.metaDataToString());
+        assertEquals(sequence.getMetaData(), Sequence.stringToMetaData(sequence.metaDataToString()));
+    }
+
     @Test
     public void testRawHashCollision() {
         String raw1 = "TTTCAATGGTCGCGAACCCACCGT";